@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import edu.stanford.nlp.ling.Tag;
 import edu.stanford.nlp.ling.Word;
@@ -16,13 +15,14 @@ import edu.stanford.nlp.trees.Tree;
 
 import parser.EarleyParser;
 
-import base.Edge;
 
 /**
  * @author Minh-Thang Luong, 2012
  *
  */
 public class MarginalDecoder extends Decoder {
+  public static final double TIE_EPSILON = 1e-10; // max relative difference of marginals that tie
+  
   public MarginalDecoder(EarleyParser parser, int verbose) {
     super(parser, verbose);
     // TODO Auto-generated constructor stub
@@ -34,15 +34,16 @@ public class MarginalDecoder extends Decoder {
   }
 
   public Map<Integer, Double> computeMarginalMap(int left, int right){
-    // edges with both inside and outside scores over [left, right]
-    Set<Integer> edges = parser.listInsideEdges(left, right);
-    edges.retainAll(parser.listOutsideEdges(left, right));
-    
     Map<Integer, Double> marginalMap = new HashMap<Integer, Double>();
-    for (int edge : edges) { // edge
-      Edge edgeObj = edgeSpace.get(edge);
-      if(edgeObj.numRemainingChildren()==0){ // completed edge
-        int tag = edgeObj.getMother();
+    for (int edge = parser.nextOutsideEdge(left, right, -1); edge >= 0; 
+        edge = parser.nextOutsideEdge(left, right, edge)) { // edge
+      // edges with both inside and outside scores over [left, right]
+      if(!parser.containsInsideEdge(left, right, edge)){
+        continue;
+      }
+      
+      if(edgeSpace.numRemaining(edge)==0){ // completed edge
+        int tag = edgeSpace.mother(edge);
 
         // numerator of expected count
         double score = operator.multiply(parser.getOuterScore(left, right, edge), 
@@ -60,6 +61,10 @@ public class MarginalDecoder extends Decoder {
     return marginalMap;
   }
   
+  /**
+   * Tag with the highest marginal. Marginals within a relative TIE_EPSILON of each other are ties, which go to
+   * the smallest tag index, so that the result doesn't depend on the order in which the chart summed them.
+   */
   public int argmax(Map<Integer, Double> marginalMap, String prefixFilter){
     assert(marginalMap.size()>0);
     
@@ -69,9 +74,17 @@ public class MarginalDecoder extends Decoder {
 //      System.err.println(parserTagIndex.get(tag) + "\t" + marginalMap.get(tag));
       assert(parserTagIndex.get(tag).startsWith(prefixFilter) || parserTagIndex.get(tag).equals(""));
       
-      if(marginalMap.get(tag) > bestScore){
+      double score = marginalMap.get(tag);
+      boolean isBetter;
+      if(bestTag<0){
+        isBetter = true;
+      } else {
+        double ratio = operator.getProb(operator.divide(score, bestScore)); // score/bestScore, in either domain
+        isBetter = (Math.abs(ratio - 1.0) <= TIE_EPSILON) ? tag < bestTag : score > bestScore;
+      }
+      if(isBetter){
         bestTag = tag;
-        bestScore = marginalMap.get(tag);
+        bestScore = score;
       }
     }
     
@@ -157,11 +170,27 @@ public class MarginalDecoder extends Decoder {
   }
 
   private Tree getBestParse(int startIndex, int endIndex){
+    Tree bestParse = getBestParse(startIndex, endIndex, false);
+    if(bestParse==null){ // e.g., a pruned chart only has the constituents of a few parses, too few to split n-ary rules
+      bestParse = getBestParse(startIndex, endIndex, true);
+    }
+    assert(bestParse!=null);
+    return bestParse;
+  }
+  
+  /**
+   * Best parse over [startIndex, endIndex] made of binary splits, null if there's none
+   * 
+   * @param isBridging whether spans without constituents can also be split, their daughters then go
+   *   to the constituent above
+   */
+  private Tree getBestParse(int startIndex, int endIndex, boolean isBridging){
     assert(endIndex>startIndex);
     int numSpanWords = endIndex - startIndex;
     int[][] cellTags = new int[numSpanWords+1][numSpanWords+1];
     double[][] cellScores = new double[numSpanWords+1][numSpanWords+1];
     Tree[][] cellTrees = new Tree[numSpanWords+1][numSpanWords+1];
+    boolean[][] cellBridges = new boolean[numSpanWords+1][numSpanWords+1];
     
     // init span 1
     for (int left = startIndex; left < endIndex; left++) {
@@ -188,11 +217,16 @@ public class MarginalDecoder extends Decoder {
         int right = left + length;
         
         Map<Integer, Double> marginalMap = computeMarginalMap(left, right);
-        if (marginalMap.size()==0){ // no tag covers this span
+        boolean isBridge = (marginalMap.size()==0); // no tag covers this span
+        if (isBridge && !isBridging){
           continue;
         }
-        int bestTag = argmax(marginalMap, "");
-        double bestScore = marginalMap.get(bestTag);
+        int bestTag = -1;
+        double bestScore = operator.zero();
+        if (!isBridge){
+          bestTag = argmax(marginalMap, "");
+          bestScore = marginalMap.get(bestTag);
+        }
         
         // find middle position
         double bestSplitScore = operator.zero();
@@ -217,26 +251,35 @@ public class MarginalDecoder extends Decoder {
         
         bestScore = operator.add(bestScore, bestSplitScore);
         
-        // construct best parse
+        // construct best parse, bridges are replaced by their daughters
         List<Tree> daughterTreesList = new ArrayList<Tree>();
-        daughterTreesList.add(cellTrees[left-startIndex][bestSplit-startIndex]);
-        daughterTreesList.add(cellTrees[bestSplit-startIndex][right-startIndex]);
-        Tree bestParse = new LabeledScoredTreeNode(new Tag(parserTagIndex.get(bestTag)), 
+        for (int[] daughter : new int[][]{{left, bestSplit}, {bestSplit, right}}) {
+          Tree daughterTree = cellTrees[daughter[0]-startIndex][daughter[1]-startIndex];
+          if(cellBridges[daughter[0]-startIndex][daughter[1]-startIndex]){
+            daughterTreesList.addAll(daughterTree.getChildrenAsList());
+          } else {
+            daughterTreesList.add(daughterTree);
+          }
+        }
+        Tree bestParse = new LabeledScoredTreeNode(isBridge ? null : new Tag(parserTagIndex.get(bestTag)), 
             daughterTreesList);
         
         // assign
         cellTags[left-startIndex][right-startIndex] = bestTag;
         cellScores[left-startIndex][right-startIndex] = bestScore;
         cellTrees[left-startIndex][right-startIndex] = bestParse; 
+        cellBridges[left-startIndex][right-startIndex] = isBridge;
         if(verbose>=3){
-          System.err.println(left + "\t" + right + "\t" + parserTagIndex.get(bestTag)
+          System.err.println(left + "\t" + right + "\t" + (isBridge ? "(bridge)" : parserTagIndex.get(bestTag))
               + "\t" + bestScore + "\t" + bestParse);
         }
       }
     }
     
-    assert(cellTrees[0][endIndex-startIndex]!=null);
-    return cellTrees[0][endIndex-startIndex];
+    if(cellBridges[0][numSpanWords]){
+      return null;
+    }
+    return cellTrees[0][numSpanWords];
 
   }
 }
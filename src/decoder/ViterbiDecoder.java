@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.Map;
 
 import base.BackTrack;
-import base.Edge;
 import base.RuleSet;
 import parser.EarleyParser;
 import edu.stanford.nlp.ling.Label;
@@ -69,13 +68,12 @@ public class ViterbiDecoder extends Decoder {
     }
 
     // X -> \alpha . \beta
-    Edge edgeObj = edgeSpace.get(edge);
-    Label motherLabel = new Tag(parserTagIndex.get(edgeObj.getMother()));
+    Label motherLabel = new Tag(parserTagIndex.get(edgeSpace.mother(edge)));
     
     Tree returnTree = null;
-    if(edgeObj.getDot()==0 && edgeObj.numChildren()>0){ // X -> . \alpha
+    if(edgeSpace.dot(edge)==0 && edgeSpace.numRemaining(edge)>0){ // X -> . \alpha
       returnTree = new LabeledScoredTreeNode(motherLabel);
-    } else if(edgeObj.isTerminalEdge()){ // X -> _w1 ... _wn
+    } else if(edgeSpace.isTerminal(edge)){ // X -> _w1 ... _wn
       List<Tree> daughterTreesList = new ArrayList<Tree>();
       for (int i = left; i < right; i++) {
         daughterTreesList.add(new LabeledScoredTreeNode(new Word(words.get(i).word())));
@@ -83,7 +81,7 @@ public class ViterbiDecoder extends Decoder {
       
       returnTree = new LabeledScoredTreeNode(motherLabel, daughterTreesList);
     } else { // dot in the middle,  X -> \alpha Y . \beta
-      assert(edge==goalEdge || edgeObj.numChildren()>1);
+      assert(edge==goalEdge || edgeSpace.dot(edge)+edgeSpace.numRemaining(edge)>1);
       // edge is [left, right]: X -> \alpha Y . \beta
       
 //      Edge prevEdgeObj = edgeObj.getPrevEdge(); 
@@ -94,37 +92,35 @@ public class ViterbiDecoder extends Decoder {
 //        assert(backtrack.middle == (right-1));
 //        returnTree.addChild(new LabeledScoredTreeNode(new Word(words.get(backtrack.middle).word())));
       
-      if(hasFragmentRule && !edgeObj.isTagBeforeDot(1) 
-          && edgeObj.getChildBeforeDot(1)==wordIndices.get(right-1)) { // Y is in fact a terminal
-        int prevRight = right;
-        Edge prevEdgeObj = edgeObj; 
+      // the child before the dot is the one after the dot in the previous edge X -> \alpha . Y \beta
+      int prevEdge = edgeSpace.prev(edge);
+      if(hasFragmentRule && !edgeSpace.isNextTag(prevEdge) 
+          && edgeSpace.nextChild(prevEdge)==wordIndices.get(right-1)) { // Y is in fact a terminal
+        int prevRight = right-1;
         // keep backtrack until no more matching terminals
-        do {
+        while(prevRight>0 && edgeSpace.dot(prevEdge)>0 && !edgeSpace.isNextTag(edgeSpace.prev(prevEdge)) 
+            && edgeSpace.nextChild(edgeSpace.prev(prevEdge))==wordIndices.get(prevRight-1)){ // matches terminal _y, prevEdge is [left, prevRight]: X -> \alpha _y . \beta
           prevRight--;
-          prevEdgeObj = prevEdgeObj.getPrevEdge();
-        } while(prevRight>0 && prevEdgeObj.getDot()>0 && !prevEdgeObj.isTagBeforeDot(1) 
-            && prevEdgeObj.getChildBeforeDot(1)==wordIndices.get(prevRight-1)); // matches terminal _y, prevEdgeObj is [left, prevRight]: X -> \alpha _y . \beta
+          prevEdge = edgeSpace.prev(prevEdge);
+        }
         
-        // after this, prevEdgeObj: [left, prevRight]: X -> \alpha . _y \beta
-        returnTree = viterbiParse(left, prevRight, edgeSpace.indexOf(prevEdgeObj));
+        // after this, prevEdge: [left, prevRight]: X -> \alpha . _y \beta
+        returnTree = viterbiParse(left, prevRight, prevEdge);
         for (int i = prevRight; i <= right-1; i++) {
           returnTree.addChild(new LabeledScoredTreeNode(new Word(words.get(i).word())));
         }
       } else { 
         // Viterbi parse: X -> \alpha . Z \beta
-        Edge prevEdgeObj = edgeObj.getPrevEdge(); 
-        int prevEdge = edgeSpace.indexOf(prevEdgeObj);
         BackTrack backtrack = backtrackChart.get(parser.linear(left, right)).get(edge);
         returnTree = viterbiParse(left, backtrack.middle, prevEdge);  
         
         // Viterbi parse: Y -> v .
         int nextEdge = backtrack.edge;
-        Edge nextEdgeObj = edgeSpace.get(nextEdge);
         Tree nextTree = viterbiParse(backtrack.middle, right, nextEdge);
         
-        if(prevEdgeObj.getChildAfterDot(0) != nextEdgeObj.getMother()){ // unary chain
-          List<Integer> chain = ruleSet.getUnaryChain(prevEdgeObj.getChildAfterDot(0), 
-              nextEdgeObj.getMother());
+        if(edgeSpace.nextChild(prevEdge) != edgeSpace.mother(nextEdge)){ // unary chain
+          List<Integer> chain = ruleSet.getUnaryChain(edgeSpace.nextChild(prevEdge), 
+              edgeSpace.mother(nextEdge));
           for (int i = chain.size()-2; i >= 0; i--) {
             Label label = new Tag(parserTagIndex.get(chain.get(i)));
             nextTree = new LabeledScoredTreeNode(label, Arrays.asList(nextTree));
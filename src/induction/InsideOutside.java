@@ -13,7 +13,6 @@ import java.util.List;
 import java.util.Map;
 
 import parser.EarleyParser;
-import parser.EarleyParserOptions;
 import util.Operator;
 import util.RuleFile;
 import base.BaseLexicon;
@@ -46,7 +45,7 @@ public class InsideOutside {
     ruleSet = parser.getRuleSet();
     parserTagIndex = parser.getParserTagIndex();
     parserWordIndex = parser.getParserWordIndex();
-    insideOutsideOpt = EarleyParserOptions.insideOutsideOpt; //parser.getInsideOutsideOpt();
+    insideOutsideOpt = parser.getInsideOutsideOpt();
     this.verbose = EarleyParser.verbose;
   }
   
@@ -0,0 +1,274 @@
+package parser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks EarleyParserDense or EarleyParserSparse for each sentence. A dense chart gives each cell that gets an
+ * edge a full row of edgeSpaceSize slots from its column arena, cleared when handed out and scanned through its
+ * bitset, which is fast for short sentences but grows with the number of occupied cells times edgeSpaceSize,
+ * whereas a sparse chart only stores the edges built, at a higher cost per edge.
+ *
+ * Both are estimated from the expected number of occupied cells: the numWords+1 cells [right, right] hold
+ * predictions, and about OCCUPIED_CELL_FRACTION of the cells [left, right], left < right, within the max width
+ * hold completions. An occupied cell [right, right] holds about PREDICTED_CELL_FACTOR times the mean number of
+ * predictions via a nonterminal, and any other occupied cell about the mean number of completions of a tag.
+ * A sentence goes to the dense parser if its chart fits in the memory budget and costs less to fill than the
+ * sparse one, see chooseDense(). Choices and parsing times are logged so that the constants can be tuned.
+ *
+ * Both parsers are created when first chosen and reused for the following sentences. An instance
+ * isn't thread safe, each thread should have its own.
+ */
+public class AdaptiveParser {
+  public static int verbose = -1;
+
+  /** cost model, measured on grammars/wsj500unk.grammar and grammars/wsj5.grammar **/
+  public static final double OCCUPIED_CELL_FRACTION = 0.9; // non-empty cells [left, right], left < right (0.93 and 0.8)
+  public static final double PREDICTED_CELL_FACTOR = 1.5; // edges of [right, right] / mean prediction fan-out
+  public static final double DENSE_SLOT_COST = 1.0/20; // cost of clearing and scanning one slot of an occupied dense cell
+  public static final double SPARSE_EDGE_COST = 1.5; // cost of one sparse edge, relative to one dense edge
+  public static final long DENSE_CELL_BYTES = 28; // row references and count of any dense cell, occupied or not
+  public static final long DENSE_OUTSIDE_CELL_BYTES = 20;
+
+  private final EarleyParserGenerator generator;
+  private final int edgeSpaceSize;
+  private final int maxWidth; // max span of edges, 0 for no bound
+  private final double predictedEdgesPerCell; // expected num edges of cells [right, right]
+  private final double completedEdgesPerCell; // expected num edges of occupied cells [left, right], left < right
+  private final boolean isOutside; // whether outer scores are needed, in a second chart
+  private final long memoryBudget; // max bytes of a dense chart
+
+  private EarleyParser denseParser = null;
+  private EarleyParser sparseParser = null;
+  private EarleyParser parser = null; // the parser of the last sentence
+
+  /** stats **/
+  private int numDenseSents = 0;
+  private int numSparseSents = 0;
+  private long denseTime = 0; // milliseconds
+  private long sparseTime = 0;
+
+  /**
+   * @param numTags size of the tag index
+   * @param maxWidth max number of words an edge can span, 0 for no bound
+   * @param isOutside whether parsers also compute outer scores (decoding, inside-outside)
+   * @param memoryBudget max bytes of a dense chart
+   */
+  AdaptiveParser(EarleyParserGenerator generator, Grammar grammar, int edgeSpaceSize, int numTags, int maxWidth,
+      boolean isOutside, long memoryBudget) {
+    this.generator = generator;
+    this.edgeSpaceSize = edgeSpaceSize;
+    this.maxWidth = maxWidth;
+    this.isOutside = isOutside;
+    this.memoryBudget = memoryBudget;
+
+    // mean completion fan-out, over tags that complete anything
+    int numCompletingTags = 0;
+    for (int tag = 0; tag < numTags; tag++) {
+      if(grammar.completionEnd(tag) > grammar.completionStart(tag)){
+        numCompletingTags++;
+      }
+    }
+    completedEdgesPerCell = Math.min(edgeSpaceSize,
+        (numCompletingTags==0) ? 0.0 : grammar.getCompletionEdges().length / (double) numCompletingTags);
+
+    // mean prediction fan-out, over nonterminals that are predicted via
+    Set<Integer> vias = new HashSet<Integer>();
+    for (int edge = 0; edge < edgeSpaceSize; edge++) {
+      int via = grammar.getPredictionVia(edge);
+      if(via>=0){
+        vias.add(via);
+      }
+    }
+    predictedEdgesPerCell = Math.min(edgeSpaceSize,
+        (vias.size()==0) ? 0.0 : PREDICTED_CELL_FACTOR * grammar.getPredictedStates().length / vias.size());
+
+    if(verbose>=0){
+      System.err.println("# AdaptiveParser: edge space size = " + edgeSpaceSize + ", expected edges per cell = "
+          + df.format(predictedEdgesPerCell) + " predicted, " + df.format(completedEdgesPerCell)
+          + " completed, memory budget = " + (memoryBudget>>20) + "MB");
+    }
+  }
+
+  /**
+   * Default memory budget of a dense chart, a quarter of the max heap
+   */
+  public static long defaultMemoryBudget(){
+    return Runtime.getRuntime().maxMemory()/4;
+  }
+
+  /**
+   * Number of cells [left, right], 0 <= left <= right <= numWords
+   */
+  private static long numCells(int numWords){
+    return (numWords+1L)*(numWords+2L)/2;
+  }
+
+  /**
+   * Expected number of occupied cells [left, right], left < right, of a sentence with numWords words: those
+   * at most maxWidth words wide, exempt edges aside
+   */
+  public double expectedNumCompletedCells(int numWords){
+    long numSpans = numCells(numWords)-numWords-1;
+    if(maxWidth>0 && maxWidth<numWords){ // cells of widths 1 to maxWidth
+      numSpans = maxWidth*(numWords+1L) - maxWidth*(maxWidth+1L)/2;
+    }
+    return OCCUPIED_CELL_FRACTION*numSpans;
+  }
+
+  /**
+   * Expected number of edges in the chart of a sentence with numWords words
+   */
+  public double expectedNumEdges(int numWords){
+    return (numWords+1)*predictedEdgesPerCell + expectedNumCompletedCells(numWords)*completedEdgesPerCell;
+  }
+
+  /**
+   * Expected bytes of a dense chart: each occupied cell has a row with a bitset and 2 doubles (forward, inner)
+   * per slot, plus another bitset and 1 double (outer) per slot if isOutside, and each cell has
+   * DENSE_CELL_BYTES (+ DENSE_OUTSIDE_CELL_BYTES) of references to the shared empty rows or its own
+   */
+  public long denseChartBytes(int numWords){
+    long bitsetBytes = 8L*((edgeSpaceSize+63)/64);
+    long rowBytes = isOutside ? 2*bitsetBytes + 24L*edgeSpaceSize : bitsetBytes + 16L*edgeSpaceSize;
+    long cellBytes = isOutside ? DENSE_CELL_BYTES + DENSE_OUTSIDE_CELL_BYTES : DENSE_CELL_BYTES;
+    double numOccupiedCells = (numWords+1) + expectedNumCompletedCells(numWords);
+    return (long) (numOccupiedCells*rowBytes) + numCells(numWords)*cellBytes;
+  }
+
+  /**
+   * Expected bytes of a sparse chart: a ChartCell is at most half full, and each slot has an int key and
+   * 2 doubles, plus a slot with a key and 1 double in the outside chart if isOutside
+   */
+  public long sparseChartBytes(int numWords){
+    long edgeBytes = isOutside ? 2*(4+16) + 2*(4+8) : 2*(4+16);
+    return (long) (expectedNumEdges(numWords)*edgeBytes);
+  }
+
+  /**
+   * Whether a sentence with numWords words should be parsed densely: its dense chart has to fit in the memory
+   * budget and cost less to fill than the sparse chart, where each occupied dense cell costs DENSE_SLOT_COST
+   * per slot plus 1 per edge, and each sparse edge costs SPARSE_EDGE_COST.
+   */
+  public boolean chooseDense(int numWords){
+    if(denseChartBytes(numWords) > memoryBudget){
+      return false;
+    }
+    double numEdges = expectedNumEdges(numWords);
+    double numOccupiedCells = (numWords+1) + expectedNumCompletedCells(numWords);
+    double denseCost = numOccupiedCells*edgeSpaceSize*DENSE_SLOT_COST + numEdges;
+    double sparseCost = numEdges*SPARSE_EDGE_COST;
+    return denseCost <= sparseCost;
+  }
+
+  /**
+   * The parser for a sentence with numWords words, created if it's the first time it's chosen
+   */
+  public EarleyParser select(int numWords){
+    if(chooseDense(numWords)){
+      if(denseParser==null){
+        denseParser = generator.getParserDense();
+      }
+      return denseParser;
+    } else {
+      if(sparseParser==null){
+        sparseParser = generator.getParserSparse();
+      }
+      return sparseParser;
+    }
+  }
+
+  /**
+   * Parse a single sentence with the parser chosen for its length, see getParser() for the results
+   */
+  public boolean parseSentence(String sentenceString, String sentId){
+    int numWords = sentenceString.split("\\s+").length;
+    parser = select(numWords);
+    boolean isDense = (parser==denseParser);
+
+    long startTime = System.currentTimeMillis();
+    parser.setSentId(sentId);
+    boolean isParsed = parser.parseSentence(sentenceString);
+    long time = System.currentTimeMillis() - startTime;
+
+    if(isDense){
+      numDenseSents++;
+      denseTime += time;
+    } else {
+      numSparseSents++;
+      sparseTime += time;
+    }
+    if(verbose>=0){
+      System.err.println("# AdaptiveParser: sent " + sentId + ", numWords=" + numWords + ", "
+          + (isDense ? "dense" : "sparse") + ", dense chart=" + (denseChartBytes(numWords)>>10) + "KB, sparse chart="
+          + (sparseChartBytes(numWords)>>10) + "KB, time=" + time + "ms");
+    }
+    return isParsed;
+  }
+
+  /**
+   * Same as EarleyParser.parseSentences(), except that each sentence is parsed by the parser chosen for it
+   */
+  public List<Double> parseSentences(List<String> sentences, List<String> indices,
+      String outPrefix) throws IOException {
+    assert(sentences.size() == indices.size());
+    // both parsers write the same measures, they're created by the same generator
+    EarleyParser writerParser = select(sentences.isEmpty() ? 0 : sentences.get(0).split("\\s+").length);
+    Map<String, BufferedWriter> measureWriterMap = writerParser.measureWriters(outPrefix);
+    BufferedWriter decodeWriter = writerParser.decodeWriter(outPrefix);
+
+    List<Double> sentLogProbs = new ArrayList<Double>();
+    for (int i = 0; i < sentences.size(); i++) {
+      String sentenceString = sentences.get(i);
+
+      parseSentence(sentenceString, indices.get(i));
+      sentLogProbs.add(parser.stringLogProbability(parser.getNumWords()));
+      parser.writeSentence(sentenceString, measureWriterMap, decodeWriter);
+    }
+
+    // close
+    for (String measure : measureWriterMap.keySet()) {
+      measureWriterMap.get(measure).close();
+    }
+    if(decodeWriter != null){
+      decodeWriter.close();
+    }
+
+    if(verbose>=0){
+      System.err.println("# AdaptiveParser: " + numDenseSents + " sents dense in " + denseTime + "ms, "
+          + numSparseSents + " sents sparse in " + sparseTime + "ms");
+    }
+    return sentLogProbs;
+  }
+
+  /**
+   * The parser of the last sentence, null if no sentence has been parsed
+   */
+  public EarleyParser getParser() {
+    return parser;
+  }
+
+  public int getNumDenseSents() {
+    return numDenseSents;
+  }
+
+  public int getNumSparseSents() {
+    return numSparseSents;
+  }
+
+  public long getDenseTime() {
+    return denseTime;
+  }
+
+  public long getSparseTime() {
+    return sparseTime;
+  }
+
+  private static final DecimalFormat df = new DecimalFormat("0.0");
+}
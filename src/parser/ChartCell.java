@@ -0,0 +1,227 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import util.Operator;
+
+/**
+ * Scores of all edges spanning one chart cell [left, right], stored as a
+ * primitive open-addressing map from edge indices to a fixed number of scores
+ * (e.g., forward and inner scores side by side). Avoids boxing keys and values,
+ * and allows iterating over edges without allocating.
+ *
+ * Iterate as follows:
+ *   for (int slot = cell.nextSlot(-1); slot >= 0; slot = cell.nextSlot(slot)) {
+ *     int edge = cell.edgeAt(slot);
+ *     ...
+ *   }
+ */
+public class ChartCell {
+  private static final int EMPTY = -1;
+  private static final int INIT_CAPACITY = 8;
+
+  private final int numScores; // number of scores per edge
+  private final double zero; // default value for scores that haven't been set
+  private int[] keys; // edge indices, EMPTY for unused slots
+  private double[] scores; // scores[slot*numScores + i]: the i-th score of edge keys[slot]
+  private int size;
+  private int mask; // capacity - 1
+
+  public ChartCell(int numScores, double zero) {
+    this(numScores, zero, INIT_CAPACITY);
+  }
+
+  public ChartCell(int numScores, double zero, int expectedSize) {
+    this.numScores = numScores;
+    this.zero = zero;
+
+    int capacity = INIT_CAPACITY;
+    while(capacity < 2*expectedSize){
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity){
+    keys = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    scores = new double[capacity*numScores];
+    Arrays.fill(scores, zero);
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  private int hash(int edge){
+    return (edge ^ (edge >>> 16)) & mask;
+  }
+
+  /**
+   * Slot of the given edge, or -1 if the edge is not in this cell
+   */
+  public int slotOf(int edge){
+    for (int slot = hash(edge); ; slot = (slot+1) & mask) {
+      if(keys[slot] == edge){
+        return slot;
+      } else if(keys[slot] == EMPTY){
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Slot of the given edge, inserting the edge (with all scores set to zero) if necessary.
+   * Inserting may move the other edges to new slots.
+   */
+  public int insert(int edge){
+    int slot = hash(edge);
+    for (; keys[slot] != EMPTY; slot = (slot+1) & mask) {
+      if(keys[slot] == edge){
+        return slot;
+      }
+    }
+
+    if(2*(size+1) > keys.length){ // keep load factor <= 0.5
+      rehash();
+      return insert(edge);
+    }
+    keys[slot] = edge;
+    size++;
+    return slot;
+  }
+
+  private void rehash(){
+    int[] oldKeys = keys;
+    double[] oldScores = scores;
+    allocate(2*oldKeys.length);
+
+    for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+      if(oldKeys[oldSlot] != EMPTY){
+        int slot = hash(oldKeys[oldSlot]);
+        while(keys[slot] != EMPTY){
+          slot = (slot+1) & mask;
+        }
+        keys[slot] = oldKeys[oldSlot];
+        System.arraycopy(oldScores, oldSlot*numScores, scores, slot*numScores, numScores);
+        size++;
+      }
+    }
+  }
+
+  public boolean contains(int edge){
+    return slotOf(edge) >= 0;
+  }
+
+  public int size(){
+    return size;
+  }
+
+  /**
+   * The i-th score of edge, or zero if the edge is not in this cell
+   */
+  public double get(int edge, int i){
+    int slot = slotOf(edge);
+    return (slot<0) ? zero : scores[slot*numScores + i];
+  }
+
+  /**
+   * Set the i-th score of edge, adding the edge if necessary
+   */
+  public void put(int edge, int i, double score){
+    int slot = insert(edge); // may rehash, so look up scores afterwards
+    scores[slot*numScores + i] = score;
+  }
+
+  /**
+   * Add score to the i-th score of edge, adding the edge if necessary
+   */
+  public void add(int edge, int i, double score, Operator operator){
+    int index = insert(edge)*numScores + i;
+    scores[index] = operator.add(scores[index], score);
+  }
+
+  /**
+   * Remove edge and its scores, returns false if the edge is not in this cell.
+   * Slots after the removed one may move, so don't remove while iterating.
+   */
+  public boolean remove(int edge){
+    int hole = slotOf(edge);
+    if(hole < 0){
+      return false;
+    }
+    
+    // backward-shift deletion: move later entries of the probe sequence into the hole
+    for (int slot = (hole+1) & mask; keys[slot] != EMPTY; slot = (slot+1) & mask) {
+      int home = hash(keys[slot]);
+      if(((slot - home) & mask) >= ((slot - hole) & mask)){ // home is not in (hole, slot]
+        keys[hole] = keys[slot];
+        System.arraycopy(scores, slot*numScores, scores, hole*numScores, numScores);
+        hole = slot;
+      }
+    }
+    keys[hole] = EMPTY;
+    Arrays.fill(scores, hole*numScores, (hole+1)*numScores, zero);
+    size--;
+    return true;
+  }
+
+  /**
+   * Next occupied slot after the given one, or -1 if there is none.
+   * Use nextSlot(-1) to start iterating.
+   */
+  public int nextSlot(int slot){
+    for (slot++; slot < keys.length; slot++) {
+      if(keys[slot] != EMPTY){
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Edge after the given one in slot order, or -1 if there is none.
+   * Use nextEdge(-1) to start iterating.
+   */
+  public int nextEdge(int edge){
+    int slot = -1;
+    if(edge >= 0){
+      slot = slotOf(edge);
+      assert(slot >= 0);
+    }
+    
+    slot = nextSlot(slot);
+    return (slot<0) ? -1 : keys[slot];
+  }
+
+  public int edgeAt(int slot){
+    return keys[slot];
+  }
+
+  public double scoreAt(int slot, int i){
+    return scores[slot*numScores + i];
+  }
+
+  public void setScoreAt(int slot, int i, double score){
+    scores[slot*numScores + i] = score;
+  }
+
+  public void clear(){
+    if(size>0){
+      Arrays.fill(keys, EMPTY);
+      Arrays.fill(scores, zero);
+      size = 0;
+    }
+  }
+
+  /**
+   * Copy of the edges in this cell
+   */
+  public Set<Integer> edgeSet(){
+    Set<Integer> edges = new HashSet<Integer>();
+    for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+      edges.add(keys[slot]);
+    }
+    return edges;
+  }
+}
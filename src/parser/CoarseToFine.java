@@ -0,0 +1,197 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import util.IntMultiMap;
+import util.Operator;
+import decoder.MarginalDecoder;
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Coarse-to-fine parsing. A sentence is first parsed with a coarse grammar whose nonterminals are projections
+ * of the fine ones (e.g., NP^S -> NP), and the posterior of each coarse category X' over each span [left, right]
+ * is computed by inside-outside. The fine pass then only builds
+ *   completed edges right: left X -> \alpha . whose projection X' has posterior >= threshold over [left, right], and
+ *   active edges right: left X -> \alpha . \beta if X' can still be completed with such a posterior after right.
+ * Edges of symbols without a projection, e.g., the start symbol, are never pruned.
+ *
+ * Pruning is approximate: fine prefix probs are lower bounds of the exact ones. If a reference parser is given,
+ * sentences are also parsed exactly, so that the fine parser can report how much surprisals deviate.
+ *
+ * Each fine parser owns an instance, so it isn't thread safe.
+ */
+public class CoarseToFine {
+  private final EarleyParser coarseParser;
+  private final MarginalDecoder coarseDecoder;
+  private final Operator coarseOperator;
+  private final EarleyParser referenceParser; // null unless surprisal deviations are reported
+  private final double threshold; // min posterior of coarse items
+
+  private final int[] fine2coarse; // fine2coarse[X]: coarse tag of fine tag X, -1 if X isn't pruned
+  private final int numCoarseTags;
+
+  /** per-sentence constraints **/
+  private int numWords = -1;
+  private IntMultiMap[] allowedItems = new IntMultiMap[0]; // allowedItems[right]: left -> coarse tags X' allowed over [left, right]
+  private int[] maxRights = new int[0]; // maxRights[left*numCoarseTags + X']: max right such that X' is allowed over [left, right], -1 if none
+  private double[] exactSurprisals = new double[0]; // exactSurprisals[right]: surprisal of word_(right-1) by the reference parser
+
+  /** per-sentence stats **/
+  private int numItems = 0; // coarse items with positive posterior
+  private int numPrunedItems = 0; // those below threshold
+
+  /**
+   * @param coarseParser parser of the projected grammar, it should track completed edges (e.g., marginal decoding)
+   * @param fineTagIndex tags of the fine grammar
+   * @param projection fine tag -> coarse tag, fine tags not in the map are projected to themselves
+   * @param threshold min posterior of coarse items
+   * @param referenceParser if not null, an unpruned fine parser used to report surprisal deviations
+   */
+  public CoarseToFine(EarleyParser coarseParser, Index<String> fineTagIndex, Map<String, String> projection,
+      double threshold, EarleyParser referenceParser){
+    this.coarseParser = coarseParser;
+    this.coarseDecoder = new MarginalDecoder(coarseParser);
+    this.coarseOperator = coarseParser.getOperator();
+    this.referenceParser = referenceParser;
+    this.threshold = threshold;
+
+    Index<String> coarseTagIndex = coarseParser.getParserTagIndex();
+    numCoarseTags = coarseTagIndex.size();
+    fine2coarse = new int[fineTagIndex.size()];
+    for (int tag = 0; tag < fine2coarse.length; tag++) {
+      String symbol = fineTagIndex.get(tag);
+      if(symbol.equals(EarleyParserOptions.ORIG_SYMBOL)){
+        fine2coarse[tag] = -1;
+      } else {
+        fine2coarse[tag] = coarseTagIndex.indexOf(project(projection, symbol));
+      }
+    }
+  }
+
+  public static String project(Map<String, String> projection, String symbol){
+    String coarseSymbol = projection.get(symbol);
+    return (coarseSymbol==null) ? symbol : coarseSymbol;
+  }
+
+  /**
+   * Parse words with the coarse grammar, and with the reference parser if any, and keep the coarse
+   * items whose posteriors are above threshold
+   *
+   * @return false if the coarse grammar has no parse, the fine pass shouldn't be constrained then
+   */
+  public boolean constrain(List<? extends HasWord> words){
+    numWords = words.size();
+    numItems = 0;
+    numPrunedItems = 0;
+
+    if(referenceParser!=null){
+      referenceParser.parse(words);
+      if(exactSurprisals.length < numWords+1){
+        exactSurprisals = new double[numWords+1];
+      }
+      for (int right = 1; right <= numWords; right++) {
+        exactSurprisals[right] = referenceParser.surprisal(right);
+      }
+    }
+
+    if(!coarseParser.parse(words)){
+      if(EarleyParser.verbose>=0){
+        System.err.println("# Coarse-to-fine: no coarse parse, the fine pass isn't pruned");
+      }
+      return false;
+    }
+    coarseParser.setExpectedCounts(new HashMap<Integer, Double>()); // filled by the outside pass, unused
+    coarseParser.computeOutsideProbs();
+    double rootInnerScore = coarseParser.getInnerScore(0, numWords, coarseParser.getGoalEdge());
+
+    // reset
+    if(allowedItems.length < numWords+1){
+      IntMultiMap[] newItems = Arrays.copyOf(allowedItems, numWords+1);
+      for (int right = allowedItems.length; right < newItems.length; right++) {
+        newItems[right] = new IntMultiMap();
+      }
+      allowedItems = newItems;
+    }
+    for (int right = 0; right <= numWords; right++) {
+      allowedItems[right].clear();
+    }
+    int numMaxRights = (numWords+1)*numCoarseTags;
+    if(maxRights.length < numMaxRights){
+      maxRights = new int[numMaxRights];
+    }
+    Arrays.fill(maxRights, 0, numMaxRights, -1);
+
+    // posteriors
+    for (int right = 1; right <= numWords; right++) {
+      for (int left = 0; left < right; left++) {
+        Map<Integer, Double> marginalMap = coarseDecoder.computeMarginalMap(left, right);
+        for (Map.Entry<Integer, Double> entry : marginalMap.entrySet()) {
+          int tag = entry.getKey();
+          double posterior = coarseOperator.getProb(coarseOperator.divide(entry.getValue(), rootInnerScore));
+          numItems++;
+          if(posterior >= threshold){
+            allowedItems[right].add(left, tag);
+            maxRights[left*numCoarseTags + tag] = right; // rights are increasing
+          } else {
+            numPrunedItems++;
+          }
+        }
+      }
+    }
+
+    if(EarleyParser.verbose>=0){
+      System.err.println("# Coarse-to-fine: pruned " + numPrunedItems + "/" + numItems + " coarse items, fraction="
+          + prunedFraction());
+    }
+    return true;
+  }
+
+  /**
+   * Whether edges of tag can span [left, right], left < right, given the last call to constrain().
+   * Safe to call concurrently.
+   *
+   * @param isActive whether the edges are active, X -> \alpha . \beta, rather than completed
+   */
+  public boolean isAllowed(int left, int right, int tag, boolean isActive){
+    int coarseTag = fine2coarse[tag];
+    if(coarseTag<0){
+      return true;
+    }
+
+    if(isActive){
+      return maxRights[left*numCoarseTags + coarseTag] > right; // \beta isn't empty, X is completed after right
+    } else {
+      return allowedItems[right].contains(left, coarseTag);
+    }
+  }
+
+  public boolean hasReference(){
+    return referenceParser!=null;
+  }
+
+  /**
+   * Surprisal of word_(right-1) by the reference parser, only if hasReference()
+   */
+  public double exactSurprisal(int right){
+    return exactSurprisals[right];
+  }
+
+  /**
+   * Fraction of coarse items with positive posterior that were pruned in the last sentence
+   */
+  public double prunedFraction(){
+    return (numItems>0) ? ((double) numPrunedItems)/numItems : 0.0;
+  }
+
+  public int getNumItems() {
+    return numItems;
+  }
+
+  public int getNumPrunedItems() {
+    return numPrunedItems;
+  }
+}
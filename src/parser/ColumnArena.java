@@ -0,0 +1,78 @@
+package parser;
+
+import java.util.Arrays;
+
+import util.Bits;
+
+/**
+ * Rows of edge-indexed arrays (one bitset entry row plus a few score rows) handed out
+ * to the cells of a single chart column. Rows are kept after reset() and
+ * handed out again to later sentences, so a parser only allocates new rows
+ * when a column needs more cells than it ever did before.
+ */
+public class ColumnArena {
+  private final int rowSize; // edge space size
+  private final int numScores; // number of score rows per cell
+  private final double zero;
+
+  private long[][] entries; // entries[row]: bitset over edges
+  private double[][][] scores; // scores[i][row][edge]: i-th score row
+  private int numRows; // number of rows allocated so far
+  private int numUsed; // number of rows handed out for the current sentence
+
+  public ColumnArena(int rowSize, int numScores, double zero) {
+    this.rowSize = rowSize;
+    this.numScores = numScores;
+    this.zero = zero;
+
+    entries = new long[1][];
+    scores = new double[numScores][1][];
+  }
+
+  /**
+   * Hand out a cleared row, returns its index
+   */
+  public int allocate(){
+    if(numUsed == numRows){ // grow
+      if(numRows == entries.length){
+        entries = Arrays.copyOf(entries, 2*numRows);
+        for (int i = 0; i < numScores; i++) {
+          scores[i] = Arrays.copyOf(scores[i], 2*numRows);
+        }
+      }
+
+      entries[numRows] = new long[Bits.numWords(rowSize)];
+      for (int i = 0; i < numScores; i++) {
+        scores[i][numRows] = new double[rowSize];
+        Arrays.fill(scores[i][numRows], zero);
+      }
+      numRows++;
+    } else { // reuse a row from a previous sentence
+      Arrays.fill(entries[numUsed], 0L);
+      for (int i = 0; i < numScores; i++) {
+        Arrays.fill(scores[i][numUsed], zero);
+      }
+    }
+
+    return numUsed++;
+  }
+
+  public long[] getEntries(int row){
+    return entries[row];
+  }
+
+  public double[] getScores(int row, int i){
+    return scores[i][row];
+  }
+
+  /**
+   * Make all rows available again, contents are cleared lazily on allocate()
+   */
+  public void reset(){
+    numUsed = 0;
+  }
+
+  public int numRows(){
+    return numRows;
+  }
+}
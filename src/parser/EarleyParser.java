@@ -19,10 +19,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import base.BackTrack;
 import base.BaseLexicon;
@@ -31,6 +33,9 @@ import base.Rule;
 import base.ProbRule;
 import base.RuleSet;
 import base.TerminalRule;
+import util.Bits;
+import util.IntList;
+import util.IntMultiMap;
 import util.Operator;
 import util.Util;
 
@@ -63,17 +68,55 @@ public abstract class EarleyParser implements Parser {
   protected final Operator operator; // either ProbOperator or LogProbOperator
   protected final Set<String> outputMeasures; // output measures (surprisal, stringprob, etc.)
   protected final Set<String> internalMeasures; // internal measures (prefix, entropy, etc.)
+  protected final EarleyParserOptions options; // scaling, log-prob, inside-outside, decode, and pruning settings
   
   /** general info **/
   protected final int startEdge; // "" -> . ROOT
   protected final int goalEdge; // "" -> [] if isLeftWildcard=true; otherwise, "" -> ROOT .
   protected final int edgeSpaceSize;   // edge space
   protected final int numCategories; // nonterminas + preterminals
-  protected static boolean isFastComplete = false; // set to false in EarleyParserDense, and true in EarleyParserSparse
+  protected final boolean isFastComplete; // true in EarleyParserDense and EarleyParserSparse, false in EarleyParserOffHeap
+  protected final boolean isTrackCompletedEdges; // completedEdges are needed by inside-outside, marginal decoding, and fast completion
   protected final boolean hasMultiTerminalRule;
   protected final boolean hasFragmentRule;
   protected final boolean isSeparateRuleInTrie;
   
+  /** width-bounded parsing **/
+  protected final int maxWidth; // if > 0, edges span at most maxWidth words unless their mothers are exempt
+  private final boolean[] isWidthExempt; // isWidthExempt[tag]: edges of tag can be longer than maxWidth
+  private final boolean isEvicting; // drop chart columns that can't be completed anymore, only when there's no outside pass or decoding
+  
+  /** intra-sentence parallelism **/
+  private final ParallelCompleter parallelCompleter; // null unless options.isParallel()
+  private final ParallelPredictor parallelPredictor; // null unless options.isParallel()
+  private final IntList parallelMiddles = new IntList(); // middles of the cell being completed in parallel
+  private final IntList parallelLefts = new IntList(); // lefts of the cells predicted from in parallel
+  
+  /** prediction: forward mass of the edges of the current column, per nonterminal they wait on **/
+  protected final double[] viaForwardScores; // viaForwardScores[Z]: sum of forward scores of edges X -> \alpha . Z \beta
+  protected final boolean[] isVia; // isVia[Z]: Z is in viaCategories
+  protected final IntList viaCategories = new IntList(); // nonterminals with forward mass, in order of their first edge
+  
+  /** lookahead-filtered prediction **/
+  private final LookaheadFilter lookaheadFilter; // null unless options.isLookahead
+  protected final long[] lookaheadTags; // tags that can start with the word after the column being predicted
+  private final IntList lookaheadQueue = new IntList(); // scratch list for lookaheadFilter
+  protected boolean isLookaheadColumn = false; // whether predictions at the current column are filtered by lookaheadTags
+  private int lookaheadWord = -1; // word index of the word after the column being predicted
+  
+  /** coarse-to-fine parsing **/
+  private CoarseToFine coarseToFine; // null unless the generator set up a coarse pass
+  private boolean isCoarseConstrained = false; // whether the current sentence is pruned by coarseToFine
+  
+  /** utterance-boundary constraints **/
+  private final boolean[] isBoundaryConstrained; // isBoundaryConstrained[tag]: edges of tag lie within one utterance, null if off
+  private final UtteranceBoundaries utteranceBoundaries; // null unless options.isBoundaryConstrained()
+  private boolean isUtteranceConstrained = false; // whether the current sentence is constrained by utteranceBoundaries
+  
+  /** fast completion stats, per sentence **/
+  private long numCompletionJoins = 0; // fastCellComplete() joins that went through the completions of the completed tag
+  private long numWaitingJoins = 0; // those that went through the edges waiting at the middle column
+  
   /** inside-outside **/
   protected Map<Integer, Double> expectedCounts; // map rule indices (allRules) to expected counts
 
@@ -91,6 +134,12 @@ public abstract class EarleyParser implements Parser {
   protected List<Integer> wordIndices; // indices from parserWordIndex. size: numWords
   protected int numWords = -1;
   protected String sentId = "0";
+  
+  /** incremental parsing **/
+  private static final int INIT_CAPACITY = 16;
+  protected int capacity = 0; // number of words chart structures have room for
+  private boolean isIncremental = false; // true between begin() and finish()
+  private List<HasWord> pushedWords; // words given so far by pushWord()
 
 	/** output info **/
   protected Measures measures; // store values for all measures, initialized for every sentence
@@ -127,18 +176,21 @@ public abstract class EarleyParser implements Parser {
   // Thus, scaling[i] = 1/prefixProb[i-1]
   // surprisal[i] now = -log(prefixProb[i])
   //protected double[] scaling; 
-  protected Map<Integer, Double> scalingMap; // used for extended rules, scalingMatrix[left][right] = prod scaling[left+1] ... scaling[right]
+  protected double[] logScalings; // logScalings[right] = log of prod scaling[1] ... scaling[right], so the scaling of any span [left, right] is a difference
   
   /** completion info **/
-  // completedEdges.get(linear(left, right)): set of completed edges spanning [left, right]
-  protected Map<Integer, Set<Integer>> completedEdges;
-  // activeEdgeInfo.get(right).get(edge): set of left positions of completed edges that span [left, right]
+  // completedEdges[right]: left -> completed edges spanning [left, right], in order of addition
+  protected IntMultiMap[] completedEdges;
+  // activeEdgeInfo[right]: edge -> left positions of the edge spanning [left, right], in order of addition
   // edge is X -> \alpha . \beta where \beta is non empty
-  protected Map<Integer, Map<Integer, Set<Integer>>> activeEdgeInfo;
+  protected IntMultiMap[] activeEdgeInfo;
   
   // fragmentEdgeInfo.get(right).get(left): set of edges X -> \alpha . _y \beta that span [left, right] and _y matches the input terminal at [right, right+1] 
   // edge is X -> \alpha . \beta where \beta is non empty
   protected Map<Integer, Map<Integer, Set<Integer>>> fragmentEdgeInfo;
+  
+  // owns the containers above, they're reused across sentences
+  protected final ParseState state = new ParseState();
 
 
   /******************/
@@ -162,7 +214,8 @@ public abstract class EarleyParser implements Parser {
    
   public EarleyParser(Grammar grammar, EdgeSpace edgeSpace, BaseLexicon lex, RuleSet ruleSet, 
   		Index<String> parserWordIndex, Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
-  		Operator operator, Set<String> outputMeasures, Set<String> internalMeasures, boolean isSeparateRuleInTrie) {
+  		Operator operator, Set<String> outputMeasures, Set<String> internalMeasures, boolean isSeparateRuleInTrie,
+  		EarleyParserOptions options, boolean isFastComplete) {
   	this.grammar = grammar;
   	this.edgeSpace = edgeSpace;
   	this.lex = lex;
@@ -174,9 +227,12 @@ public abstract class EarleyParser implements Parser {
   	this.outputMeasures = outputMeasures;
   	this.internalMeasures = internalMeasures;
   	this.isSeparateRuleInTrie = isSeparateRuleInTrie;
+  	this.options = options;
+  	this.isFastComplete = isFastComplete;
+  	isTrackCompletedEdges = options.insideOutsideOpt>0 || options.decodeOpt==2 || isFastComplete;
   	
   	// root
-   	startEdge = edgeSpace.indexOf(EarleyParserOptions.rootRule.getEdge());
+   	startEdge = edgeSpace.indexOf(options.rootRule.getEdge());
    	goalEdge = edgeSpace.to(startEdge);
    	
    	// sizes
@@ -186,16 +242,60 @@ public abstract class EarleyParser implements Parser {
    	// flags 
    	hasMultiTerminalRule = ruleSet.hasMultiTerminalRule();
    	hasFragmentRule = (ruleSet.numFragmentRules()>0);
+   	
+   	// width
+   	maxWidth = options.maxWidth;
+   	isWidthExempt = new boolean[numCategories];
+   	if(options.isWidthBounded()){
+   	  for (int tag = 0; tag < numCategories; tag++) {
+   	    isWidthExempt[tag] = options.isWidthExempt(parserTagIndex.get(tag));
+   	  }
+   	}
+   	isEvicting = options.isWidthBounded() && options.insideOutsideOpt==0 && options.decodeOpt==0;
+   	
+   	// utterance boundaries
+   	if(options.isBoundaryConstrained()){
+   	  isBoundaryConstrained = new boolean[numCategories];
+   	  for (int tag = 0; tag < numCategories; tag++) {
+   	    isBoundaryConstrained[tag] = options.isBoundaryConstrained(parserTagIndex.get(tag));
+   	  }
+   	  utteranceBoundaries = new UtteranceBoundaries();
+   	} else {
+   	  isBoundaryConstrained = null;
+   	  utteranceBoundaries = null;
+   	}
+   	
+   	// prediction
+   	viaForwardScores = new double[numCategories];
+   	Arrays.fill(viaForwardScores, operator.zero());
+   	isVia = new boolean[numCategories];
+   	if(options.isLookahead){
+   	  lookaheadFilter = grammar.getLookaheadFilter(ruleSet);
+   	  lookaheadTags = new long[Bits.numWords(numCategories)];
+   	} else {
+   	  lookaheadFilter = null;
+   	  lookaheadTags = null;
+   	}
+   	
+   	// parallelism
+   	if(options.isParallel()){
+   	  ForkJoinPool pool = new ForkJoinPool(options.numWorkers);
+   	  parallelCompleter = new ParallelCompleter(this, pool);
+   	  parallelPredictor = new ParallelPredictor(this, pool);
+   	} else {
+   	  parallelCompleter = null;
+   	  parallelPredictor = null;
+   	}
 
     // inside-outside
-    if(EarleyParserOptions.insideOutsideOpt>0){
+    if(options.insideOutsideOpt>0){
       expectedCounts = new HashMap<Integer, Double>();
     }
     
     // note this initialization should be at the very bottom so that all components of the parser has been initialized
-    if(EarleyParserOptions.decodeOpt == 1){
+    if(options.decodeOpt == 1){
       decoder = new ViterbiDecoder(this, verbose);
-    } else if(EarleyParserOptions.decodeOpt == 2){
+    } else if(options.decodeOpt == 2){
       decoder = new MarginalDecoder(this, verbose);
     }
 
@@ -222,19 +322,32 @@ public abstract class EarleyParser implements Parser {
    * @return
    */
   // inside
-  protected abstract boolean containsInsideEdge(int left, int right, int edge);
+  public abstract boolean containsInsideEdge(int left, int right, int edge);
   protected abstract int insideChartCount(int left, int right);
   public abstract Set<Integer> listInsideEdges(int left, int right);
   
+  /**
+   * Iterate over edges spanning [left, right] without allocation:
+   *   for (int edge = nextInsideEdge(left, right, -1); edge >= 0; edge = nextInsideEdge(left, right, edge))
+   * 
+   * @param edge -1 to start, otherwise the edge returned by the previous call
+   * @return the next edge, or -1 if there is none
+   */
+  public abstract int nextInsideEdge(int left, int right, int edge);
+  protected abstract void removeInsideEdge(int left, int right, int edge); // drop edge and its scores from [left, right]
+  protected abstract void growChart(int numWords); // make room for spans up to numWords, keeping edges already in the chart
+  protected abstract void compactColumn(int right); // free the empty cells [*, right] after edges have been evicted
+  
   // outside
-  protected abstract boolean containsOutsideEdge(int left, int right, int edge);
+  public abstract boolean containsOutsideEdge(int left, int right, int edge);
   protected abstract int outsideChartCount(int left, int right);
   public abstract Set<Integer> listOutsideEdges(int left, int right);
+  public abstract int nextOutsideEdge(int left, int right, int edge); // same as nextInsideEdge, for edges with outside scores
   protected abstract void initOuterProbs();
   
   // tmp predict probabilities
-  protected abstract void chartPredict(int left, int right);
-  protected abstract void initPredictTmpScores();
+  protected abstract void chartPredict(int left, int right); // predictFromEdge for every edge spanning [left, right]
+  protected abstract void initPredictTmpScores(int right);
   protected abstract void addPredictTmpForwardScore(int edge, double score);
   protected abstract void addPredictTmpInnerScore(int edge, double score);
   protected abstract void storePredictTmpScores(int right);
@@ -289,18 +402,8 @@ public abstract class EarleyParser implements Parser {
   public List<Double> parseSentences(List<String> sentences, List<String> indices, 
       String outPrefix) throws IOException {
     assert(sentences.size() == indices.size());
-    Map<String, BufferedWriter> measureWriterMap = new HashMap<String, BufferedWriter>();
-    BufferedWriter decodeWriter = null;
-    
-    if(!outPrefix.equals("")) {
-      for (String measure : outputMeasures) {
-        measureWriterMap.put(measure, new BufferedWriter(new 
-            FileWriter(outPrefix + "." + measure, true))); // append results
-      }
-      
-    	if (!EarleyParserOptions.decodeOptStr.equals(""))
-    	  decodeWriter = new BufferedWriter(new FileWriter(outPrefix + "." + EarleyParserOptions.decodeOptStr));
-    }
+    Map<String, BufferedWriter> measureWriterMap = measureWriters(outPrefix);
+    BufferedWriter decodeWriter = decodeWriter(outPrefix);
     
     List<Double> sentLogProbs = new ArrayList<Double>();
     for (int i = 0; i < sentences.size(); i++) {
@@ -316,30 +419,7 @@ public abstract class EarleyParser implements Parser {
       sentLogProbs.add(stringLogProbability(numWords));
 
       // output
-      for (String measure : measureWriterMap.keySet()) {
-        BufferedWriter measureWriter = measureWriterMap.get(measure);
-        measureWriter.write("# " + sentId + "\n");
-        Util.outputSentenceResult(sentenceString, measureWriter, measures.getSentList(measure));
-      }
-      
-      if(decodeWriter != null){
-        if(EarleyParserOptions.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.VITERBI_OPT)){ // viterbi
-          decodeWriter.write(decoder.getBestParse().toString() + "\n");
-        }
-        else if(!EarleyParserOptions.decodeOptStr.equals("")) {// marginal or socialmarginal
-          expectedCounts = new HashMap<Integer, Double>();
-          computeOutsideProbs();
-           
-          if (EarleyParserOptions.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.SOCIALMARGINAL_OPT)){
-            List<String> treeStrs = ((MarginalDecoder) decoder).socialMarginalDecoding();
-            for(String treeStr : treeStrs){
-              decodeWriter.write(treeStr + "\n");
-            }
-          } else {
-            decodeWriter.write(decoder.getBestParse().toString() + "\n");
-          }
-        }
-      }
+      writeSentence(sentenceString, measureWriterMap, decodeWriter);
     }
     
     // close
@@ -354,6 +434,62 @@ public abstract class EarleyParser implements Parser {
     return sentLogProbs;
   }
   
+  /**
+   * Writers of the output measures, appending to outPrefix.measure, none if outPrefix is ""
+   */
+  public Map<String, BufferedWriter> measureWriters(String outPrefix) throws IOException {
+    Map<String, BufferedWriter> measureWriterMap = new HashMap<String, BufferedWriter>();
+    if(!outPrefix.equals("")) {
+      for (String measure : outputMeasures) {
+        measureWriterMap.put(measure, new BufferedWriter(new 
+            FileWriter(outPrefix + "." + measure, true))); // append results
+      }
+    }
+    return measureWriterMap;
+  }
+  
+  /**
+   * Writer of the decoded parses, outPrefix.decodeOpt, null if outPrefix is "" or there's no decoding
+   */
+  public BufferedWriter decodeWriter(String outPrefix) throws IOException {
+    if(!outPrefix.equals("") && !options.decodeOptStr.equals("")){
+      return new BufferedWriter(new FileWriter(outPrefix + "." + options.decodeOptStr));
+    } else {
+      return null;
+    }
+  }
+  
+  /**
+   * Output the measures and the decoded parses of the sentence just parsed, decodeWriter can be null
+   */
+  public void writeSentence(String sentenceString, Map<String, BufferedWriter> measureWriterMap, 
+      BufferedWriter decodeWriter) throws IOException {
+    for (String measure : measureWriterMap.keySet()) {
+      BufferedWriter measureWriter = measureWriterMap.get(measure);
+      measureWriter.write("# " + sentId + "\n");
+      Util.outputSentenceResult(sentenceString, measureWriter, measures.getSentList(measure));
+    }
+    
+    if(decodeWriter != null){
+      if(options.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.VITERBI_OPT)){ // viterbi
+        decodeWriter.write(decoder.getBestParse().toString() + "\n");
+      }
+      else if(!options.decodeOptStr.equals("")) {// marginal or socialmarginal
+        expectedCounts = new HashMap<Integer, Double>();
+        computeOutsideProbs();
+         
+        if (options.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.SOCIALMARGINAL_OPT)){
+          List<String> treeStrs = ((MarginalDecoder) decoder).socialMarginalDecoding();
+          for(String treeStr : treeStrs){
+            decodeWriter.write(treeStr + "\n");
+          }
+        } else {
+          decodeWriter.write(decoder.getBestParse().toString() + "\n");
+        }
+      }
+    }
+  }
+  
   /**
    * Parse a single sentence
    * @param sentenceString
@@ -369,7 +505,7 @@ public abstract class EarleyParser implements Parser {
   }
 
   public boolean parse(List<? extends HasWord> words) {
-//    if(hasFragmentRule && EarleyParserOptions.isScaling){
+//    if(hasFragmentRule && options.isScaling){
 //      System.err.println("! Currently doesn't support scaling for fragment grammars");
 //      return false;
 //    }
@@ -383,19 +519,49 @@ public abstract class EarleyParser implements Parser {
     }
     this.words = words;
     
+    // coarse-to-fine: parse with the coarse grammar first
+    isCoarseConstrained = (coarseToFine!=null) && coarseToFine.constrain(words);
+    
+    // utterance boundaries of a discourse
+    isUtteranceConstrained = (utteranceBoundaries!=null);
+    if(isUtteranceConstrained){
+      utteranceBoundaries.init(words);
+      if(verbose>=1) System.err.println("# Utterance boundaries: " + utteranceBoundaries.getNumUtterances() + " utterances");
+    }
+    
     // init
     sentInit();
     
     /******************************************************************************/
     /** Step (1): add start edge "" -> . ROOT and perform the initial prediction **/
     /******************************************************************************/
+    chartInit();
+    addInnerScore(0, numWords, startEdge, operator.one()); // set inside score 1.0 for "" -> . ROOT
+    
+    /**********************************/
+    /** Step (2): parse word by word **/
+    /**********************************/
+    for(int right=1; right<=numWords; right++){ // span [0, rightEdge] covers words 0, ..., rightEdge-1
+      parseWord(right);
+      
+      if(verbose>=0 && right%100==0){
+        System.err.print(" (" + right + ") ");
+      } 
+    }
+
+    return parseEnd();
+  }
+  
+  /**
+   * Step (1) of parsing: add start edge "" -> . ROOT and perform the initial prediction
+   */
+  private void chartInit(){
     addToChart(0, 0, startEdge, operator.one(), operator.one());
     if(verbose>=2){
     	dumpChart();
     }
     chartPredict(0); // start expanding from ROOT
     addToChart(0, 0, startEdge, operator.one(), operator.one()); // this is a bit of a hack needed because chartPredict(0) wipes out the seeded rootActiveEdge chart entry.
-    addInnerScore(0, numWords, startEdge, operator.one()); // set inside score 1.0 for "" -> . ROOT
     if (isFastComplete){
       addActiveEdgeInfo(0, 0, startEdge);
     }
@@ -406,57 +572,74 @@ public abstract class EarleyParser implements Parser {
 //    if(internalMeasures.contains(Measures.ENTROPY)){
 //      computeInitEntropy();
 //    }
-    /**********************************/
-    /** Step (2): parse word by word **/
-    /**********************************/
-    for(int right=1; right<=numWords; right++){ // span [0, rightEdge] covers words 0, ..., rightEdge-1
-      String word = words.get(right-1).word();
-      
-      /*********************/
-      /** Step (2a): scan **/
-      /*********************/
-      scanWord(right);
-      
-      
-      /*************************/
-      /** Step (2b): complete **/
-      /*************************/
-      if(verbose>=1){
-        Timing.startTime(); 
-      }
-      if(isFastComplete){
-        fastChartComplete(right);
-      } else {
-        chartComplete(right);
-      }
-      if(verbose>=1){
-        Timing.tick("# " + word + ", finished chartComplete"); 
-      }
-      
-      
-      /************************/
-      /** Step (2c): predict **/
-      /************************/
-      // predict all new active edges for further down the road
-      if(verbose>=1){
-        Timing.startTime(); 
-      }
-      chartPredict(right);
-      if(verbose>=1){
-        Timing.tick("# " + word + ", finished chartPredict"); 
-      }
-      
-      
-      /*************************************/
-      /** Step (2d): output word measures **/
-      /*************************************/
-      outputWordMeasures(right);
-      
-      if(verbose>=0 && right%100==0){
-        System.err.print(" (" + right + ") ");
-      } 
+  }
+  
+  /**
+   * Step (2) of parsing: scan, complete, and predict for word_(right-1)
+   */
+  private void parseWord(int right){
+    String word = words.get(right-1).word();
+    
+    /*********************/
+    /** Step (2a): scan **/
+    /*********************/
+    scanWord(right);
+    
+    
+    /*************************/
+    /** Step (2b): complete **/
+    /*************************/
+    if(verbose>=1){
+      Timing.startTime(); 
     }
-
+    if(isFastComplete){
+      fastChartComplete(right);
+    } else {
+      chartComplete(right);
+    }
+    if(verbose>=1){
+      Timing.tick("# " + word + ", finished chartComplete"); 
+    }
+    
+    // approximate parsing: prune active edges before predicting from them
+    if(options.isPruning()){
+      pruneCells(0, right-1, right);
+    }
+    
+    
+    /************************/
+    /** Step (2c): predict **/
+    /************************/
+    // predict all new active edges for further down the road
+    if(verbose>=1){
+      Timing.startTime(); 
+    }
+    chartPredict(right);
+    if(verbose>=1){
+      Timing.tick("# " + word + ", finished chartPredict"); 
+    }
+    if(options.isPruning()){
+      pruneCells(right, right, right);
+    }
+    
+    
+    /*************************************/
+    /** Step (2d): output word measures **/
+    /*************************************/
+    outputWordMeasures(right);
+    
+    // width-bounded parsing: column right-maxWidth won't be completed with short edges anymore
+    if(isEvicting && right>=maxWidth){
+      evictColumn(right-maxWidth);
+    }
+  }
+  
+  /**
+   * Step (3) of parsing: compute outside probs (if required) once all words have been parsed
+   * 
+   * @return true if the sentence has a parse
+   */
+  private boolean parseEnd(){
     if(verbose>=4){
       dumpChart();
       System.err.println(dumpInnerProb());
@@ -468,7 +651,7 @@ public abstract class EarleyParser implements Parser {
     /***************************************************/
     // inside-outside    
     double rootInnerScore = getInnerScore(0, numWords, goalEdge);
-    if(EarleyParserOptions.insideOutsideOpt>0 && rootInnerScore>operator.zero()){ 
+    if(options.insideOutsideOpt>0 && rootInnerScore>operator.zero()){ 
       computeOutsideProbs();
       
       if(verbose>=4){
@@ -477,6 +660,21 @@ public abstract class EarleyParser implements Parser {
       }
     }
     
+    if(isFastComplete && verbose>=1){
+      System.err.println("# Completion joins: " + numCompletionJoins + " by completions, " 
+          + numWaitingJoins + " by waiting edges");
+    }
+    
+    // coarse-to-fine
+    if(isCoarseConstrained && coarseToFine.hasReference() && verbose>=0){
+      double maxDeviation = 0.0;
+      for (int right = 1; right <= numWords; right++) {
+        maxDeviation = Math.max(maxDeviation, Math.abs(surprisal(right) - coarseToFine.exactSurprisal(right)));
+      }
+      System.err.println("# Coarse-to-fine: pruned fraction=" + coarseToFine.prunedFraction() 
+          + ", max surprisal deviation=" + maxDeviation);
+    }
+    
     // end
     if(verbose>=0){
      Timing.tick("Finished parsing sentence " + sentId + ". " + words + ". Num words = " + numWords + ", negLogProb=" + -stringLogProbability(numWords) + ".");
@@ -488,6 +686,130 @@ public abstract class EarleyParser implements Parser {
     return (rootInnerScore>operator.zero());
   }
 
+  /*************************/
+  /** Incremental parsing **/
+  /*************************/
+  /**
+   * Start parsing a sentence whose words will be given one at a time:
+   *   parser.begin();
+   *   for (String word : words) {
+   *     parser.pushWord(word);
+   *     double surprisal = parser.currentMeasures().get(Measures.SURPRISAL);
+   *   }
+   *   parser.finish();
+   * Chart structures grow on demand, so the sentence length needn't be known.
+   */
+  public void begin(){
+    if(verbose>=0){
+      System.err.println("## Parsing sent " + sentId + " incrementally");
+     Timing.startTime();
+    }
+    
+    pushedWords = new ArrayList<HasWord>();
+    words = pushedWords;
+    isIncremental = true;
+    isCoarseConstrained = false; // the coarse pass needs the whole sentence
+    isUtteranceConstrained = false; // so do utterance boundaries, an utterance ends where the next one starts
+    sentInit();
+    ensureCapacity(INIT_CAPACITY);
+    
+    chartInit();
+  }
+  
+  public void pushWord(String word){
+    pushWord(new Word(word));
+  }
+  
+  /**
+   * Parse the next word of the sentence started by begin(), its measures are then
+   * available through currentMeasures()
+   */
+  public void pushWord(HasWord word){
+    if(!isIncremental){
+      System.err.println("! pushWord: begin() hasn't been called");
+      System.exit(1);
+    }
+    
+    int right = numWords+1;
+    ensureCapacity(right);
+    pushedWords.add(word);
+    wordIndices.add(parserWordIndex.indexOf(word.word(), true));
+    measures.addPosition();
+    
+    // now that word_(right-1) is known, find fragment edges expecting it
+    if(hasFragmentRule){
+      lookaheadFragmentEdges(right-1);
+    }
+    
+    numWords = right;
+    parseWord(right);
+  }
+  
+  /**
+   * Values of the output measures for the last word pushed
+   */
+  public Map<String, Double> currentMeasures(){
+    Map<String, Double> valueMap = new HashMap<String, Double>();
+    for (String measure : outputMeasures) {
+      valueMap.put(measure, measures.getValue(measure, numWords));
+    }
+    return valueMap;
+  }
+  
+  /**
+   * End the sentence started by begin(), computes outside probs (if required)
+   * 
+   * @return true if the sentence has a parse
+   */
+  public boolean finish(){
+    if(!isIncremental){
+      System.err.println("! finish: begin() hasn't been called");
+      System.exit(1);
+    }
+    isIncremental = false;
+    
+    addInnerScore(0, numWords, startEdge, operator.one()); // set inside score 1.0 for "" -> . ROOT
+    return parseEnd();
+  }
+  
+  /**
+   * Make sure chart structures have room for a sentence of numWords words,
+   * capacity doubles so that growing costs amortized constant time per word
+   */
+  private void ensureCapacity(int numWords){
+    if(numWords > capacity){
+      capacity = Math.max(numWords, 2*capacity);
+      checkNumWords(capacity);
+      state.grow(capacity, operator.zero());
+      wordPrefixScores = state.wordPrefixScores;
+      logScalings = state.logScalings;
+      if(isTrackCompletedEdges){
+        completedEdges = state.completedEdges;
+      }
+      if(isFastComplete){
+        activeEdgeInfo = state.activeEdgeInfo;
+      }
+      growChart(capacity);
+    }
+  }
+  
+  /**
+   * In batch parsing, edges [left, right]: X -> \alpha . _y \beta are added to fragmentEdgeInfo
+   * as they're created if _y matches word_right. When parsing incrementally, word_right
+   * is unknown at that time, so we look for such edges once it arrives.
+   */
+  private void lookaheadFragmentEdges(int right){
+    int wordIndex = wordIndices.get(right);
+    for (int left = nextLeft(right, -1); left >= 0; left = nextLeft(right, left)) {
+      for (int edge = nextInsideEdge(left, right, -1); edge >= 0; edge = nextInsideEdge(left, right, edge)) {
+        if(edgeSpace.numRemaining(edge)>0 && !edgeSpace.isNextTag(edge) 
+            && edgeSpace.nextChild(edge)==wordIndex){
+          addFragmentEdgeInfo(left, right, edge);
+        }
+      }
+    }
+  }
+  
   /**
    * Compute the initial entropy before seeing any input
    */
@@ -521,7 +843,7 @@ public abstract class EarleyParser implements Parser {
     // prefix prob
     double prefixProbability = operator.getProb(wordPrefixScores[right]); //measures.getPrefix(right));
     double scaleFactor = 1; // other measures have been scaled in storeMeasures()
-    if(EarleyParserOptions.isScaling){
+    if(options.isScaling){
       scaleFactor = operator.getProb(getScaling(0, right));
     }
     if(outputMeasures.contains(Measures.PREFIX)){
@@ -536,7 +858,7 @@ public abstract class EarleyParser implements Parser {
     
     // surprisals
     if(outputMeasures.contains(Measures.SURPRISAL)){
-      if(!EarleyParserOptions.isScaling){
+      if(!options.isScaling){
 //        double lastProbability = (right==1) ? 1.0 : operator.getProb(wordPrefixScores[right-1]);
         double lastProbability = operator.getProb(wordPrefixScores[right-1]);
         double prefixProbabilityRatio = prefixProbability / lastProbability;
@@ -556,6 +878,11 @@ public abstract class EarleyParser implements Parser {
       }
     }
     
+    // coarse-to-fine: how far surprisals are from the unpruned ones
+    if(outputMeasures.contains(Measures.SURPRISAL_DEVIATION) && isCoarseConstrained && coarseToFine.hasReference()){
+      measures.setValue(Measures.SURPRISAL_DEVIATION, right, surprisal(right) - coarseToFine.exactSurprisal(right));
+    }
+    
     // entropy reduction
     if(outputMeasures.contains(Measures.ENTROPY_REDUCTION)){
       double lastEntropy = measures.getEntropy(right-1);
@@ -574,6 +901,16 @@ public abstract class EarleyParser implements Parser {
     }
   } 
   
+  /**
+   * Surprisal of word_(right-1), i.e., -log of the ratio of the prefix probs at right and right-1
+   */
+  public double surprisal(int right){
+    if(options.isScaling){ // prefix prob is scaled, and equal to P(w0..w_(right-1))/P(w0..w_(right-2))
+      return -operator.getLogProb(wordPrefixScores[right]);
+    }
+    return operator.getLogProb(wordPrefixScores[right-1]) - operator.getLogProb(wordPrefixScores[right]);
+  }
+  
   /******************************/
   /********** SCANNING **********/
   /******************************/
@@ -590,8 +927,8 @@ public abstract class EarleyParser implements Parser {
     wordInit(right);
     
     /** Scaling factors **/
-    if(EarleyParserOptions.isScaling){ // scaling
-      scalingMap.put(linear(right-1, right), operator.inverse(wordPrefixScores[right-1])); //measures.getPrefix(right-1)));
+    if(options.isScaling){ // scaling
+      logScalings[right] = logScalings[right-1] - operator.getLogProb(wordPrefixScores[right-1]); //measures.getPrefix(right-1)));
     }
     
     /** Handle normal rules **/
@@ -601,10 +938,7 @@ public abstract class EarleyParser implements Parser {
     if(iTWs.size()==0 && ruleSet.hasSmoothRule()){
 //      if(!hasFragmentRule || !edgeSpace.terminal2fragmentEdges.containsKey(iW)){ 
         // if there's not a fragment rule X -> . _w, then use all tags
-        iTWs = new HashSet<IntTaggedWord>();
-        for(int iT : ruleSet.getUnkPreterminals()){
-          iTWs.add(new IntTaggedWord(iW, iT));
-        }
+        iTWs = unkTagsForWord(iW);
 //      }
       
       status = "unknown";
@@ -616,7 +950,7 @@ public abstract class EarleyParser implements Parser {
       double score = lex.score(itw); // log
       //Util.error(score>0, "! Lex score should be in log-form, but is " + score + ", rule " + itw);
       
-      if(!EarleyParserOptions.isLogProb){
+      if(!options.isLogProb){
         score = Math.exp(score);
       }
        
@@ -627,7 +961,8 @@ public abstract class EarleyParser implements Parser {
     
     /** Handle multi terminal rules **/
     if(hasMultiTerminalRule){
-      for (int i = right-2; i >= 0; --i) {
+      int minLeft = (maxWidth>0) ? Math.max(0, right-maxWidth) : 0; // multi-terminal rules are bounded by maxWidth
+      for (int i = right-2; i >= minLeft; --i) {
         // find all rules that rewrite into word_i ... word_(right-1)
         Map<Integer, Double> valueMap = grammar.getRuleTrie().findAllMap(wordIndices.subList(i, right));
         if(valueMap != null){
@@ -671,7 +1006,7 @@ public abstract class EarleyParser implements Parser {
     
     // scaling
     double inner = score;
-    if(EarleyParserOptions.isScaling){ 
+    if(options.isScaling){ 
       inner = operator.multiply(score, getScaling(left, right));
     }
     
@@ -681,7 +1016,7 @@ public abstract class EarleyParser implements Parser {
     assert(edge!=-1 && edgeSpace.get(edge).numChildren()==0);
     
     // add terminal rule
-    if(EarleyParserOptions.insideOutsideOpt>0){   
+    if(options.insideOutsideOpt>0){   
       Edge terminalEdge = new Edge(new TerminalRule(tag, wordIndices.subList(left, right)), right-left);
       Rule rule = terminalEdge.getRule();
       if(!ruleSet.contains(rule)){
@@ -691,13 +1026,13 @@ public abstract class EarleyParser implements Parser {
         if(verbose>=3) System.err.println("Add ProbRule " + probRule.toString(parserTagIndex, parserWordIndex));
       }
       
-      if (this instanceof EarleyParserSparse){
+      if (isEdgeSpaceGrowable()){
         edge = edgeSpace.addEdge(terminalEdge);
       }
     }
 
     // complete info
-    if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
+    if(isTrackCompletedEdges){
       addCompletedEdges(left, right, edge);
     }
     
@@ -728,14 +1063,16 @@ public abstract class EarleyParser implements Parser {
   }
   
   private void fragmentScanning(int left, int right, int fragmentEdge){
+    if(!isWithinWidth(left, right, fragmentEdge)){
+      return;
+    }
     double forwardScore = getForwardScore(left, right-1, fragmentEdge);
     double innerScore = getInnerScore(left, right-1, fragmentEdge);
     
     int edge = fragmentEdge;
-    Edge edgeObj = edgeSpace.get(edge);
-    if(verbose>=2) System.err.println("# Fragment scanning [" + left + ", " + (right-1) + "]: " + edgeObj.toString(parserTagIndex, parserWordIndex));
+    if(verbose>=2) System.err.println("# Fragment scanning [" + left + ", " + (right-1) + "]: " + edgeSpace.get(edge).toString(parserTagIndex, parserWordIndex));
     // scaling
-    if(EarleyParserOptions.isScaling){ 
+    if(options.isScaling){ 
       forwardScore = operator.multiply(forwardScore, getScaling(right-1, right));
       innerScore = operator.multiply(innerScore, getScaling(right-1, right));
     }
@@ -744,9 +1081,8 @@ public abstract class EarleyParser implements Parser {
     
     // advance to next position [left, nextRight]: X -> \alpha _y . \beta
     edge = edgeSpace.to(edge);
-    edgeObj = edgeSpace.get(edge); //nextEdgeObj.getToEdge();
-    if(edgeObj.numRemainingChildren()>0 && !edgeObj.isTagAfterDot(0)
-        && right<numWords && edgeObj.getChildAfterDot(0) == wordIndices.get(right)){ // look ahead to see if any matching terminal
+    if(isNextWord(right, edge) // look ahead to see if any matching terminal
+        && isWithinWidth(left, right+1, edge)){
     	addToChart(left, right, edge, forwardScore, innerScore);
     	addFragmentEdgeInfo(left, right, edge);
     	right++;
@@ -756,8 +1092,8 @@ public abstract class EarleyParser implements Parser {
 	  if(verbose>=2) System.err.println("  add to chart: " + edgeInfo(left, right, edge));
 	  
 	  
-	  if (edgeObj.numRemainingChildren()==0){ // completed: X -> \alpha Z .
-	    if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
+	  if (edgeSpace.numRemaining(edge)==0){ // completed: X -> \alpha Z .
+	    if(isTrackCompletedEdges){
 	      addCompletedEdges(left, right, edge);
 	    }
 	  } else if (isFastComplete){
@@ -780,7 +1116,7 @@ public abstract class EarleyParser implements Parser {
 //      // invariant: edgeObj [left, nextRight-1]: X -> \alpha . _y \beta and _y matches wordIndices.(nextRight-1)
 //      
 //      // scaling
-//      if(EarleyParserOptions.isScaling){ 
+//      if(options.isScaling){ 
 //        forwardScore = operator.multiply(forwardScore, getScaling(nextRight-1, nextRight));
 //        innerScore = operator.multiply(innerScore, getScaling(nextRight-1, nextRight));
 //      }
@@ -804,7 +1140,7 @@ public abstract class EarleyParser implements Parser {
 //    
 //    
 //    if (edgeObj.numRemainingChildren()==0){ // completed: X -> \alpha Z .
-//      if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
+//      if(options.insideOutsideOpt>0 || options.decodeOpt==2){
 //        addCompletedEdges(left, nextRight, edge);
 //      }
 //    } else if (isFastComplete){
@@ -814,78 +1150,416 @@ public abstract class EarleyParser implements Parser {
 //    
 //  }
   
-  /********************************/
-  /********** PREDICTION **********/
-  /********************************/
+  /********************************/
+  /********** PREDICTION **********/
+  /********************************/
+  private Set<IntTaggedWord> unkTagsForWord(int iW){
+    Set<IntTaggedWord> iTWs = new HashSet<IntTaggedWord>();
+    for(int iT : ruleSet.getUnkPreterminals()){
+      iTWs.add(new IntTaggedWord(iW, iT));
+    }
+    return iTWs;
+  }
+  
+  /**
+   * Set lookaheadTags to the tags that can start with word_right: its preterminals, as scanWord(right+1) 
+   * will find them, mothers of rules X -> _w ... whose first terminal is word_right, and all tags these are 
+   * left corners of. 
+   * 
+   * @return false if predictions at column right can't be filtered: no filter, incremental parsing, or no next word
+   */
+  private boolean initLookahead(int right){
+    if(lookaheadFilter==null || isIncremental || right>=numWords){
+      return false;
+    }
+    
+    String word = words.get(right).word();
+    lookaheadWord = wordIndices.get(right);
+    Set<IntTaggedWord> iTWs = lex.tagsForWord(word);
+    if(iTWs.size()==0 && ruleSet.hasSmoothRule()){
+      iTWs = unkTagsForWord(lookaheadWord);
+    }
+    
+    Arrays.fill(lookaheadTags, 0L);
+    lookaheadQueue.clear();
+    for (IntTaggedWord itw : iTWs) {
+      lookaheadFilter.allowTag(itw.tag(), lookaheadTags, lookaheadQueue);
+    }
+    lookaheadFilter.allowWord(lookaheadWord, lookaheadTags, lookaheadQueue);
+    if(verbose>=2) System.err.println("# Lookahead " + word + ": " + lookaheadQueue.size() + " tags");
+    return true;
+  }
+  
+  /**
+   * Whether a predicted edge right: right X -> . \alpha can start with word_right, 
+   * only meaningful when isLookaheadColumn
+   */
+  protected final boolean isLookaheadEdge(int edge){
+    if(edgeSpace.isNextTag(edge)){
+      return Bits.get(lookaheadTags, edgeSpace.nextChild(edge));
+    } else {
+      return edgeSpace.nextChild(edge)==lookaheadWord;
+    }
+  }
+  
+  /**
+   * Whether tag can start with word_right, only meaningful when isLookaheadColumn
+   */
+  protected final boolean isLookaheadTag(int tag){
+    return Bits.get(lookaheadTags, tag);
+  }
+  
+  /**
+   * Predictions at column right
+   * 
+   * @param right
+   */
+  protected void chartPredict(int right) {
+    // init
+    initPredictTmpScores(right);
+    
+    boolean flag = false;
+    parallelLefts.clear();
+    for (int left = nextLeft(right, -1); left >= 0; left = nextLeft(right, left)) {
+      if (insideChartCount(left, right) == 0){ // no active categories
+        continue;
+      }
+      
+      flag = true;
+      if(parallelPredictor != null){
+        parallelLefts.add(left);
+        continue;
+      }
+      
+      if(verbose>=2) System.err.println("\n# Predict all [" + left + "," + right + "]: " +  "chart count=" + insideChartCount(left, right));
+      chartPredict(left, right);
+    }
+    if(parallelPredictor != null && !parallelPredictor.chartPredict(right, parallelLefts)){
+      for (int i = 0; i < parallelLefts.size(); i++) {
+        chartPredict(parallelLefts.get(i), right);
+      }
+    }
+    
+    isLookaheadColumn = initLookahead(right);
+    predictFromCategories(right);
+    storePredictTmpScores(right);
+    
+    if (verbose >= 3 && flag) {
+      dumpChart();
+    }
+  }
+  
+
+  /**
+   * Predictions only depend on the nonterminal Z after the dot, so an edge right: left X -> \alpha . Z \beta
+   * just adds its forward score to the mass of Z. Predictions are made once per Z by predictFromCategories.
+   */
+  protected void predictFromEdge(int left, int right, int edge) {
+    int via = grammar.getPredictionVia(edge);
+    if(via<0){
+      return;
+    }
+    if (verbose >= 2) {
+      System.err.println("# From edge " + edgeScoreInfo(left, right, edge));
+    }
+    addViaForwardScore(via, getForwardScore(left, right, edge));
+  }
+  
+  void addViaForwardScore(int via, double forward){
+    if(!isVia[via]){
+      isVia[via] = true;
+      viaCategories.add(via);
+    }
+    viaForwardScores[via] = operator.add(viaForwardScores[via], forward);
+  }
+  
+  /**
+   * Predictions at column right, made once per nonterminal Z from the forward mass of all edges waiting on Z,
+   * so the cost depends on the number of distinct Z rather than on the number of edges.
+   * Predicted edges are added in the same order as predicting edge by edge would.
+   * With isLookaheadColumn, Z that can't start with word_right, and edges whose first child can't, are skipped.
+   */
+  protected void predictFromCategories(int right) {
+    int[] predictedStates = grammar.getPredictedStates();
+    double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+    double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+    for (int i = 0; i < viaCategories.size(); i++) {
+      int via = viaCategories.get(i);
+      double forward = viaForwardScores[via];
+      if(isLookaheadColumn && !isLookaheadTag(via)){
+        if (verbose >= 2) {
+          System.err.println("# Skip via " + parserTagIndex.get(via) + ": can't start with the next word");
+        }
+        continue;
+      }
+      if (verbose >= 2) {
+        System.err.println("# Predict via " + parserTagIndex.get(via) + ": forward=" + df.format(operator.getProb(forward)));
+      }
+      
+      for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+        // spawn new edge
+        int newEdge = predictedStates[p];
+        if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+          continue;
+        }
+        double newForwardProb = operator.multiply(forward, forwardMultipliers[p]);
+        double newInnerProb = innerMultipliers[p];
+        
+        // add to tmp map
+        addPredictTmpForwardScore(newEdge, newForwardProb);
+        addPredictTmpInnerScore(newEdge, newInnerProb);
+        addPredictedEdgeInfo(right, newEdge);
+        
+        if(verbose>=3) System.err.println("  to " + edgeScoreInfo(right, right, newEdge, newForwardProb, newInnerProb));
+      }
+    }
+    clearViaCategories();
+  }
+  
+  protected void clearViaCategories(){
+    for (int i = 0; i < viaCategories.size(); i++) {
+      int via = viaCategories.get(i);
+      isVia[via] = false;
+      viaForwardScores[via] = operator.zero();
+    }
+    viaCategories.clear();
+  }
+  
+  /**
+   * Active and fragment edge info of a predicted edge right: right X -> . \alpha
+   */
+  void addPredictedEdgeInfo(int right, int newEdge){
+    // store activeEdgeInfo: right: right X -> . \alpha
+    if(isFastComplete){
+//      assert(edgeSpace.get(newEdge).numChildren()>0 && edgeSpace.get(newEdge).getDot()==0);
+      addActiveEdgeInfo(right, right, newEdge);
+    }
+    
+    // fragment edges
+    if(hasFragmentRule && right<numWords){
+//      assert(edgeSpace.numRemaining(newEdge)>0 && edgeSpace.dot(newEdge)==0);
+      
+      // after dot is a matching terminal
+      if(isNextWord(right, newEdge)){
+        addFragmentEdgeInfo(right, right, newEdge);
+      }
+    }
+  }
+  
+  /*****************************/
+  /********** PRUNING **********/
+  /*****************************/
+  private IntList pruneEdges = new IntList(); // active edges of the cell being pruned
+  private double[] pruneScores = new double[16]; // their forward scores
+  private double[] sortedPruneScores = new double[16];
+  
+  /**
+   * Approximate parsing: for each cell [left, right] with minLeft <= left <= maxLeft, drop active edges whose
+   * forward scores are below pruneThreshold * prefix score of right, or that are not among the
+   * pruneTopK best active edges of the cell. The pruned mass, relative to the prefix prob, is added to
+   * the measure Measures.PRUNED_MASS.
+   * 
+   * Completed edges are kept: scanned ones have zero forward scores, and the outside pass and decoding
+   * go through completed edges, so dropping them would leave parses without their constituents.
+   * Nothing is built from a pruned active edge anymore, so the chart stays consistent.
+   */
+  protected void pruneCells(int minLeft, int maxLeft, int right){
+    double prefixScore = wordPrefixScores[right];
+    double threshold = operator.zero();
+    if(options.pruneThreshold>0 && prefixScore>operator.zero()){
+      threshold = operator.multiply(prefixScore, operator.getScore(options.pruneThreshold));
+    }
+    
+    double prunedMass = 0.0;
+    int numPruned = 0;
+    for (int left = nextLeft(right, minLeft-1); left >= 0 && left <= maxLeft; left = nextLeft(right, left)) {
+      if(insideChartCount(left, right)==0){
+        continue;
+      }
+      
+      // collect active edges, the start edge is never pruned
+      pruneEdges.clear();
+      for (int edge = nextInsideEdge(left, right, -1); edge >= 0; edge = nextInsideEdge(left, right, edge)) {
+        if(edge != startEdge && edgeSpace.numRemaining(edge)>0){
+          pruneEdges.add(edge);
+        }
+      }
+      int numEdges = pruneEdges.size();
+      if(pruneScores.length < numEdges){
+        pruneScores = new double[2*numEdges];
+      }
+      for (int i = 0; i < numEdges; i++) {
+        pruneScores[i] = getForwardScore(left, right, pruneEdges.get(i));
+      }
+      
+      // cell threshold
+      double cellThreshold = threshold;
+      if(options.pruneTopK>0 && numEdges>options.pruneTopK){
+        if(sortedPruneScores.length < numEdges){
+          sortedPruneScores = new double[pruneScores.length];
+        }
+        System.arraycopy(pruneScores, 0, sortedPruneScores, 0, numEdges);
+        Arrays.sort(sortedPruneScores, 0, numEdges);
+        double kthScore = sortedPruneScores[numEdges - options.pruneTopK]; // ties with the k-th best edge are kept
+        if(kthScore > cellThreshold){
+          cellThreshold = kthScore;
+        }
+      }
+      if(cellThreshold==operator.zero()){ // nothing to prune
+        continue;
+      }
+      
+      for (int i = 0; i < numEdges; i++) {
+        if(pruneScores[i] < cellThreshold){
+          int edge = pruneEdges.get(i);
+          if(prefixScore>operator.zero()){
+            prunedMass += operator.getProb(operator.divide(pruneScores[i], prefixScore));
+          }
+          removeEdge(left, right, edge);
+          numPruned++;
+        }
+      }
+    }
+    
+    if(outputMeasures.contains(Measures.PRUNED_MASS)){
+      measures.setValue(Measures.PRUNED_MASS, right, measures.getValue(Measures.PRUNED_MASS, right) + prunedMass);
+    }
+    if(verbose>=1 && numPruned>0){
+      System.err.println("# Pruned " + numPruned + " edges [" + minLeft + "-" + maxLeft + ", " + right + "], mass=" + prunedMass);
+    }
+  }
+  
+  /**
+   * Remove edge from [left, right] together with its completion info
+   */
+  private void removeEdge(int left, int right, int edge){
+    removeInsideEdge(left, right, edge);
+    
+    if(completedEdges != null){
+      completedEdges[right].remove(left, edge);
+    }
+    if(isFastComplete){
+      activeEdgeInfo[right].remove(edge, left);
+    }
+    if(hasFragmentRule && fragmentEdgeInfo.get(right).containsKey(left)){
+      fragmentEdgeInfo.get(right).get(left).remove(edge);
+    }
+  }
+  
+  /*****************************/
+  /********** WIDTH ************/
+  /*****************************/
+  /**
+   * Width-bounded parsing: whether edges with the same mother as edge can span [left, right], i.e., 
+   * they're at most maxWidth words long or their mother is exempt. Lefts of long spans are
+   * remembered so that nextLeft() and prevLeft() visit them.
+   * In coarse-to-fine parsing, edge is about to be advanced to [left, right], and edgeSpace.to(edge)
+   * must also be allowed there by the coarse pass. Edges of boundary-constrained nonterminals can't
+   * cross utterance boundaries either; as active edges that would have to are never built, nothing is
+   * predicted from them.
+   */
+  protected boolean isWithinWidth(int left, int right, int edge){
+    if(!isSpanAllowed(left, right, edge)){
+      return false;
+    }
+    
+    addLongSpan(left, right);
+    return true;
+  }
+  
+  /**
+   * Same as isWithinWidth() without remembering long spans, safe to call from completion workers
+   */
+  boolean isSpanAllowed(int left, int right, int edge){
+    if(maxWidth>0 && right-left>maxWidth && !isWidthExempt[edgeSpace.mother(edge)]){
+      return false;
+    }
+    if(isUtteranceConstrained && isBoundaryConstrained[edgeSpace.mother(edge)]
+        && !utteranceBoundaries.isAllowed(left, right, edgeSpace.numRemaining(edge)>1)){
+      return false;
+    }
+    return !isCoarseConstrained
+        || coarseToFine.isAllowed(left, right, edgeSpace.mother(edge), edgeSpace.numRemaining(edge)>1);
+  }
+  
   /**
-   * Predictions at column right
-   * 
-   * @param right
+   * Whether edge X -> \alpha . _y \beta ending at right has terminal _y = word_right after the dot
    */
-  protected void chartPredict(int right) {
-    // init
-    initPredictTmpScores();
-    
-    boolean flag = false;
-    for (int left = 0; left <= right; left++) {
-      if (insideChartCount(left, right) == 0){ // no active categories
-        continue;
-      }
-      
-      if(verbose>=2) System.err.println("\n# Predict all [" + left + "," + right + "]: " +  "chart count=" + insideChartCount(left, right));
-      
-      flag = true;
-//      chartPredict(left, right);
-      for(int edge : listInsideEdges(left, right)){
-        // predict for right: left X -> \alpha . Y \beta
-        predictFromEdge(left, right, edge);
+  boolean isNextWord(int right, int edge){
+    return right<numWords && edgeSpace.numRemaining(edge)>0 && !edgeSpace.isNextTag(edge)
+        && edgeSpace.nextChild(edge)==wordIndices.get(right);
+  }
+  
+  /**
+   * Remember that an edge spans [left, right], in case it's longer than maxWidth
+   */
+  void addLongSpan(int left, int right){
+    if(maxWidth>0 && right-left>maxWidth){
+      state.addLongLeft(left, right);
+    }
+  }
+  
+  /**
+   * Next left after the given one (start with -1) of a cell [left, right] that may have edges, -1 if none.
+   * Without a width bound, this is simply left+1 up to right.
+   */
+  protected int nextLeft(int right, int left){
+    left++;
+    if(maxWidth>0 && left<right-maxWidth){
+      long[] longLefts = state.longLefts[right];
+      int longLeft = (longLefts==null) ? -1 : Bits.nextSetBit(longLefts, left);
+      if(longLeft>=0 && longLeft<right-maxWidth){
+        return longLeft;
       }
+      left = right-maxWidth;
     }
-    
-    storePredictTmpScores(right);
-    
-    if (verbose >= 3 && flag) {
-      dumpChart();
+    return (left<=right) ? left : -1;
+  }
+  
+  /**
+   * Same as nextLeft() but in decreasing order, start with right+1
+   */
+  protected int prevLeft(int right, int left){
+    left--;
+    if(maxWidth>0 && left<right-maxWidth){
+      long[] longLefts = state.longLefts[right];
+      return (longLefts==null) ? -1 : Bits.prevSetBit(longLefts, left);
     }
+    return left;
   }
   
-
-  protected void predictFromEdge(int left, int right, int edge) {
-    Prediction[] predictions = grammar.getPredictions(edge);
-    if (verbose >= 2 && predictions.length>0) {
-      System.err.println("# From edge " + edgeScoreInfo(left, right, edge));
+  /**
+   * Drop the edges ending at column that are no longer needed in width-bounded mode: apart from exempt
+   * ones, edges longer than maxWidth can't be built from them. Only active edges X -> \alpha . Y \beta
+   * with both X and Y exempt are kept.
+   */
+  private void evictColumn(int column){
+    for (int left = nextLeft(column, -1); left >= 0; left = nextLeft(column, left)) {
+      pruneEdges.clear();
+      for (int edge = nextInsideEdge(left, column, -1); edge >= 0; edge = nextInsideEdge(left, column, edge)) {
+        if(!isWidthExempt[edgeSpace.mother(edge)] || edgeSpace.numRemaining(edge)==0 
+            || !edgeSpace.isNextTag(edge) || !isWidthExempt[edgeSpace.nextChild(edge)]){
+          pruneEdges.add(edge);
+        }
+      }
+      for (int i = 0; i < pruneEdges.size(); i++) {
+        removeEdge(left, column, pruneEdges.get(i));
+      }
+    }
+    if(hasFragmentRule){
+      recycleEmptySets(fragmentEdgeInfo.get(column));
     }
     
-    for (int x = 0, n = predictions.length; x < n; x++) { // go through each prediction
-      Prediction p = predictions[x];
-      
-      // spawn new edge
-      int newEdge = p.predictedState;
-      double newForwardProb = operator.multiply(getForwardScore(left, right, edge), p.forwardProbMultiplier);
-      double newInnerProb = p.innerProbMultiplier;
-      
-      // add to tmp map
-      addPredictTmpForwardScore(newEdge, newForwardProb);
-      addPredictTmpInnerScore(newEdge, newInnerProb);
-      
-      // store activeEdgeInfo: right: right X -> . \alpha
-      if(isFastComplete){
-//        assert(edgeSpace.get(newEdge).numChildren()>0 && edgeSpace.get(newEdge).getDot()==0);
-        addActiveEdgeInfo(right, right, newEdge);
-      }
-      
-      // fragment edges
-      if(hasFragmentRule && right<numWords){
-        Edge nextEdgeObj = edgeSpace.get(newEdge);
-//        assert(nextEdgeObj.numChildren()>0 && nextEdgeObj.getDot()==0);
-        
-        // after dot is a matching terminal
-        if(!nextEdgeObj.isTagAfterDot(0) && nextEdgeObj.getChildAfterDot(0) == wordIndices.get(right)){
-          addFragmentEdgeInfo(right, right, newEdge);
-        }
+    compactColumn(column);
+  }
+  
+  private void recycleEmptySets(Map<Integer, Set<Integer>> map){
+    for (Iterator<Set<Integer>> it = map.values().iterator(); it.hasNext(); ) {
+      Set<Integer> set = it.next();
+      if(set.isEmpty()){
+        it.remove();
+        state.recycleSet(set);
       }
-      
-      if(verbose>=3) System.err.println("  to " + edgeScoreInfo(right, right, newEdge, newForwardProb, newInnerProb));
     }
   }
   
@@ -893,27 +1567,20 @@ public abstract class EarleyParser implements Parser {
   /********** COMPLETION **********/
   /********************************/
   public void addCompletedEdges(int left, int right, int edge){
-    int lrIndex = linear(left, right);
-    if(!completedEdges.containsKey(lrIndex)){
-      completedEdges.put(lrIndex, new HashSet<Integer>());
-    }
-    completedEdges.get(lrIndex).add(edge);
+    completedEdges[right].add(left, edge);
     
     if(verbose>=3) System.err.println("# Add completed edge " + edgeInfo(left, right, edge));
   }
   
   public void addActiveEdgeInfo(int left, int right, int edge){
-    if(!activeEdgeInfo.get(right).containsKey(edge)){
-      activeEdgeInfo.get(right).put(edge, new HashSet<Integer>());
-    }
-    activeEdgeInfo.get(right).get(edge).add(left);
+    activeEdgeInfo[right].add(edge, left);
     
     if(verbose>=3) System.err.println("# Add active edge info " + edgeInfo(left, right, edge));
   }
   
   public void addFragmentEdgeInfo(int left, int right, int edge){
     if(!fragmentEdgeInfo.get(right).containsKey(left)){
-      fragmentEdgeInfo.get(right).put(left, new HashSet<Integer>());
+      fragmentEdgeInfo.get(right).put(left, state.newSet());
     }
     fragmentEdgeInfo.get(right).get(left).add(edge);
     
@@ -929,11 +1596,24 @@ public abstract class EarleyParser implements Parser {
   protected void chartComplete(int right) {
     // Note: for loop orders here matter
     // basically, we start out completing small chunks and gradually form larger chunks to complete
-    for (int left = right - 1; left >= 0; left--) {      
-      for (int middle = right - 1; middle >= left; middle--) {
-        cellComplete(left, middle, right);
-      } // end middle
-    } // end left
+    if(maxWidth>0){
+      boundedChartComplete(right);
+    } else {
+      for (int left = right - 1; left >= 0; left--) {      
+        if(parallelCompleter != null){
+          parallelMiddles.clear();
+          for (int middle = right - 1; middle > left; middle--) {
+            parallelMiddles.add(middle);
+          }
+          parallelCellComplete(left, right);
+          continue;
+        }
+        
+        for (int middle = right - 1; middle >= left; middle--) {
+          cellComplete(left, middle, right);
+        } // end middle
+      } // end left
+    }
     
     storeMeasures(right);
     if(verbose>=3){
@@ -941,6 +1621,80 @@ public abstract class EarleyParser implements Parser {
     }
   }
   
+  private long[] candidateLefts = new long[1]; // bitset of lefts, reused by boundedChartComplete
+  
+  /**
+   * chartComplete in width-bounded mode: an edge [left, right] can only be built from edges
+   * [left, middle] and [middle, right], so we visit lefts of non-empty columns middle for middles
+   * of column right, i.e., O(maxWidth^2) pairs (plus the few long spans of exempt edges)
+   */
+  private void boundedChartComplete(int right){
+    int numBitWords = Bits.numWords(right+1);
+    if(candidateLefts.length < numBitWords){
+      candidateLefts = new long[2*numBitWords];
+    } else {
+      Arrays.fill(candidateLefts, 0, numBitWords, 0L);
+    }
+    for (int middle = prevLeft(right, right); middle >= 0; middle = prevLeft(right, middle)) {
+      addCandidateLefts(middle);
+    }
+    
+    for (int left = Bits.prevSetBit(candidateLefts, right-1); left >= 0; left = Bits.prevSetBit(candidateLefts, left-1)) {
+      if(parallelCompleter != null){
+        parallelMiddles.clear();
+        for (int middle = prevLeft(right, right); middle > left; middle = prevLeft(right, middle)) {
+          if(!isForwardCellEmpty(left, middle)){
+            parallelMiddles.add(middle);
+          }
+        }
+        parallelCellComplete(left, right);
+      } else {
+        for (int middle = prevLeft(right, right); middle >= left; middle = prevLeft(right, middle)) {
+          if(!isForwardCellEmpty(left, middle)){
+            cellComplete(left, middle, right);
+          }
+        } // end middle
+      }
+      
+      // a long exempt edge [left, right] could be completed by edges ending at left
+      if(right-left > maxWidth && !isForwardCellEmpty(left, right)){
+        addCandidateLefts(left);
+      }
+    } // end left
+  }
+  
+  private void addCandidateLefts(int middle){
+    for (int left = middle; left >= 0 && middle-left <= maxWidth; left--) {
+      Bits.set(candidateLefts, left);
+    }
+    if(state.longLefts[middle] != null){
+      Bits.or(candidateLefts, state.longLefts[middle]);
+    }
+  }
+  
+  /**
+   * Same as cellComplete(left, middle, right) for the middles in parallelMiddles, then for left itself,
+   * with the middles split across completion workers if there're enough of them
+   */
+  private void parallelCellComplete(int left, int right){
+    if(parallelCompleter.cellComplete(left, right, parallelMiddles)){
+      if(hasMultiTerminalRule){
+        for (int i = 0; i < parallelMiddles.size(); i++) {
+          multiTerminalComplete(left, parallelMiddles.get(i), right);
+        }
+      }
+    } else {
+      for (int i = 0; i < parallelMiddles.size(); i++) {
+        cellComplete(left, parallelMiddles.get(i), right);
+      }
+    }
+    
+    // [left, left] edges
+    if(!isForwardCellEmpty(left, left)){
+      cellComplete(left, left, right);
+    }
+  }
+  
   protected void cellComplete(int left, int middle, int right){
     // init
     initCompleteTmpScores();
@@ -950,7 +1704,7 @@ public abstract class EarleyParser implements Parser {
     	if(verbose>=2) System.err.println("\n# Complete all [" + left + "," + middle + "," + right + "]: insideChartCount[" + middle + "," + right + "]=" + insideChartCount(middle, right));
       
       // tag completions
-      for(int edge : listInsideEdges(middle, right)){
+      for(int edge = nextInsideEdge(middle, right, -1); edge >= 0; edge = nextInsideEdge(middle, right, edge)){
         if(edgeSpace.to(edge) == -1){ // no more child after the dot
           // right: middle Y -> _ .
           // in completion the forward prob of Y -> _ . is ignored
@@ -960,8 +1714,22 @@ public abstract class EarleyParser implements Parser {
     }
     
     /** Handle multi-terminal rules **/
-    if(hasMultiTerminalRule && !isForwardCellEmpty(left, middle)){
-    	if(verbose>=2) System.err.println("# handle multiterminal rules " + left + ", " + middle + ", " + right);
+    if(hasMultiTerminalRule){
+      multiTerminalComplete(left, middle, right);
+    }
+    
+    /** Handle fragment rules **/
+//    if(hasFragmentRule && middle==(right-1)){
+//      fragmentComplete(left, right);
+//    }
+    
+    // completions yield edges: right: left X -> \alpha Y . \beta
+    storeCompleteTmpScores(left, right);
+  }
+  
+  private void multiTerminalComplete(int left, int middle, int right){
+    if(!isForwardCellEmpty(left, middle) && (maxWidth<=0 || right-middle<=maxWidth)){
+      if(verbose>=2) System.err.println("# handle multiterminal rules " + left + ", " + middle + ", " + right);
       Map<Integer, Double> valueMap = grammar.getRuleTrie().findAllPrefixMap(wordIndices.subList(middle, right));
       
       if(valueMap != null){
@@ -972,14 +1740,6 @@ public abstract class EarleyParser implements Parser {
         handleMultiTerminalRules(left, middle, right, valueMap);
       }
     }
-    
-    /** Handle fragment rules **/
-//    if(hasFragmentRule && middle==(right-1)){
-//      fragmentComplete(left, right);
-//    }
-    
-    // completions yield edges: right: left X -> \alpha Y . \beta
-    storeCompleteTmpScores(left, right);
   }
   
   private void agPrefixInfo(int middle, int right, Map<Integer, Double> valueMap){
@@ -1010,29 +1770,33 @@ public abstract class EarleyParser implements Parser {
   }
   
   protected void fastChartComplete(int right){
-    for (int middle = right - 1; middle >= 0; middle--) {
-      int mrIndex = linear(middle, right);
-      
+    // in width-bounded mode, long middles are picked up as they're added
+    for (int middle = prevLeft(right, right); middle >= 0; middle = prevLeft(right, middle)) {
       // list of nextEdge right: middle Y -> v .
-      if(completedEdges.containsKey(mrIndex)){
-      	if(verbose>=3) System.err.println("\n# Complete all [" + middle + "," + right + "]: insideChartCount["  + middle + "," + right + "]=" + completedEdges.get(mrIndex).size());
+      // edges completed along the way are appended after numEdges and already accounted for by unary closures
+      IntMultiMap cellEdges = completedEdges[right];
+      int slot = cellEdges.slot(middle);
+      int numEdges = (slot<0) ? 0 : cellEdges.sizeAt(slot);
+      if(numEdges>0){
+      	if(verbose>=3) System.err.println("\n# Complete all [" + middle + "," + right + "]: insideChartCount["  + middle + "," + right + "]=" + numEdges);
         
-        Integer[] copyEdges = completedEdges.get(mrIndex).toArray(new Integer[0]);
-        for(int nextEdge : copyEdges){
-          fastCellComplete(middle, right, nextEdge); 
+        if(parallelCompleter==null || !parallelCompleter.fastCellComplete(middle, right, numEdges)){
+          for (int i = 0; i < numEdges; i++) {
+            fastCellComplete(middle, right, cellEdges.valueAt(slot, i)); 
+          }
         }
       }
       
       // could be made faster
       /** Handle multi-terminal rules **/
-      if(hasMultiTerminalRule){
+      if(hasMultiTerminalRule && (maxWidth<=0 || right-middle<=maxWidth)){
         Map<Integer, Double> valueMap = grammar.getRuleTrie().findAllPrefixMap(wordIndices.subList(middle, right));
         
         if(valueMap != null){
           if(verbose >= 2){
             agPrefixInfo(middle, right, valueMap);
           }
-          for(int left=middle; left>=0; left--){
+          for(int left=prevLeft(middle, middle+1); left>=0; left=prevLeft(middle, left)){
             if(isForwardCellEmpty(left, middle)){
               continue;
             }
@@ -1048,84 +1812,143 @@ public abstract class EarleyParser implements Parser {
     }
   }
   
+  /**
+   * Completions of the active edges middle: left X -> \alpha . Z \beta by nextEdge right: middle Y -> v .
+   * The join goes through whichever side is smaller: the completions of Y, each looked up among the edges
+   * waiting at column middle, or the edges waiting at middle, each looked up in the completion index of Y.
+   */
   protected void fastCellComplete(int middle, int right, int nextEdge){
     // next edge, right: middle Y -> v .
-    int tag = edgeSpace.get(nextEdge).getMother(); // Y
+    int tag = edgeSpace.mother(nextEdge); // Y
     
     // set of completions X -> \alpha . Z \beta
-    Completion[] completions = grammar.getCompletions(tag);
-
-    if(completions.length>0){ // there exists a completion
-      double inner = getInnerScore(middle, right, nextEdge);
-      if(verbose>=3) System.err.println(completionInfo(middle, right, nextEdge, inner, completions));
- 
-      for (Completion completion : completions) { // go through all completions we could finish
-        int prevEdge = completion.activeEdge; // X -> \alpha . Z \beta
-
-        if(activeEdgeInfo.containsKey(middle) && activeEdgeInfo.get(middle).containsKey(prevEdge)){
-        	if(verbose>=3) System.err.println("Left for [*, " + middle + "] " + edgeSpace.get(prevEdge).toString(parserTagIndex, parserWordIndex) + ":  " + activeEdgeInfo.get(middle).get(prevEdge));
-          
-          
-          for(int left : activeEdgeInfo.get(middle).get(prevEdge)){ // middle : left X -> \alpha . Z \beta
-            assert(edgeSpace.get(prevEdge).numRemainingChildren()>0);
-            /* add/update newEdge right: left X -> \alpha Z . \beta */
-            double updateScore = operator.multiply(completion.score, inner);
-            double newForwardScore = operator.multiply(
-                getForwardScore(left, middle, prevEdge), updateScore);
-            double newInnerScore = operator.multiply(
-                getInnerScore(left, middle, prevEdge), updateScore);
-            int newEdge = edgeSpace.to(completion.activeEdge);
+    int start = grammar.completionStart(tag);
+    int end = grammar.completionEnd(tag);
+    if(start==end){ // no completion
+      return;
+    }
+    
+    double inner = getInnerScore(middle, right, nextEdge);
+    if(verbose>=3) System.err.println(completionInfo(middle, right, nextEdge, inner, grammar.getCompletions(tag)));
+    IntMultiMap activeEdges = activeEdgeInfo[middle];
+    if(isWaitingJoin(end-start, activeEdges)){
+      double[] viaScores = grammar.getCompletionViaScores();
+      for (int slot = 0, numSlots = activeEdges.numSlots(); slot < numSlots; slot++) {
+        int prevEdge = activeEdges.keyAt(slot); // X -> \alpha . Z \beta
+        if(activeEdges.sizeAt(slot)==0 || !edgeSpace.isNextTag(prevEdge)){
+          continue;
+        }
+        int v = grammar.completionVia(tag, edgeSpace.nextChild(prevEdge)); // R(Z=>Y)
+        if(v>=0){
+          fastCompleteLefts(middle, right, nextEdge, prevEdge, viaScores[v], inner, activeEdges, slot);
+        }
+      }
+    } else {
+      int[] completionEdges = grammar.getCompletionEdges();
+      double[] completionScores = grammar.getCompletionScores();
+      for (int c = start; c < end; c++) { // go through all completions we could finish
+        int prevEdge = completionEdges[c]; // X -> \alpha . Z \beta
+        int slot = activeEdges.slot(prevEdge);
+        if(slot>=0){
+          fastCompleteLefts(middle, right, nextEdge, prevEdge, completionScores[c], inner, activeEdges, slot);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Completions of prevEdge middle: left X -> \alpha . Z \beta for the lefts in slot of activeEdges
+   */
+  protected void fastCompleteLefts(int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+      double inner, IntMultiMap activeEdges, int slot){
+    int numLefts = activeEdges.sizeAt(slot);
+    if(verbose>=3) System.err.println("Left for [*, " + middle + "] " + edgeSpace.get(prevEdge).toString(parserTagIndex, parserWordIndex) + ":  " + numLefts + " lefts");
+    
+    for (int i = 0; i < numLefts; i++) {
+      int left = activeEdges.valueAt(slot, i); // middle : left X -> \alpha . Z \beta
+      assert(edgeSpace.numRemaining(prevEdge)>0);
+      if(!isWithinWidth(left, right, prevEdge)){
+        continue;
+      }
+      /* add/update newEdge right: left X -> \alpha Z . \beta */
+      double updateScore = operator.multiply(completionScore, inner);
+      double newForwardScore = operator.multiply(
+          getForwardScore(left, middle, prevEdge), updateScore);
+      double newInnerScore = operator.multiply(
+          getInnerScore(left, middle, prevEdge), updateScore);
+      fastCompleteEdge(left, middle, right, nextEdge, prevEdge, completionScore, inner, 
+          newForwardScore, newInnerScore);
+    } // end for left
+  }
+  
+  /**
+   * Whether fastCellComplete() should go through the edges waiting at a column, activeEdges, rather than
+   * the numCompletions completions of the completed tag, i.e., whether that side is smaller. Counts the choice.
+   */
+  protected final boolean isWaitingJoin(int numCompletions, IntMultiMap activeEdges){
+    if(activeEdges.numSlots() < numCompletions){
+      numWaitingJoins++;
+      return true;
+    } else {
+      numCompletionJoins++;
+      return false;
+    }
+  }
+  
+  /**
+   * Add newEdge right: left X -> \alpha Z . \beta completed from prevEdge middle: left X -> \alpha . Z \beta 
+   * and nextEdge right: middle Z -> v .
+   */
+  void fastCompleteEdge(int left, int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+      double inner, double newForwardScore, double newInnerScore){
+    int newEdge = edgeSpace.to(prevEdge);
 
-            addInnerScore(left, right, newEdge, newInnerScore);
-            addForwardScore(left, right, newEdge, newForwardScore);
-            if(this instanceof EarleyParserDense && !containsInsideEdge(left, right, newEdge)){
-              ((EarleyParserDense) this).updateChartCountEntries(left, right, newEdge);
-            }
-            
-            // complete info
-            Edge newEdgeObj = edgeSpace.get(newEdge);
-            if (newEdgeObj.numRemainingChildren()==0){ // completed: X -> \alpha Z .
-              assert(newEdge==goalEdge || left<middle); // alpha not empty
-              if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
-                addCompletedEdges(left, right, newEdge);
-              }
-            } else if (isFastComplete){
-              addActiveEdgeInfo(left, right, newEdge);
-            }
-            
-            // Viterbi: store backtrack info
-            if(EarleyParserOptions.decodeOpt==1){
-              addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
-            }
+    addEdgeScores(left, right, newEdge, newForwardScore, newInnerScore);
+    
+    // complete info
+    if (edgeSpace.numRemaining(newEdge)==0){ // completed: X -> \alpha Z .
+      assert(newEdge==goalEdge || left<middle); // alpha not empty
+      if(isTrackCompletedEdges){
+        addCompletedEdges(left, right, newEdge);
+      }
+    } else if (isFastComplete){
+      addActiveEdgeInfo(left, right, newEdge);
+    }
+    
+    // Viterbi: store backtrack info
+    if(options.decodeOpt==1){
+      addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
+    }
 
-            if(hasFragmentRule){ 
-              // newEdgeObj: [left, right] X -> \alpha . _y \beta
-              if(newEdgeObj.numRemainingChildren()>0 && !newEdgeObj.isTagAfterDot(0) 
-                  && right<numWords && newEdgeObj.getChildAfterDot(0)==wordIndices.get(right)){
-                addFragmentEdgeInfo(left, right, newEdge);
-              }
-            }
+    if(hasFragmentRule){ 
+      // newEdge: [left, right] X -> \alpha . _y \beta
+      if(isNextWord(right, newEdge)){
+        addFragmentEdgeInfo(left, right, newEdge);
+      }
+    }
 
-            if (verbose >= 3) {
-              System.err.println("  start " + edgeScoreInfo(left, middle, completion.activeEdge) 
-                  + " -> new " + edgeScoreInfo(left, right, newEdge, newForwardScore, newInnerScore));
+    if (verbose >= 3) {
+      System.err.println("  start " + edgeScoreInfo(left, middle, prevEdge) 
+          + " -> new " + edgeScoreInfo(left, right, newEdge, newForwardScore, newInnerScore));
 
-              if (isGoalEdge(newEdge)) {
-                System.err.println("# String prob +=" + Math.exp(newInnerScore));
-              }
-            }
-            
-            // also a careful addition to the prefix probabilities -- is this right?
-            if (middle == right - 1) {
-              addPrefixProb(newForwardScore, left, middle, right, inner, 
-                  completion.score, completion.activeEdge, -1, EarleyParserOptions.PCFG);  
-            }
-          } // end for left
-          
-          
-        } // end if completeInfo
-      } // end for completion
-    } // end if completions.length
+      if (isGoalEdge(newEdge)) {
+        System.err.println("# String prob +=" + Math.exp(newInnerScore));
+      }
+    }
+    
+    // also a careful addition to the prefix probabilities -- is this right?
+    if (middle == right - 1) {
+      addPrefixProb(newForwardScore, left, middle, right, inner, 
+          completionScore, prevEdge, -1, EarleyParserOptions.PCFG);  
+    }
+  }
+  
+  /**
+   * Add scores to edge [left, right] found by fast completion, the edge joins the chart if it isn't there yet
+   */
+  protected void addEdgeScores(int left, int right, int edge, double forwardScore, double innerScore){
+    addInnerScore(left, right, edge, innerScore);
+    addForwardScore(left, right, edge, forwardScore);
   }
   
   protected void handleMultiTerminalRules(int left, int middle, int right, Map<Integer, Double> valueMap){
@@ -1147,57 +1970,45 @@ public abstract class EarleyParser implements Parser {
     
   protected void complete(int left, int middle, int right, int nextEdge, double inner) {
     // next edge, right: middle Y -> v .
-    int tag = edgeSpace.get(nextEdge).getMother();
-    assert(edgeSpace.get(nextEdge).numRemainingChildren()==0);
+    int tag = edgeSpace.mother(nextEdge);
+    assert(edgeSpace.numRemaining(nextEdge)==0);
     
     // set of completions X -> \alpha . Z \beta
-    Completion[] completions = grammar.getCompletions(tag);
+    int start = grammar.completionStart(tag);
+    int end = grammar.completionEnd(tag);
     
-    if (verbose>=3 && completions.length>0){
-      System.err.println(completionInfo(middle, right, nextEdge, inner, completions));
+    if (verbose>=3 && start<end){
+      System.err.println(completionInfo(middle, right, nextEdge, inner, grammar.getCompletions(tag)));
     }
     
-    for (Completion completion : completions) { // go through all completions we could finish
-      if (containsInsideEdge(left, middle, completion.activeEdge)) { // middle: left X -> \alpha . Z \beta
-        double updateScore = operator.multiply(completion.score, inner);
+    int[] completionEdges = grammar.getCompletionEdges();
+    double[] completionScores = grammar.getCompletionScores();
+    for (int c = start; c < end; c++) { // go through all completions we could finish
+      int prevEdge = completionEdges[c]; // middle: left X -> \alpha . Z \beta
+      double completionScore = completionScores[c];
+      if (containsInsideEdge(left, middle, prevEdge) 
+          && isWithinWidth(left, right, prevEdge)) {
+        double updateScore = operator.multiply(completionScore, inner);
         double newForwardScore = operator.multiply(
-            getForwardScore(left, middle, completion.activeEdge), updateScore);
+            getForwardScore(left, middle, prevEdge), updateScore);
         double newInnerScore = operator.multiply(
-            getInnerScore(left, middle, completion.activeEdge), updateScore);
-        int newEdge = edgeSpace.to(completion.activeEdge);
+            getInnerScore(left, middle, prevEdge), updateScore);
+        int newEdge = edgeSpace.to(prevEdge);
         
         // add edge, right: left X -> _ Z . _, to tmp storage
         initCompleteTmpScores(newEdge);
         addCompleteTmpForwardScore(newEdge, newForwardScore);
         addCompleteTmpInnerScore(newEdge, newInnerScore);
     
-        // for fragment rules: look ahead to see if there's any terminal matches on the right
-        if(hasFragmentRule){ 
-          Edge newEdgeObj = edgeSpace.get(newEdge);
-          
-          // newEdgeObj: [left, right] X -> \alpha . _y \beta
-          if(newEdgeObj.numRemainingChildren()>0 && !newEdgeObj.isTagAfterDot(0) 
-              && right<numWords && newEdgeObj.getChildAfterDot(0)==wordIndices.get(right)){
-            addFragmentEdgeInfo(left, right, newEdge);
-          }
-        }
-        
-        // inside-outside info to help outside computation later or marginal decoding later
-        if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
-          Edge edgeObj = edgeSpace.get(newEdge);
-          
-          if(edgeObj.numRemainingChildren()==0){ // complete right: left X -> _ Y .
-            addCompletedEdges(left, right, newEdge);
-          }
-        }
+        addNewEdgeInfo(left, right, newEdge);
         
         // Viterbi: store backtrack info
-        if(EarleyParserOptions.decodeOpt==1){
+        if(options.decodeOpt==1){
           addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
         }
         
         if (verbose >= 2) {
-          System.err.println("# start " + edgeScoreInfo(left, middle, completion.activeEdge) 
+          System.err.println("# start " + edgeScoreInfo(left, middle, prevEdge) 
               + " -> new " + edgeScoreInfo(left, right, newEdge, newForwardScore, newInnerScore));
 
           if (isGoalEdge(newEdge)) {
@@ -1208,16 +2019,36 @@ public abstract class EarleyParser implements Parser {
         //also a careful addition to the prefix probabilities
         if (middle == right - 1) {
           addPrefixProb(newForwardScore, left, middle, right, inner,
-              completion.score, completion.activeEdge, -1, EarleyParserOptions.PCFG);
+              completionScore, prevEdge, -1, EarleyParserOptions.PCFG);
         }
       }
     }
   }
   
+  /**
+   * Fragment and completed edge info of a new edge [left, right] built by complete()
+   */
+  void addNewEdgeInfo(int left, int right, int newEdge){
+    // for fragment rules: look ahead to see if there's any terminal matches on the right
+    if(hasFragmentRule){ 
+      // newEdge: [left, right] X -> \alpha . _y \beta
+      if(isNextWord(right, newEdge)){
+        addFragmentEdgeInfo(left, right, newEdge);
+      }
+    }
+    
+    // inside-outside info to help outside computation later or marginal decoding later
+    if(isTrackCompletedEdges){
+      if(edgeSpace.numRemaining(newEdge)==0){ // complete right: left X -> _ Y .
+        addCompletedEdges(left, right, newEdge);
+      }
+    }
+  }
+  
   public void addBacktrack(int left, int middle, int right, int nextEdge, int newEdge, double newInnerProb){
     int lrIndex = linear(left, right);
     if(!backtrackChart.containsKey(lrIndex)){
-      backtrackChart.put(lrIndex, new HashMap<Integer, BackTrack>());
+      backtrackChart.put(lrIndex, state.newBacktrackCell());
     }
     Map<Integer, BackTrack> backtrackCell = backtrackChart.get(lrIndex);
     if(!backtrackCell.containsKey(newEdge)){ // no backtrack
@@ -1225,13 +2056,37 @@ public abstract class EarleyParser implements Parser {
       backtrackCell.put(newEdge, new BackTrack(nextEdge, middle, newInnerProb));
     } else {
       BackTrack backtrack = backtrackCell.get(newEdge);
-      if(backtrack.parentInnerScore < newInnerProb){ // update backtrack info
+      if(backtrack.parentInnerScore < newInnerProb 
+          || (backtrack.parentInnerScore == newInnerProb 
+              && isTieWinner(nextEdge, middle, backtrack.edge, backtrack.middle, right))){ // update backtrack info
         backtrackCell.put(newEdge, new BackTrack(nextEdge, middle, newInnerProb));
       }
     }
   }
   
-  private void addPrefixProb(double prefixScore, int left, int middle, int right,  
+  /**
+   * Whether an exact Viterbi tie goes to the child edge right: middle Y -> v . rather than to 
+   * right: otherMiddle Y' -> v' . The winner is the child that cellComplete() used to reach first, whatever order 
+   * completions are made in now: the larger middle, then the first edge of [middle, right] in the order 
+   * of a HashSet listing of the cell, i.e., by hash bucket, then by index.
+   */
+  boolean isTieWinner(int edge, int middle, int otherEdge, int otherMiddle, int right){
+    if(middle != otherMiddle){
+      return middle > otherMiddle;
+    }
+    
+    // capacity of a default HashSet holding the edges of [middle, right]
+    int numEdges = insideChartCount(middle, right);
+    int capacity = 16;
+    while(numEdges > capacity*3/4){
+      capacity <<= 1;
+    }
+    int bucket = (edge ^ (edge >>> 16)) & (capacity-1);
+    int otherBucket = (otherEdge ^ (otherEdge >>> 16)) & (capacity-1);
+    return bucket < otherBucket || (bucket == otherBucket && edge < otherEdge);
+  }
+  
+  void addPrefixProb(double prefixScore, int left, int middle, int right,  
       double inner, double completionScore, int prevEdge, int ruleId, int code){
     if(verbose>=2){
       String type = (code==EarleyParserOptions.PCFG) ? "PCFG" : ((code==EarleyParserOptions.AG) ? "AG" : "FG");
@@ -1262,7 +2117,7 @@ public abstract class EarleyParser implements Parser {
     // entropy
 //    if(internalMeasures.contains(Measures.ENTROPY)){ // expected value of log prob
 //      double scaleFactor = 1.0;
-//      if(EarleyParserOptions.isScaling){
+//      if(options.isScaling){
 //        scaleFactor = operator.getProb(getScaling(0, right));
 //      }
 //      wordEntropy[right] += -(prefixProb/scaleFactor)*SloppyMath.log(prefixProb/scaleFactor, 2);
@@ -1361,32 +2216,35 @@ public abstract class EarleyParser implements Parser {
 //  }
   
   protected void addPrefixMultiRule(int left, int middle, int right, int edge, int ruleId, double inner) {    
-    int tag = edgeSpace.get(edge).getMother();
-    assert(edgeSpace.get(edge).numRemainingChildren()==0);
+    int tag = edgeSpace.mother(edge);
+    assert(edgeSpace.numRemaining(edge)==0);
     
-    Completion[] completions = grammar.getCompletions(tag);
+    int start = grammar.completionStart(tag);
+    int end = grammar.completionEnd(tag);
     
-    if (verbose>=2 && completions.length>0){
-      System.err.println(completionInfo(middle, right, edge, inner, completions));
+    if (verbose>=2 && start<end){
+      System.err.println(completionInfo(middle, right, edge, inner, grammar.getCompletions(tag)));
     }
    
-    if (EarleyParserOptions.isScaling){
+    if (options.isScaling){
       inner = operator.multiply(inner, getScaling(middle, right));
     }
     
     // the current AG rule: Y -> w_middle ... w_(right-1) .
 //    int count = 0;
 //    double totalPrefixProb = 0.0;
-    for (int x = 0, n = completions.length; x < n; x++) {
-      Completion completion = completions[x];
+    int[] completionEdges = grammar.getCompletionEdges();
+    double[] completionScores = grammar.getCompletionScores();
+    for (int c = start; c < end; c++) {
+      int prevEdge = completionEdges[c];
      
-      if (containsInsideEdge(left, middle, completion.activeEdge)){
+      if (containsInsideEdge(left, middle, prevEdge) && isWithinWidth(left, right, prevEdge)){
         // we are using trie, and there's an extended rule that could be used to update prefix prob
-        double prefixScore = operator.multiply(getForwardScore(left, middle, completion.activeEdge), 
-                               operator.multiply(completion.score, inner));
+        double prefixScore = operator.multiply(getForwardScore(left, middle, prevEdge), 
+                               operator.multiply(completionScores[c], inner));
         
         addPrefixProb(prefixScore, left, middle, right, inner, 
-            completion.score, completion.activeEdge, ruleId, EarleyParserOptions.AG);
+            completionScores[c], prevEdge, ruleId, EarleyParserOptions.AG);
 //        count++;
 //        totalPrefixProb += operator.getProb(prefixScore);
       }
@@ -1426,12 +2284,8 @@ public abstract class EarleyParser implements Parser {
       System.err.println("# Completed edges:");
       for (int left = 0; left <= numWords; left++) {
         for (int right = left; right <= numWords; right++) {
-          int lrIndex = linear(left, right);
-          
-          if(completedEdges.containsKey(linear(left, right))){
-            for(int edge : completedEdges.get(lrIndex)){
-              System.err.println(edgeInfo(left, right, edge));
-            }
+          for (int i = 0; i < completedEdges[right].size(left); i++) {
+            System.err.println(edgeInfo(left, right, completedEdges[right].valueAt(completedEdges[right].slot(left), i)));
           }
         }
       }
@@ -1485,10 +2339,9 @@ public abstract class EarleyParser implements Parser {
         Integer[] copyEdges = edges.toArray(new Integer[0]);
         List<Integer> removeEdges = new ArrayList<Integer>();
         for(int edge : copyEdges){ // use copyEdges cause outside(left, middle, right, ...) will update edges
-          Edge edgeObj = edgeSpace.get(edge);
-          //System.err.println(edge + "\t" + goalEdge + "\t" + edgeObj.toString(parserTagIndex, parserWordIndex));
-          assert((edge == goalEdge || edgeObj.numChildren()>1) && edgeObj.getDot()>0);
-          if(edgeObj.getDot() > 1){
+          //System.err.println(edge + "\t" + goalEdge + "\t" + edgeSpace.get(edge).toString(parserTagIndex, parserWordIndex));
+          assert((edge == goalEdge || edgeSpace.get(edge).numChildren()>1) && edgeSpace.dot(edge)>0);
+          if(edgeSpace.dot(edge) > 1){
             continue;
           }
           
@@ -1496,13 +2349,12 @@ public abstract class EarleyParser implements Parser {
           
           double parentOutside = getOuterScore(left, right, edge);
           
-          int prevTag = edgeObj.getChild(edgeObj.getDot()-1); // Z
-          Edge prevEdgeObj = edgeObj.getPrevEdge(); // X -> . Z \alpha
-          assert(prevEdgeObj.getDot()==0);
-          int prevEdge = edgeSpace.indexOf(prevEdgeObj);
+          int prevEdge = edgeSpace.prev(edge); // X -> . Z \alpha
+          assert(prevEdge>=0 && edgeSpace.dot(prevEdge)==0);
+          int prevTag = edgeSpace.nextChild(prevEdge); // Z
           
           // [left, left, right]
-          outside(left, left, right, edge, prevTag, prevEdge, prevEdgeObj, 
+          outside(left, left, right, edge, prevTag, prevEdge, 
               parentOutside, rootInsideScore, configurations);
           
           removeEdges.add(edge);
@@ -1515,23 +2367,21 @@ public abstract class EarleyParser implements Parser {
         
         for(int edge : copyEdges){
           double parentOutside = getOuterScore(left, right, edge);
-          Edge edgeObj = edgeSpace.get(edge);
           
-          if(edgeObj.getDot()>0){// X -> \beta Z . \alpha // && !edgeObj.isTerminalEdge()){ 
-            assert(edge == goalEdge || edgeObj.numChildren()>1);
+          if(edgeSpace.dot(edge)>0){// X -> \beta Z . \alpha // && !edgeSpace.isTerminal(edge)){ 
+            assert(edge == goalEdge || edgeSpace.get(edge).numChildren()>1);
             
             if(verbose>=3) System.err.println("## " + outsideInfo(left, right, edge));
             
-            int prevTag = edgeObj.getChild(edgeObj.getDot()-1); // Z
-            Edge prevEdgeObj = edgeObj.getPrevEdge(); // X -> \beta . Z \alpha
-            int prevEdge = edgeSpace.indexOf(prevEdgeObj);
-            if(verbose>=3) System.err.println("  prev edge " + prevEdgeObj.toString(parserTagIndex, parserWordIndex));
+            int prevEdge = edgeSpace.prev(edge); // X -> \beta . Z \alpha
+            int prevTag = edgeSpace.nextChild(prevEdge); // Z
+            if(verbose>=3) System.err.println("  prev edge " + edgeSpace.get(prevEdge).toString(parserTagIndex, parserWordIndex));
             
             // recursively split into strictly smaller chunks
             for(int middle=right-1; middle>left; middle--){ // middle
               if(containsInsideEdge(left, middle, prevEdge) && parentOutside>operator.zero()
-                  && completedEdges.containsKey(linear(middle, right))){
-                outside(left, middle, right, edge, prevTag, prevEdge, prevEdgeObj, parentOutside, rootInsideScore, configurations);
+                  && completedEdges[right].slot(middle)>=0){
+                outside(left, middle, right, edge, prevTag, prevEdge, parentOutside, rootInsideScore, configurations);
               }
             } // end for middle
           }
@@ -1543,22 +2393,24 @@ public abstract class EarleyParser implements Parser {
   }
   
   protected void outside(int left, int middle, int right, 
-      int edge, int prevTag, int prevEdge, Edge prevEdgeObj,
+      int edge, int prevTag, int prevEdge,
       double parentOutside, double rootInsideScore, Map<Integer, Set<Integer>> configurations){
-    assert(middle!=left || prevEdgeObj.getDot()==0); // if middle==left, prev edge should be X -> . Z \alpha
+    assert(middle!=left || edgeSpace.dot(prevEdge)==0); // if middle==left, prev edge should be X -> . Z \alpha
     
     double leftInside = getInnerScore(left, middle, prevEdge);
     if(verbose>=3) System.err.println("  left inside [" + left + ", " + middle + "] "  + operator.getProb(leftInside));
     
     int mrIndex = linear(middle, right);
+    IntMultiMap cellEdges = completedEdges[right];
+    int slot = cellEdges.slot(middle);
     
     // for fragment rules, cell [middle][right] might be empty
-    if(!completedEdges.containsKey(mrIndex)){ // X -> \alpha _y . \beta due to fragment rules 
+    if(slot<0){ // X -> \alpha _y . \beta due to fragment rules 
 //    	Util.error(middle != (right-1) || !hasFragmentRule, "! outside: empty completed edges for [middle, right] = [" + middle + ", " + right + "]");
       
       // outside to the left: X -> \alpha . _y \beta
       double rightInside = operator.one();
-      if(EarleyParserOptions.isScaling){
+      if(options.isScaling){
         rightInside = getScaling(middle, right);
       }
       double unaryClosureScore = operator.one();
@@ -1567,15 +2419,15 @@ public abstract class EarleyParser implements Parser {
         outsideUpdate(left, middle, prevEdge, leftOutsideScore, rootInsideScore, verbose);
       }
     } else {
-      for(int nextEdge : completedEdges.get(mrIndex)){ // Y -> v .
-        Edge nextEdgeObj = edgeSpace.get(nextEdge);
-        int nextTag = nextEdgeObj.getMother(); // Y
+      for (int i = 0; i < cellEdges.sizeAt(slot); i++) {
+        int nextEdge = cellEdges.valueAt(slot, i); // Y -> v .
+        int nextTag = edgeSpace.mother(nextEdge); // Y
         double unaryClosureScore = grammar.getUnaryClosures().get(prevTag, nextTag);
         
         if(unaryClosureScore > operator.zero()) { // positive R(Z -> Y)
           double rightInside = getInnerScore(middle, right, nextEdge);
           
-          if(verbose>=3) System.err.println("    next edge [" + middle + ", " + right + "] " + nextEdgeObj.toString(parserTagIndex, parserWordIndex) + ", right inside " + operator.getProb(rightInside) + ", unary(" + parserTagIndex.get(prevTag) + "->" + parserTagIndex.get(nextTag) + ")=" + operator.getProb(unaryClosureScore));
+          if(verbose>=3) System.err.println("    next edge [" + middle + ", " + right + "] " + edgeSpace.get(nextEdge).toString(parserTagIndex, parserWordIndex) + ", right inside " + operator.getProb(rightInside) + ", unary(" + parserTagIndex.get(prevTag) + "->" + parserTagIndex.get(nextTag) + ")=" + operator.getProb(unaryClosureScore));
           
           // left outside = parent outside * right inside
           // Note: we multiply unaryClosure score here even though Stolcke's paper suggests that we should not
@@ -1596,12 +2448,12 @@ public abstract class EarleyParser implements Parser {
           
           // recursive call
           if(middle>left){ // add middle: left X -> \beta . Z \alpha only if left < middle
-            assert(!prevEdgeObj.isTerminalEdge());
+            assert(!edgeSpace.isTerminal(prevEdge));
             configurations.get(linear(left, middle)).add(prevEdge);
           }
           
           assert(middle != left || nextEdge != edge);
-          if(!nextEdgeObj.isTerminalEdge()){ // add right: middle Y -> v . if Y -> v. is not a terminal edge
+          if(!edgeSpace.isTerminal(nextEdge)){ // add right: middle Y -> v . if Y -> v. is not a terminal edge
             configurations.get(mrIndex).add(nextEdge);
           }
           
@@ -1619,24 +2471,27 @@ public abstract class EarleyParser implements Parser {
     if(verbose>=3) System.err.println("      after adding " + operator.getProb(outsideScore) +  ", " + outsideInfo(left, right, edge));
     
     // add expected counts
-    Edge edgeObj = edgeSpace.get(edge);
-    if(left==right || edgeObj.isTerminalEdge()){ // predicted edges: X -> . \alpha or tag -> terminals .
+    if(left==right || edgeSpace.isTerminal(edge)){ // predicted edges: X -> . \alpha or tag -> terminals .
       double insideScore = getInnerScore(left, right, edge);
       if(insideScore > operator.zero()){
         double expectedCount = operator.divide(operator.multiply(outsideScore, insideScore), rootInsideScore);
         assert(expectedCount>operator.zero());
         
-        if(edgeObj.numChildren()==0){ // tag -> []
-          edgeObj = new Edge(new TerminalRule(edgeObj.getMother(), wordIndices.subList(left, right)), right-left);
+        int ruleId = edgeSpace.ruleId(edge);
+        if(edgeSpace.dot(edge)+edgeSpace.numRemaining(edge)==0){ // tag -> []
+          Edge edgeObj = new Edge(new TerminalRule(edgeSpace.mother(edge), wordIndices.subList(left, right)), right-left);
+          ruleId = ruleSet.indexOf(edgeObj.getRule());
+        } else if(ruleId<0){ // edge added before the rule set was indexed
+          ruleId = ruleSet.indexOf(edgeSpace.get(edge).getRule());
         }
-        addScore(expectedCounts, ruleSet.indexOf(edgeObj.getRule()), expectedCount);
+        addScore(expectedCounts, ruleId, expectedCount);
 
         if(verbose>=3){
           System.err.format("count %s += %e = %e * %e / %e => %e\n", 
-              edgeObj.getRule().markString(parserTagIndex, parserWordIndex), 
+              ruleSet.get(ruleId).getRule().markString(parserTagIndex, parserWordIndex), 
               operator.getProb(expectedCount), operator.getProb(outsideScore), 
               operator.getProb(insideScore), operator.getProb(rootInsideScore),
-              expectedCounts.get(ruleSet.indexOf(edgeObj.getRule())));
+              expectedCounts.get(ruleId));
         }
       }
     }
@@ -1677,26 +2532,22 @@ public abstract class EarleyParser implements Parser {
   /*****************************/
   /********** SCALING **********/
   /*****************************/
+  /**
+   * Product of the scaling factors of words left ... right-1, in O(1) from the cumulative logScalings.
+   * Stays in log space until the end, so normal-prob scaling doesn't overflow along the way.
+   */
   public double getScaling(int left, int right){
     if(left==right){
       return operator.one();
     }
     
     assert(right>left);
-    int lrIndex = linear(left, right);
-    if(!scalingMap.containsKey(lrIndex)){
-      double scale = operator.one();
-      for (int i = left; i < right; i++) {
-        scale = operator.multiply(scale, scalingMap.get(linear(i, i+1)));
-      }
-      scalingMap.put(lrIndex, scale);
-    }
-    return scalingMap.get(lrIndex);
+    return operator.getScoreFromLogProb(logScalings[right] - logScalings[left]);
   }
   
   public double getScaling(int left, int right, String type){
     if (type.equalsIgnoreCase("outside")){ // outside prob has a scaling factor for [0,left][right, numWords]
-      return operator.multiply(getScaling(0, left), getScaling(right, numWords));
+      return operator.getScoreFromLogProb(logScalings[left] + logScalings[numWords] - logScalings[right]);
     } else {
       return getScaling(left, right);
     }
@@ -1719,7 +2570,41 @@ public abstract class EarleyParser implements Parser {
   
   // linear index of cell[left][right]
   public int linear(int left, int right){
-    return (right+1)*right/2 + right-left;
+    return (int) longLinear(left, right);
+  }
+  
+  // same as linear(), for charts with more than Integer.MAX_VALUE cells
+  public static long longLinear(int left, int right){
+    return ((long) right+1)*right/2 + right-left;
+  }
+  
+  /**
+   * Whether the chart is addressed by long linear indices, see longLinear()
+   */
+  protected boolean isLongIndexed(){
+    return false;
+  }
+  
+  /**
+   * Whether the chart takes edges added to the edge space after the parser was created, 
+   * e.g., terminal edges of scanned words for inside-outside
+   */
+  protected boolean isEdgeSpaceGrowable(){
+    return false;
+  }
+  
+  /**
+   * Make sure linear indices of a sentence of numWords words can be used
+   */
+  private void checkNumWords(int numWords){
+    long numCells = longLinear(0, numWords+1);
+    
+    // int linear indices are still used for backtracks
+    boolean isIntIndexed = !isLongIndexed() || options.decodeOpt>0;
+    if(numCells>Integer.MAX_VALUE && isIntIndexed){
+      System.err.println("! Num words = " + numWords + " is too large, causing linear indices to exceed max integer value " + Integer.MAX_VALUE);
+      System.exit(1);
+    }
   }
   
   /**
@@ -1729,32 +2614,28 @@ public abstract class EarleyParser implements Parser {
   	if(verbose>=2) System.err.println("# EarleyParser initializing ... ");
     
     // words
-    if(words == null || words.size()==0){
+    if(words == null || (words.size()==0 && !isIncremental)){
       System.err.println("! Empty sentence");
       System.exit(1);
     }
     
     numWords = words.size();
-    wordIndices = new ArrayList<Integer>();
+    capacity = numWords;
+    state.reset(numWords, operator.zero(), operator.one()); // reuse containers from the previous sentence
+    numCompletionJoins = 0;
+    numWaitingJoins = 0;
+    wordIndices = state.wordIndices;
     for (HasWord word : words) {
       wordIndices.add(parserWordIndex.indexOf(word.word(), true));
     }
     
     // map matrix indices [left][right] into linear indices
-    long numCells = (numWords+4)*(numWords+1)/2;
-    if(numCells>Integer.MAX_VALUE){
-      System.err.println("! Num words = " + numWords + " is too large, causing linear indices to exceed max integer value " + Integer.MAX_VALUE);
-      System.exit(1);
-    }
-    assert(linear(0, numWords+1)==((numWords+4)*(numWords+1)/2));
+    checkNumWords(numWords);
+    assert(longLinear(0, numWords+1)==((long) numWords+4)*(numWords+1)/2);
     
     measures = new Measures(outputMeasures, numWords); // store various objective values for each word in a sentence
     measures.addMeasures(internalMeasures, numWords);
     
-    if (EarleyParserOptions.isScaling){
-      scalingMap = new HashMap<Integer, Double>();
-    }
-    
     // init prefix prob
     //measures.setPrefix(0, operator.one());
 //    wordPrefixScores = new double[numWords+1];
@@ -1775,10 +2656,11 @@ public abstract class EarleyParser implements Parser {
 //    wordPcfgFutureLength = new double[numWords+1];
 //    wordAllFutureLength = new double[numWords+1];
     
-    wordPrefixScores = new double[numWords+1];
+    wordPrefixScores = state.wordPrefixScores; // reset to zero, except wordPrefixScores[0] = one
+    logScalings = state.logScalings;
 //    wordPcfgPrefixScores = new double[numWords+1];
 //    wordMultiPrefixScores = new double[numWords+1];
-    for (int i = 0; i <= numWords; i++) {
+//    for (int i = 0; i <= numWords; i++) {
 //      wordEntropy[i] = 0;
 //      wordMultiRuleCount[i] = 0;
 //      wordMultiRhsLengthCount[i] = 0;
@@ -1790,26 +2672,20 @@ public abstract class EarleyParser implements Parser {
 //      wordPcfgFutureLength[i] = 0;
 //      wordAllFutureLength[i] = 0;
       
-      wordPrefixScores[i] = operator.zero();
 //      wordPcfgPrefixScores[i] = operator.zero();
 //      wordMultiPrefixScores[i] = operator.zero();
-    }
-    wordPrefixScores[0] = operator.one();
+//    }
     
     // completion info
-    if(EarleyParserOptions.insideOutsideOpt>0 || EarleyParserOptions.decodeOpt==2){
-      completedEdges = new HashMap<Integer, Set<Integer>>();
+    if(isTrackCompletedEdges){
+      completedEdges = state.completedEdges;
     }
     if(isFastComplete){
-      activeEdgeInfo = new HashMap<Integer, Map<Integer, Set<Integer>>>();
-      for(int i=0; i<=numWords; i++)
-        activeEdgeInfo.put(i, new HashMap<Integer, Set<Integer>>());
+      activeEdgeInfo = state.activeEdgeInfo; // has an empty multimap for each position 0..numWords
     }
     
     if(hasFragmentRule){
-      fragmentEdgeInfo = new HashMap<Integer, Map<Integer, Set<Integer>>>();
-      for(int i=0; i<=numWords; i++)
-        fragmentEdgeInfo.put(i, new HashMap<Integer, Set<Integer>>());
+      fragmentEdgeInfo = state.fragmentEdgeInfo; // has an empty map for each position 0..numWords
     }
     // result lists
 //    surprisalList = new ArrayList<Double>();
@@ -1819,8 +2695,8 @@ public abstract class EarleyParser implements Parser {
     
     
     // Decode
-    if(EarleyParserOptions.decodeOpt==1){ // Viterbi parse  
-      backtrackChart = new HashMap<Integer, Map<Integer,BackTrack>>();
+    if(options.decodeOpt==1){ // Viterbi parse  
+      backtrackChart = state.backtrackChart;
     }
   }
   
@@ -1854,7 +2730,7 @@ public abstract class EarleyParser implements Parser {
 //    }
 //    
 //    double scaleFactor = 1; // for prefix probs, we will scale in outputWordMeasures. entropy has been scaled in addPrefixProb
-//    if(EarleyParserOptions.isScaling){
+//    if(options.isScaling){
 //      scaleFactor = operator.getProb(getScaling(0, right));
 //    }
 //    
@@ -1927,8 +2803,8 @@ public abstract class EarleyParser implements Parser {
   public double stringLogProbability(int right) {
     double logProb = operator.getLogProb(getInnerScore(0, right, goalEdge));
   
-    if(EarleyParserOptions.isScaling){
-      logProb -= operator.getLogProb(getScaling(0, right));
+    if(options.isScaling){
+      logProb -= logScalings[right];
     }
     
     return logProb;
@@ -1939,8 +2815,7 @@ public abstract class EarleyParser implements Parser {
   }
   
   protected boolean isGoalEdge(int edge){
-    Edge edgeObj = edgeSpace.get(edge);
-    return edgeObj.numRemainingChildren()==0 && edgeObj.getMother() == EarleyParserOptions.origSymbolIndex;
+    return edgeSpace.numRemaining(edge)==0 && edgeSpace.mother(edge) == options.origSymbolIndex;
   }
   
   public void updateGrammar(){
@@ -2016,7 +2891,7 @@ public abstract class EarleyParser implements Parser {
         int right = left+length;
 
         // scaling
-        double scalingFactor = EarleyParserOptions.isScaling ? getScaling(left, right, type) : operator.one();
+        double scalingFactor = options.isScaling ? getScaling(left, right, type) : operator.one();
         
         int count = type.equalsIgnoreCase("inside") ? 
             insideChartCount(left, right) : outsideChartCount(left, right);
@@ -2066,7 +2941,7 @@ public abstract class EarleyParser implements Parser {
         chart.put(lrIndex, new HashMap<Integer, Double>());
         
         // scaling
-        double scalingFactor = EarleyParserOptions.isScaling ? getScaling(left, right, type) : operator.one();
+        double scalingFactor = options.isScaling ? getScaling(left, right, type) : operator.one();
         Map<Integer, Double> tagMap = chart.get(lrIndex);
         
         // accumulate score for categories
@@ -2075,9 +2950,8 @@ public abstract class EarleyParser implements Parser {
               listOutsideEdges(left, right);
         
         for (int edge : edges) { // edge
-          Edge edgeObj = edgeSpace.get(edge);
-          if(edgeObj.numRemainingChildren()==0){ // completed edge
-            int tag = edgeObj.getMother();
+          if(edgeSpace.numRemaining(edge)==0){ // completed edge
+            int tag = edgeSpace.mother(edge);
             
             double score = operator.zero();
             if(type.equalsIgnoreCase("outside")){
@@ -2170,7 +3044,7 @@ public abstract class EarleyParser implements Parser {
             double forwardProb = getForwardScore(left, right, edge);
             double innerProb = getInnerScore(left, right, edge);
             
-            if(EarleyParserOptions.isScaling){
+            if(options.isScaling){
               forwardProb = operator.divide(forwardProb, getScaling(left, right));
               innerProb = operator.divide(innerProb, getScaling(left, right));
             }
@@ -2190,10 +3064,13 @@ public abstract class EarleyParser implements Parser {
       for (int left = 0; left <= numWords-length; left++) {
         int right = left+length;
 
-        if(completedEdges.containsKey(linear(left, right))){ // there're active states
-          System.err.println("[" + left + "," + right + "]: " + 
-              Util.sprint(completedEdges.get(linear(left, right)), edgeSpace
-              , parserTagIndex, parserWordIndex));
+        int slot = completedEdges[right].slot(left);
+        if(slot>=0){ // there're active states
+          StringBuffer sb = new StringBuffer();
+          for (int i = 0; i < completedEdges[right].sizeAt(slot); i++) {
+            sb.append((i>0 ? ", " : "") + edgeSpace.get(completedEdges[right].valueAt(slot, i)).toString(parserTagIndex, parserWordIndex));
+          }
+          System.err.println("[" + left + "," + right + "]: [" + sb + "]");
         }
       }
     }
@@ -2220,9 +3097,9 @@ public abstract class EarleyParser implements Parser {
   public List<? extends HasWord> getWords() {
     return words;
   }
-//  public int getInsideOutsideOpt() {
-//    return insideOutsideOpt;
-//  }
+  public int getInsideOutsideOpt() {
+    return options.insideOutsideOpt;
+  }
   public Operator getOperator() {
     return operator;
   }
@@ -2253,7 +3130,7 @@ public abstract class EarleyParser implements Parser {
   
   public List<ProbRule> getAllRules(){
     List<ProbRule> allRules = ruleSet.getAllRules();
-    if(allRules.get(0).equals(EarleyParserOptions.rootRule)==true){ // remove root rule
+    if(allRules.get(0).equals(options.rootRule)==true){ // remove root rule
       return allRules.subList(1, allRules.size());
     } else {
       return allRules;
@@ -2265,7 +3142,11 @@ public abstract class EarleyParser implements Parser {
   }
   
   public int getDecodeOpt() {
-    return EarleyParserOptions.decodeOpt;
+    return options.decodeOpt;
+  }
+  
+  public EarleyParserOptions getOptions() {
+    return options;
   }
   
   public boolean isHasFragmentRule() {
@@ -2280,6 +3161,25 @@ public abstract class EarleyParser implements Parser {
 		return measures;
 	}
   
+  /**
+   * Prune sentences parsed from now on with a coarse pass, null to stop
+   */
+  void setCoarseToFine(CoarseToFine coarseToFine) {
+    this.coarseToFine = coarseToFine;
+  }
+  
+  public long getNumCompletionJoins() {
+    return numCompletionJoins;
+  }
+  
+  public long getNumWaitingJoins() {
+    return numWaitingJoins;
+  }
+  
+  public CoarseToFine getCoarseToFine() {
+    return coarseToFine;
+  }
+  
   public void setSentId(String sentId) {
 		this.sentId = sentId;
 	}
@@ -2316,7 +3216,7 @@ public abstract class EarleyParser implements Parser {
 //    
 //    // scaling
 //    double scalingFactor = operator.one();
-//    if (EarleyParserOptions.isScaling){
+//    if (options.isScaling){
 //      if (isOutsideProb){ // outside prob has a scaling factor for [0,left][right, numWords]
 //        scalingFactor = operator.multiply(scalingMatrix[linear[0][left]], scalingMatrix[linear[right][numWords]]);
 //      } else {
@@ -2432,7 +3332,7 @@ public abstract class EarleyParser implements Parser {
 //  double newForwardProb = getForwardScore(left, middle, prevEdge);
 //  double newInnerProb = getInnerScore(left, middle, prevEdge);
 //  
-//  if (EarleyParserOptions.isScaling){
+//  if (options.isScaling){
 //    if(verbose>=2){
 //      System.err.println("fragment complete scaling " + operator.multiply(newForwardProb, getScaling(middle, right)) 
 //          + " = " + newForwardProb 
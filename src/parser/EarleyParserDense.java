@@ -1,41 +1,62 @@
 package parser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import base.BaseLexicon;
 import base.RuleSet;
+import util.Bits;
 import util.DoubleList;
+import util.IntList;
+import util.IntMultiMap;
+import util.LogProbOperator;
 import util.Operator;
-import util.Util;
+import util.ProbOperator;
+import util.ScoreAccumulator;
+import edu.stanford.nlp.math.SloppyMath;
 import edu.stanford.nlp.util.Index;
-import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.Timing;
 
 public class EarleyParserDense extends EarleyParser{
-  protected boolean[][] chartEntries;
+  // cells are allocated on first write from per-column arenas, which are reused across sentences.
+  // empty cells share the read-only rows emptyEntries and emptyScores.
+  protected long[][] chartEntries; // chartEntries[linear(left, right)]: bitset of edges spanning [left, right]
   protected double[][] forwardProb;
   protected double[][] innerProb;
   protected int[] chartCount; // how many edges at the cell [left, right]
   
   // outside
-  protected boolean[][] outsideChartEntries;
+  protected long[][] outsideChartEntries;
   protected int[] outsideChartCount;
   protected double[][] outerProb;
 
+  private final long[] emptyEntries;
+  private final double[] emptyScores;
+  private ColumnArena[] insideArenas; // insideArenas[right]: rows for cells [*, right], forward & inner scores
+  private ColumnArena[] outsideArenas; // outsideArenas[right]: rows for cells [*, right], outer scores
+  private List<ColumnArena> freeInsideArenas = new ArrayList<ColumnArena>(); // arenas of evicted columns
+  
 //  protected List<Set<Integer>> chartEdges;
   
   public EarleyParserDense(Grammar grammar, EdgeSpace edgeSpace,
 			BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
 			Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
 			Operator operator, Set<String> outputMeasures,
-			Set<String> internalMeasures, boolean isSeparateRuleInTrie) {
+			Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
 		
   	super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
 				parserNonterminalMap, operator, outputMeasures, internalMeasures,
-				isSeparateRuleInTrie);
-		isFastComplete = false;
+				isSeparateRuleInTrie, options, true); // isFastComplete
+		
+		emptyEntries = new long[Bits.numWords(edgeSpaceSize)];
+		emptyScores = new double[edgeSpaceSize];
+		Arrays.fill(emptyScores, operator.zero());
+		insideArenas = new ColumnArena[0];
+		outsideArenas = new ColumnArena[0];
     
     if(verbose>0){
       System.err.println("# EarleyParserDense");
@@ -43,8 +64,13 @@ public class EarleyParserDense extends EarleyParser{
 	}
 
   // to save memory, by not initializing half of the chart
-  private int[][] linearIndex;
+  // linearIndex and the chart arrays grow to the largest sentence seen and are reused across sentences
+  protected int[][] linearIndex = new int[0][];
   private int numCells;
+  private IntList insideCells = new IntList(); // linear indices of the inside cells written for the current sentence
+  private IntList outsideCells = new IntList(); // same for outside cells
+  private int numColumns; // number of columns whose arenas are ready for the current sentence
+  
   protected void sentInit(){
     super.sentInit();
     
@@ -53,48 +79,176 @@ public class EarleyParserDense extends EarleyParser{
      Timing.startTime();
     }
   
+    // only clear cells of the previous sentence
+    for (int i = 0; i < insideCells.size(); i++) {
+      int lrIndex = insideCells.get(i);
+      chartEntries[lrIndex] = emptyEntries;
+      forwardProb[lrIndex] = emptyScores;
+      innerProb[lrIndex] = emptyScores;
+      chartCount[lrIndex] = 0;
+    }
+    insideCells.clear();
+    numColumns = 0;
+    growChart(numWords);
+  }
+  
+  @Override
+  protected void growChart(int numWords){
     numCells = linear(0, numWords+1);
-    linearIndex = new int[numWords+1][numWords+1];
-    for (int left = 0; left <= numWords; left++) {
-			for (int right = left; right <= numWords; right++) {
-				linearIndex[left][right] = linear(left, right);
-			}
-		}
+    if(linearIndex.length < numWords+1){
+      linearIndex = new int[numWords+1][numWords+1];
+      for (int left = 0; left <= numWords; left++) {
+        for (int right = left; right <= numWords; right++) {
+          linearIndex[left][right] = linear(left, right);
+        }
+      }
+    }
     
 //    chartEdges = new ArrayList<Set<Integer>>();
 //    for (int i = 0; i < numCells; i++) {
 //    	chartEdges.add(new HashSet<Integer>());
 //		}
     
-    chartEntries = new boolean[numCells][edgeSpaceSize]; // [numWords+1][numWords+1]
-    forwardProb = new double[numCells][edgeSpaceSize];
-    innerProb = new double[numCells][edgeSpaceSize];
-    chartCount = new int[numCells];
-    Util.init(forwardProb, operator.zero());
-    Util.init(innerProb, operator.zero());
+    if(chartEntries == null){
+      chartEntries = new long[0][];
+      forwardProb = new double[0][];
+      innerProb = new double[0][];
+      chartCount = new int[0];
+    }
+    if(chartEntries.length < numCells){ // cells beyond the old length are all empty
+      int oldNumCells = chartEntries.length;
+      chartEntries = Arrays.copyOf(chartEntries, numCells); // [numWords+1][numWords+1]
+      forwardProb = Arrays.copyOf(forwardProb, numCells);
+      innerProb = Arrays.copyOf(innerProb, numCells);
+      chartCount = Arrays.copyOf(chartCount, numCells);
+      Arrays.fill(chartEntries, oldNumCells, numCells, emptyEntries);
+      Arrays.fill(forwardProb, oldNumCells, numCells, emptyScores);
+      Arrays.fill(innerProb, oldNumCells, numCells, emptyScores);
+    }
+    
+    // arenas of the new columns, missing ones are created by insideArena()
+    if(insideArenas.length < numWords+1){
+      insideArenas = Arrays.copyOf(insideArenas, numWords+1);
+    }
+    for (int right = numColumns; right <= numWords; right++) {
+      if(insideArenas[right] != null){
+        insideArenas[right].reset();
+      }
+    }
+    numColumns = Math.max(numColumns, numWords+1);
+  }
+  
+  /**
+   * Arena of column right, taken from the evicted ones if possible
+   */
+  private ColumnArena insideArena(int right){
+    if(insideArenas[right] == null){
+      if(freeInsideArenas.isEmpty()){
+        insideArenas[right] = new ColumnArena(edgeSpaceSize, 2, operator.zero());
+      } else {
+        insideArenas[right] = freeInsideArenas.remove(freeInsideArenas.size()-1);
+        insideArenas[right].reset();
+      }
+    }
+    return insideArenas[right];
+  }
+  
+  @Override
+  protected void compactColumn(int right){
+    boolean isEmpty = true;
+    for (int left = nextLeft(right, -1); left >= 0; left = nextLeft(right, left)) {
+      int lrIndex = linearIndex[left][right];
+      if(chartEntries[lrIndex] != emptyEntries){
+        if(chartCount[lrIndex]==0){
+          chartEntries[lrIndex] = emptyEntries;
+          forwardProb[lrIndex] = emptyScores;
+          innerProb[lrIndex] = emptyScores;
+        } else {
+          isEmpty = false;
+        }
+      }
+    }
+    
+    // no cell uses the rows of this column anymore
+    if(isEmpty && insideArenas[right] != null){
+      freeInsideArenas.add(insideArenas[right]);
+      insideArenas[right] = null;
+    }
   }
 
   
     
   @Override
   protected void initOuterProbs() {
-    outerProb = new double[numCells][edgeSpaceSize];
-    outsideChartCount = new int[numCells];
-    outsideChartEntries = new boolean[numCells][edgeSpaceSize];
-    Util.init(outerProb, operator.zero());    
+    if(outerProb == null || outerProb.length < numCells){
+      outerProb = new double[numCells][];
+      outsideChartCount = new int[numCells];
+      outsideChartEntries = new long[numCells][];
+      Arrays.fill(outsideChartEntries, emptyEntries);
+      Arrays.fill(outerProb, emptyScores);
+    } else { // only clear cells of the previous sentence
+      for (int i = 0; i < outsideCells.size(); i++) {
+        int lrIndex = outsideCells.get(i);
+        outsideChartEntries[lrIndex] = emptyEntries;
+        outerProb[lrIndex] = emptyScores;
+        outsideChartCount[lrIndex] = 0;
+      }
+    }
+    outsideCells.clear();
+    outsideArenas = resetArenas(outsideArenas, 1);
+  }
+  
+  /**
+   * Make sure there's an arena for each column of the current sentence and reset them
+   */
+  private ColumnArena[] resetArenas(ColumnArena[] arenas, int numScores){
+    if(arenas.length < numWords+1){
+      arenas = Arrays.copyOf(arenas, numWords+1);
+    }
+    for (int right = 0; right <= numWords; right++) {
+      if(arenas[right] == null){
+        arenas[right] = new ColumnArena(edgeSpaceSize, numScores, operator.zero());
+      } else {
+        arenas[right].reset();
+      }
+    }
+    return arenas;
+  }
+  
+  /**
+   * Linear index of cell [left, right], the cell is allocated if it's still empty 
+   */
+  private int insideCell(int left, int right){
+    int lrIndex = linearIndex[left][right];
+    if(chartEntries[lrIndex] == emptyEntries){
+      ColumnArena arena = insideArena(right);
+      int row = arena.allocate();
+      chartEntries[lrIndex] = arena.getEntries(row);
+      forwardProb[lrIndex] = arena.getScores(row, 0);
+      innerProb[lrIndex] = arena.getScores(row, 1);
+      insideCells.add(lrIndex);
+    }
+    return lrIndex;
+  }
+  
+  private int outsideCell(int left, int right){
+    int lrIndex = linearIndex[left][right];
+    if(outsideChartEntries[lrIndex] == emptyEntries){
+      ColumnArena arena = outsideArenas[right];
+      int row = arena.allocate();
+      outsideChartEntries[lrIndex] = arena.getEntries(row);
+      outerProb[lrIndex] = arena.getScores(row, 0);
+      outsideCells.add(lrIndex);
+    }
+    return lrIndex;
   }
 
   @Override
   protected void chartPredict(int left, int right){
-//  	for(int edge : chartEdges.get(linearIndex[left][right])){
-//  		// predict for right: left X -> \alpha . Y \beta
-//      predictFromEdge(left, right, edge);
-//  	}
-  	for (int edge = 0; edge < edgeSpaceSize; edge++) {
-      if(chartEntries[linearIndex[left][right]][edge]){
-        // predict for right: left X -> \alpha . Y \beta
-        predictFromEdge(left, right, edge);
-      }
+  	long[] entries = chartEntries[linearIndex[left][right]];
+  	for (int edge = Bits.nextSetBit(entries, 0); edge >= 0; edge = Bits.nextSetBit(entries, edge+1)) {
+      // predict for right: left X -> \alpha . Y \beta
+      predictFromEdge(left, right, edge);
     }
   }
   
@@ -103,59 +257,42 @@ public class EarleyParserDense extends EarleyParser{
   protected boolean[] tempIOEntries;
   protected DoubleList[] tempInsideProbs = new DoubleList[numCategories];
   
-  private void storeProbs(DoubleList[] dl, double[][] probs, int left, int right) {
-    for (int edge = 0; edge < dl.length; edge++) {
-      double[] temps = dl[edge].toArray();
-      if (temps.length > 0) {
-        probs[linearIndex[left][right]][edge] = operator.add(operator.arraySum(temps), probs[linearIndex[left][right]][edge]);
-      }
-    }
-  }
-
   
   /**
   * Add this state into cell [left, right]
   */
   protected void addToChart(int left, int right, int edge,  
      double forward, double inner) {
-    int lrIndex = linearIndex[left][right]; // left right index
+    int lrIndex = insideCell(left, right); // left right index
     
     forwardProb[lrIndex][edge] = forward;
     innerProb[lrIndex][edge] = inner;
     
-    assert(chartEntries[lrIndex][edge] == false);
-    chartEntries[lrIndex][edge] = true;
+    boolean isNew = Bits.set(chartEntries[lrIndex], edge);
+    assert(isNew);
     chartCount[lrIndex]++; // increase count of categories
     
 //    chartEdges.get(lrIndex).add(edge);
   }
   
+  @Override
+  protected void addEdgeScores(int left, int right, int edge, double forwardScore, double innerScore){
+    super.addEdgeScores(left, right, edge, forwardScore, innerScore);
+    if(!containsInsideEdge(left, right, edge)){
+      updateChartCountEntries(left, right, edge);
+    }
+  }
+  
   public void updateChartCountEntries(int left, int right, int newEdge){
-  	int lrIndex = linearIndex[left][right]; 
+  	int lrIndex = insideCell(left, right); 
   	chartCount[lrIndex]++;
-    chartEntries[lrIndex][newEdge] = true;	
+    Bits.set(chartEntries[lrIndex], newEdge);
 //    chartEdges.get(lrIndex).add(newEdge);
   }
   
-  private Pair<boolean[], Integer> booleanUnion(boolean[] b1, boolean[] b2) {
-    int n = b1.length;
-    assert n == b2.length;
-    boolean[] result = new boolean[n];
-    int count = 0;
-    for (int i = 0; i < n; i++) {
-      result[i] = b1[i] || b2[i];
-      
-      if (result[i]){
-        count++;
-      }
-    }
-    return new Pair<boolean[], Integer>(result, count);
-  }
-
-  
   @Override
-  protected boolean containsInsideEdge(int left, int right, int edge) {
-    return chartEntries[linearIndex[left][right]][edge];
+  public boolean containsInsideEdge(int left, int right, int edge) {
+    return Bits.get(chartEntries[linearIndex[left][right]], edge);
   }
 
   @Override
@@ -163,22 +300,35 @@ public class EarleyParserDense extends EarleyParser{
     return chartCount[linearIndex[left][right]];
   }
 
+  @Override
+  protected void removeInsideEdge(int left, int right, int edge) {
+    int lrIndex = linearIndex[left][right];
+    if(Bits.get(chartEntries[lrIndex], edge)){
+      Bits.clear(chartEntries[lrIndex], edge);
+      forwardProb[lrIndex][edge] = operator.zero();
+      innerProb[lrIndex][edge] = operator.zero();
+      chartCount[lrIndex]--;
+    }
+  }
+  
+  @Override
+  public int nextInsideEdge(int left, int right, int edge) {
+    return Bits.nextSetBit(chartEntries[linearIndex[left][right]], edge+1);
+  }
   
   @Override
   public Set<Integer> listInsideEdges(int left, int right) {
     Set<Integer> edges = new HashSet<Integer>();
-    for (int edge = 0; edge < edgeSpaceSize; edge++) {
-      if(containsInsideEdge(left, right, edge)){
-        edges.add(edge);
-      }
+    for (int edge = nextInsideEdge(left, right, -1); edge >= 0; edge = nextInsideEdge(left, right, edge)) {
+      edges.add(edge);
     }
     return edges;
   }
 
   
   @Override
-  protected boolean containsOutsideEdge(int left, int right, int edge) {
-    return outsideChartEntries[linearIndex[left][right]][edge];
+  public boolean containsOutsideEdge(int left, int right, int edge) {
+    return Bits.get(outsideChartEntries[linearIndex[left][right]], edge);
   }
 
   @Override
@@ -186,13 +336,16 @@ public class EarleyParserDense extends EarleyParser{
     return outsideChartCount[linearIndex[left][right]];
   }
 
+  @Override
+  public int nextOutsideEdge(int left, int right, int edge) {
+    return Bits.nextSetBit(outsideChartEntries[linearIndex[left][right]], edge+1);
+  }
+  
   @Override
   public Set<Integer> listOutsideEdges(int left, int right) {
     Set<Integer> edges = new HashSet<Integer>();
-    for (int edge = 0; edge < edgeSpaceSize; edge++) {
-      if(containsOutsideEdge(left, right, edge)){
-        edges.add(edge);
-      }
+    for (int edge = nextOutsideEdge(left, right, -1); edge >= 0; edge = nextOutsideEdge(left, right, edge)) {
+      edges.add(edge);
     }
     return edges;
   }
@@ -202,28 +355,28 @@ public class EarleyParserDense extends EarleyParser{
   /** Temporary prob methods **/
   /***************************/
   /** Used as holding zone for predictions **/
-  private boolean[] predictedChartEntries;
-  private double[] predictedForwardProb;
-  private double[] predictedInnerProb;
-  private int predictedChartCount;
+  protected long[] predictedChartEntries;
+  protected double[] predictedForwardProb;
+  protected double[] predictedInnerProb;
+  protected int predictedChartCount;
 //  private Set<Integer> predictedChartEdges;
   
   @Override
-  protected void initPredictTmpScores() {
-    predictedChartEntries = new boolean[edgeSpaceSize];
-    predictedForwardProb = new double[edgeSpaceSize];
-    predictedInnerProb = new double[edgeSpaceSize];
+  protected void initPredictTmpScores(int right) {
+    // predictions become cell [right, right], so take a row from the arena of column right
+    ColumnArena arena = insideArena(right);
+    int row = arena.allocate();
+    predictedChartEntries = arena.getEntries(row);
+    predictedForwardProb = arena.getScores(row, 0);
+    predictedInnerProb = arena.getScores(row, 1);
     predictedChartCount = 0;
-    Util.init(predictedForwardProb, operator.zero());
-    Util.init(predictedInnerProb, operator.zero()); 
     
 //    predictedChartEdges = new HashSet<Integer>();
   }
 
   @Override
   protected void addPredictTmpForwardScore(int edge, double score) {
-    if (!predictedChartEntries[edge]){
-      predictedChartEntries[edge] = true;
+    if (Bits.set(predictedChartEntries, edge)){
       predictedChartCount++; // count for new edge [right, right]
       
 //      predictedChartEdges.add(edge);
@@ -241,6 +394,9 @@ public class EarleyParserDense extends EarleyParser{
     // replace old entries with recently predicted entries
     // all predictions will have the form right: right Y -> _
     int rrIndex = linearIndex[right][right]; // right right index
+    if(chartEntries[rrIndex] == emptyEntries){
+      insideCells.add(rrIndex);
+    }
     chartEntries[rrIndex] = predictedChartEntries;
     forwardProb[rrIndex] = predictedForwardProb;
     innerProb[rrIndex] = predictedInnerProb;
@@ -249,49 +405,55 @@ public class EarleyParserDense extends EarleyParser{
 //    chartEdges.set(rrIndex, predictedChartEdges);
   }
   
-  /** Used as holding zones for completions **/
-  protected boolean[] theseChartEntries;
-  protected DoubleList[] theseForwardProb = new DoubleList[edgeSpaceSize];
-  protected DoubleList[] theseInnerProb = new DoubleList[edgeSpaceSize];
-//  protected Set<Integer> theseChartEdges;
+  /** Used as holding zones for completions, reused across all (left, middle, right) triples **/
+  private static final int FORWARD = 0;
+  private static final int INNER = 1;
+  protected ScoreAccumulator completions = new ScoreAccumulator(edgeSpaceSize, 2);
   
   @Override
   protected void initCompleteTmpScores() {
-    theseChartEntries = new boolean[edgeSpaceSize];
-    for (int i = 0; i < edgeSpaceSize; i++) {
-      theseForwardProb[i] = new DoubleList();
-      theseInnerProb[i] = new DoubleList();
-    }
-    
-//    theseChartEdges = new HashSet<Integer>();
+    completions.clear();
   }
 
   @Override
   protected void storeCompleteTmpScores(int left, int right) {
-    int lrIndex = linearIndex[left][right]; //linear(left, right);
-    Pair<boolean[], Integer> pair = booleanUnion(chartEntries[lrIndex], theseChartEntries);
-    chartEntries[lrIndex] = pair.first;
-    chartCount[lrIndex] = pair.second;
-    storeProbs(theseForwardProb, forwardProb, left, right);
-    storeProbs(theseInnerProb, innerProb, left, right);
+    int numEdges = completions.numEdges();
+    if(numEdges==0){ // nothing completed, leave the cell untouched
+      return;
+    }
     
-//    chartEdges.set(lrIndex, Sets.union(chartEdges.get(lrIndex), theseChartEdges));
+    int lrIndex = insideCell(left, right); //linear(left, right);
+    long[] entries = chartEntries[lrIndex];
+    double[] forwards = forwardProb[lrIndex];
+    double[] inners = innerProb[lrIndex];
+    for (int k = 0; k < numEdges; k++) {
+      int edge = completions.edgeAt(k);
+      if(Bits.set(entries, edge)){
+        chartCount[lrIndex]++;
+      }
+      
+      if(completions.count(edge, FORWARD) > 0){
+        forwards[edge] = operator.add(completions.sum(edge, FORWARD, operator), forwards[edge]);
+      }
+      if(completions.count(edge, INNER) > 0){
+        inners[edge] = operator.add(completions.sum(edge, INNER, operator), inners[edge]);
+      }
+    }
   }
 
   @Override
   protected void initCompleteTmpScores(int edge) {
-    theseChartEntries[edge] = true;
-//    theseChartEdges.add(edge);
+    completions.touch(edge);
   }
   
   @Override
   protected void addCompleteTmpForwardScore(int edge, double score) {
-    theseForwardProb[edge].add(score);
+    completions.add(edge, FORWARD, score);
   }
 
   @Override
   protected void addCompleteTmpInnerScore(int edge, double score) {
-    theseInnerProb[edge].add(score);
+    completions.add(edge, INNER, score);
   }
   
   /****************************/
@@ -307,8 +469,8 @@ public class EarleyParserDense extends EarleyParser{
   }
   
   protected void addForwardScore(int left, int right, int edge, double score){
-    forwardProb[linearIndex[left][right]][edge] = 
-      operator.add(forwardProb[linearIndex[left][right]][edge], score);
+    int lrIndex = insideCell(left, right);
+    forwardProb[lrIndex][edge] = operator.add(forwardProb[lrIndex][edge], score);
   }
   
   /*************************/
@@ -319,8 +481,8 @@ public class EarleyParserDense extends EarleyParser{
   }
   
   protected void addInnerScore(int left, int right, int edge, double score){
-    innerProb[linearIndex[left][right]][edge] = 
-      operator.add(innerProb[linearIndex[left][right]][edge], score);
+    int lrIndex = insideCell(left, right);
+    innerProb[lrIndex][edge] = operator.add(innerProb[lrIndex][edge], score);
   }
   
   /*************************/
@@ -332,12 +494,11 @@ public class EarleyParserDense extends EarleyParser{
 
   @Override
   protected void addOuterScore(int left, int right, int edge, double score) {
-    outerProb[linearIndex[left][right]][edge] = 
-      operator.add(outerProb[linearIndex[left][right]][edge], score);
+    int lrIndex = outsideCell(left, right);
+    outerProb[lrIndex][edge] = operator.add(outerProb[lrIndex][edge], score);
     
-    if (!outsideChartEntries[linearIndex[left][right]][edge]){
-      outsideChartEntries[linearIndex[left][right]][edge] = true;
-      outsideChartCount[linearIndex[left][right]]++;
+    if (Bits.set(outsideChartEntries[lrIndex], edge)){
+      outsideChartCount[lrIndex]++;
     }
   }
 
@@ -347,6 +508,268 @@ public class EarleyParserDense extends EarleyParser{
   public String edgeScoreInfo(int left, int right, int edge){
     return edgeScoreInfo(left, right, edge, forwardProb[linearIndex[left][right]][edge], innerProb[linearIndex[left][right]][edge]);
   }
+
+  /****************************************/
+  /** Kernels specialized per score type **/
+  /****************************************/
+  /**
+   * Dense parser for probabilities. The class is final, so the chart accessors called from the
+   * prediction and completion loops below are bound statically, and the operator arithmetic is
+   * written out, which lets the JIT turn these loops into straight-line code. Verbose runs use
+   * the generic loops, which print what they do.
+   */
+  public static final class ProbKernel extends EarleyParserDense {
+    public ProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options);
+      assert(operator instanceof ProbOperator);
+    }
+    
+    @Override
+    protected void chartPredict(int left, int right){
+      if(verbose>=2){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      int lrIndex = linearIndex[left][right];
+      long[] entries = chartEntries[lrIndex];
+      double[] forwards = forwardProb[lrIndex];
+      for (int edge = Bits.nextSetBit(entries, 0); edge >= 0; edge = Bits.nextSetBit(entries, edge+1)) {
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] += forwards[edge];
+        }
+      }
+    }
+    
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          if (Bits.set(predictedChartEntries, newEdge)){
+            predictedChartCount++;
+          }
+          predictedForwardProb[newEdge] += forward*forwardMultipliers[p];
+          predictedInnerProb[newEdge] = innerMultipliers[p];
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
+    }
+    
+    @Override
+    protected void complete(int left, int middle, int right, int nextEdge, double inner) {
+      if(verbose>=2){
+        super.complete(left, middle, right, nextEdge, inner);
+        return;
+      }
+      
+      int lmIndex = linearIndex[left][middle];
+      long[] entries = chartEntries[lmIndex];
+      double[] forwards = forwardProb[lmIndex];
+      double[] inners = innerProb[lmIndex];
+      int tag = edgeSpace.mother(nextEdge);
+      int[] completionEdges = grammar.getCompletionEdges();
+      double[] completionScores = grammar.getCompletionScores();
+      for (int c = grammar.completionStart(tag), end = grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c]; // middle: left X -> \alpha . Z \beta
+        if (Bits.get(entries, prevEdge) && isWithinWidth(left, right, prevEdge)) {
+          double updateScore = completionScores[c]*inner;
+          double newForwardScore = forwards[prevEdge]*updateScore;
+          double newInnerScore = inners[prevEdge]*updateScore;
+          int newEdge = edgeSpace.to(prevEdge);
+          completions.add(newEdge, FORWARD, newForwardScore);
+          completions.add(newEdge, INNER, newInnerScore);
+          addNewEdgeInfo(left, right, newEdge);
+          
+          if(options.decodeOpt==1){
+            addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
+          }
+          if (middle == right - 1) {
+            addPrefixProb(newForwardScore, left, middle, right, inner,
+                completionScores[c], prevEdge, -1, EarleyParserOptions.PCFG);
+          }
+        }
+      }
+    }
+    
+    @Override
+    protected void fastCompleteLefts(int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+        double inner, IntMultiMap activeEdges, int slot){
+      if(verbose>=3){
+        super.fastCompleteLefts(middle, right, nextEdge, prevEdge, completionScore, inner, activeEdges, slot);
+        return;
+      }
+      
+      double updateScore = completionScore*inner;
+      int numLefts = activeEdges.sizeAt(slot);
+      for (int i = 0; i < numLefts; i++) {
+        int left = activeEdges.valueAt(slot, i); // middle : left X -> \alpha . Z \beta
+        if(!isWithinWidth(left, right, prevEdge)){
+          continue;
+        }
+        int lmIndex = linearIndex[left][middle];
+        fastCompleteEdge(left, middle, right, nextEdge, prevEdge, completionScore, inner, 
+            forwardProb[lmIndex][prevEdge]*updateScore, innerProb[lmIndex][prevEdge]*updateScore);
+      }
+    }
+  }
+  
+  /**
+   * Dense parser for log-probabilities, see {@link ProbKernel}
+   */
+  public static final class LogProbKernel extends EarleyParserDense {
+    public LogProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options);
+      assert(operator instanceof LogProbOperator);
+    }
+    
+    @Override
+    protected void chartPredict(int left, int right){
+      if(verbose>=2){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      int lrIndex = linearIndex[left][right];
+      long[] entries = chartEntries[lrIndex];
+      double[] forwards = forwardProb[lrIndex];
+      for (int edge = Bits.nextSetBit(entries, 0); edge >= 0; edge = Bits.nextSetBit(entries, edge+1)) {
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] = SloppyMath.logAdd(viaForwardScores[via], forwards[edge]);
+        }
+      }
+    }
+    
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          if (Bits.set(predictedChartEntries, newEdge)){
+            predictedChartCount++;
+          }
+          predictedForwardProb[newEdge] = SloppyMath.logAdd(predictedForwardProb[newEdge], forward + forwardMultipliers[p]);
+          predictedInnerProb[newEdge] = innerMultipliers[p];
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
+    }
+    
+    @Override
+    protected void complete(int left, int middle, int right, int nextEdge, double inner) {
+      if(verbose>=2){
+        super.complete(left, middle, right, nextEdge, inner);
+        return;
+      }
+      
+      int lmIndex = linearIndex[left][middle];
+      long[] entries = chartEntries[lmIndex];
+      double[] forwards = forwardProb[lmIndex];
+      double[] inners = innerProb[lmIndex];
+      int tag = edgeSpace.mother(nextEdge);
+      int[] completionEdges = grammar.getCompletionEdges();
+      double[] completionScores = grammar.getCompletionScores();
+      for (int c = grammar.completionStart(tag), end = grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c]; // middle: left X -> \alpha . Z \beta
+        if (Bits.get(entries, prevEdge) && isWithinWidth(left, right, prevEdge)) {
+          double updateScore = completionScores[c] + inner;
+          double newForwardScore = forwards[prevEdge] + updateScore;
+          double newInnerScore = inners[prevEdge] + updateScore;
+          int newEdge = edgeSpace.to(prevEdge);
+          completions.add(newEdge, FORWARD, newForwardScore);
+          completions.add(newEdge, INNER, newInnerScore);
+          addNewEdgeInfo(left, right, newEdge);
+          
+          if(options.decodeOpt==1){
+            addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
+          }
+          if (middle == right - 1) {
+            addPrefixProb(newForwardScore, left, middle, right, inner,
+                completionScores[c], prevEdge, -1, EarleyParserOptions.PCFG);
+          }
+        }
+      }
+    }
+    
+    @Override
+    protected void fastCompleteLefts(int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+        double inner, IntMultiMap activeEdges, int slot){
+      if(verbose>=3){
+        super.fastCompleteLefts(middle, right, nextEdge, prevEdge, completionScore, inner, activeEdges, slot);
+        return;
+      }
+      
+      double updateScore = completionScore + inner;
+      int numLefts = activeEdges.sizeAt(slot);
+      for (int i = 0; i < numLefts; i++) {
+        int left = activeEdges.valueAt(slot, i); // middle : left X -> \alpha . Z \beta
+        if(!isWithinWidth(left, right, prevEdge)){
+          continue;
+        }
+        int lmIndex = linearIndex[left][middle];
+        fastCompleteEdge(left, middle, right, nextEdge, prevEdge, completionScore, inner, 
+            forwardProb[lmIndex][prevEdge] + updateScore, innerProb[lmIndex][prevEdge] + updateScore);
+      }
+    }
+  }
 }
 
 ///** Unused code **/
@@ -547,7 +970,7 @@ public class EarleyParserDense extends EarleyParser{
 //    Completion completion = completions[x];
 //    
 //    if (chartEntries[lmIndex][completion.activeEdge]) { // middle: left X -> _ . Y _
-//      double updateScore = operator.multiply(completion.score, inner);
+//      double updateScore = operator.multiply(completionScores[c], inner);
 //      double newForwardProb = operator.multiply(forwardProb[lmIndex][completion.activeEdge], updateScore);
 //      double newInnerProb = operator.multiply(innerProb[lmIndex][completion.activeEdge], updateScore);
 //      
@@ -586,7 +1009,7 @@ public class EarleyParserDense extends EarleyParser{
 //        if (verbose >= 2) {
 //          System.err.println("# Prefix prob += " + operator.getProb(newForwardProb) + "=" + 
 //              operator.getProb(forwardProb[lmIndex][completion.activeEdge]) + "*" + 
-//              operator.getProb(completion.score) + "*" + operator.getProb(inner) + "\t" + left + "\t" + middle + "\t" + completion.activeEdge);
+//              operator.getProb(completionScores[c]) + "*" + operator.getProb(inner) + "\t" + left + "\t" + middle + "\t" + completion.activeEdge);
 //          System.err.println("# Syn prefix prob += " + operator.getProb(synProb) + "=" + 
 //              operator.getProb(newForwardProb) + "/" + 
 //              operator.getProb(inner));
@@ -689,9 +1112,9 @@ public class EarleyParserDense extends EarleyParser{
 //    Prediction p = predictions[x];
 //    
 //    // spawn new edge
-//    int newEdge = p.predictedState;
-//    double newForwardProb = operator.multiply(forwardProb[linear(left, right)][edge], p.forwardProbMultiplier);
-//    double newInnerProb = p.innerProbMultiplier;
+//    int newEdge = predictedStates[p];
+//    double newForwardProb = operator.multiply(forwardProb[linear(left, right)][edge], forwardMultipliers[p]);
+//    double newInnerProb = innerMultipliers[p];
 //    
 //    // add to tmp arrays
 //    if (!predictedChartEntries[newEdge]){
@@ -4,11 +4,14 @@
 package parser;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,8 +22,6 @@ import util.RuleFile;
 import util.TreeBankFile;
 import util.Util;
 import base.BaseLexicon;
-import base.BiasProbRule;
-import base.FragmentRule;
 import base.ProbRule;
 import base.RuleSet;
 import base.TerminalRule;
@@ -55,6 +56,12 @@ public class EarleyParserGenerator {
   private Set<String> outputMeasures; // output measures (surprisal, stringprob, etc.)
 	private Set<String> internalMeasures; // internal measures (prefix, entropy, etc.)
   private boolean isSeparateRuleInTrie = false; // IMPORTANT: this one, by default should be false.
+  private EarleyParserOptions options; // shared by all parsers generated, replaced (never modified) by setPruning, setMaxWidth, and setParallelism
+  
+  // coarse-to-fine parsing, null unless setCoarseToFine() has been called
+  private EarleyParserGenerator coarseGenerator; // generator of the projected grammar
+  private Map<String, String> coarseProjection; // fine nonterminal -> coarse nonterminal
+  private double coarseThreshold; // min posterior of coarse items
   
   public EarleyParserGenerator(String grammarFile, int inGrammarType, String rootSymbol, 
       boolean isScaling, boolean isLogProb, String ioOptStr, String decodeOptStr, String objString){
@@ -69,6 +76,7 @@ public class EarleyParserGenerator {
       
       // build edgeSpace
       edgeSpace.build(ruleSet.getTagRules());
+      edgeSpace.indexRules(ruleSet);
       // build grammar
       grammar = new Grammar(parserWordIndex, parserTagIndex, parserNonterminalMap, operator);
       grammar.learnGrammar(ruleSet, edgeSpace, isSeparateRuleInTrie);
@@ -101,38 +109,119 @@ public class EarleyParserGenerator {
     init(br);
   }
   
+  /**
+   * Parsers are created as the final kernel class of their chart for the score type, 
+   * so that their inner loops don't dispatch on the chart or the operator
+   */
   public EarleyParser getParserDense(){
-  	return new EarleyParserDense(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
-  			parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie); 
+    return addCoarseToFine(newParserDense(), null);
+  }
+  
+  /**
+   * Dense-style parser whose chart is kept outside of the heap
+   * 
+   * @param mapDir if not null, chart segments are memory-mapped files in this directory, 
+   *   otherwise they're direct buffers
+   */
+  public EarleyParser getParserOffHeap(File mapDir){
+    return addCoarseToFine(newParserOffHeap(mapDir), mapDir);
   }
   
   public EarleyParser getParserSparse(){
-  	return new EarleyParserSparse(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
-  			parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie); 
+    return addCoarseToFine(newParserSparse(), null);
+  }
+  
+  /**
+   * Parser that picks the dense or the sparse parser for each sentence, by how large and full their charts 
+   * are expected to be, see {@link AdaptiveParser}. Dense charts are limited to AdaptiveParser.defaultMemoryBudget().
+   */
+  public AdaptiveParser getParserAuto(){
+    return getParserAuto(AdaptiveParser.defaultMemoryBudget());
+  }
+  
+  /**
+   * Same as getParserAuto(), with dense charts limited to memoryBudget bytes
+   */
+  public AdaptiveParser getParserAuto(long memoryBudget){
+    return new AdaptiveParser(this, grammar, edgeSpace.size(), parserTagIndex.size(), options.maxWidth, 
+        options.decodeOpt>0 || options.insideOutsideOpt>0, memoryBudget);
+  }
+  
+  private EarleyParser newParserDense(){
+    if(options.isLogProb){
+      return new EarleyParserDense.LogProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options); 
+    } else {
+      return new EarleyParserDense.ProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options); 
+    }
+  }
+  
+  private EarleyParser newParserOffHeap(File mapDir){
+    if(options.isLogProb){
+      return new EarleyParserOffHeap.LogProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options, mapDir); 
+    } else {
+      return new EarleyParserOffHeap.ProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options, mapDir); 
+    }
+  }
+  
+  private EarleyParser newParserSparse(){
+    if(options.isLogProb){
+      return new EarleyParserSparse.LogProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options); 
+    } else {
+      return new EarleyParserSparse.ProbKernel(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex, 
+          parserNonterminalMap, operator, outputMeasures, internalMeasures, isSeparateRuleInTrie, options); 
+    }
+  }
+  
+  /**
+   * Give parser a coarse pass if setCoarseToFine() has been called. With the measure Measures.SURPRISAL_DEVIATION,
+   * the coarse pass also has a parser without coarse pass to compare surprisals with. Both have the same kind of 
+   * chart as parser, so that the sentence lengths and memory limits it was chosen for also hold for them.
+   * 
+   * @param mapDir map dir of an off-heap parser
+   */
+  private EarleyParser addCoarseToFine(EarleyParser parser, File mapDir){
+    if(coarseGenerator!=null){
+      boolean isReference = outputMeasures.contains(Measures.SURPRISAL_DEVIATION);
+      EarleyParser coarseParser;
+      EarleyParser referenceParser = null;
+      if(parser instanceof EarleyParserDense){
+        coarseParser = coarseGenerator.getParserDense();
+        if(isReference) referenceParser = newParserDense();
+      } else if(parser instanceof EarleyParserOffHeap){
+        coarseParser = coarseGenerator.getParserOffHeap(mapDir);
+        if(isReference) referenceParser = newParserOffHeap(mapDir);
+      } else {
+        coarseParser = coarseGenerator.getParserSparse();
+        if(isReference) referenceParser = newParserSparse();
+      }
+      parser.setCoarseToFine(new CoarseToFine(coarseParser, parserTagIndex, coarseProjection, 
+          coarseThreshold, referenceParser));
+    }
+    return parser;
   }
   
   // preInit
   private void preInit(String rootSymbol, boolean isScaling, boolean isLogProb,
       String ioOptStr, String decodeOptStr, String measureString){
-  	EarleyParserOptions.rootSymbol = rootSymbol;
-  	EarleyParserOptions.isScaling = isScaling;
-    EarleyParserOptions.isLogProb = isLogProb;
-    EarleyParserOptions.decodeOptStr = decodeOptStr;
+    // index
+    parserWordIndex = new HashIndex<String>();
+    parserTagIndex = new HashIndex<String>();
+    parserNonterminalMap = new HashMap<Integer, Integer>();
     
-    // induction option
-    if(ioOptStr.equalsIgnoreCase("em")){
-    	EarleyParserOptions.insideOutsideOpt = 1;
-    } else if(ioOptStr.equalsIgnoreCase("vb")){
-    	EarleyParserOptions.insideOutsideOpt = 2;
-    }
-   
-    // decode option
-    if(EarleyParserOptions.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.VITERBI_OPT)){
-    	EarleyParserOptions.decodeOpt = 1;
-    } else if(EarleyParserOptions.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.MARGINAL_OPT) 
-        || EarleyParserOptions.decodeOptStr.equalsIgnoreCase(EarleyParserOptions.SOCIALMARGINAL_OPT)){
-    	EarleyParserOptions.decodeOpt = 2;
-    }
+    // root symbol
+    int origSymbolIndex = parserTagIndex.indexOf(EarleyParserOptions.ORIG_SYMBOL, true);
+    int rootSymbolIndex = parserTagIndex.indexOf(rootSymbol, true);
+    parserNonterminalMap.put(origSymbolIndex, parserNonterminalMap.size());
+    assert(parserNonterminalMap.get(origSymbolIndex) == 0);
+    
+    // options, also builds the root rule
+    options = new EarleyParserOptions(rootSymbol, rootSymbolIndex, origSymbolIndex, 
+        isScaling, isLogProb, ioOptStr, decodeOptStr);
     
     // output measures
     outputMeasures = new HashSet<String>();
@@ -147,7 +236,8 @@ public class EarleyParserGenerator {
     internalMeasures = new HashSet<String>();
     for(String measure : outputMeasures){
       if(measure.equals(Measures.STRINGPROB) || measure.equals(Measures.SURPRISAL)
-          || measure.equals(Measures.PREFIX)){
+          || measure.equals(Measures.PREFIX) || measure.equals(Measures.PRUNED_MASS)
+          || measure.equals(Measures.SURPRISAL_DEVIATION)){
         continue;
       }
       if(measure.equals(Measures.ENTROPY) || measure.equals(Measures.ENTROPY_REDUCTION)){
@@ -169,37 +259,18 @@ public class EarleyParserGenerator {
 //      System.exit(1);
 //    }
     
-    if(EarleyParserOptions.isLogProb){
+    if(options.isLogProb){
     	operator = new LogProbOperator();
     } else {
     	operator = new ProbOperator();
     }
     
-    // index
-    parserWordIndex = new HashIndex<String>();
-    parserTagIndex = new HashIndex<String>();
-    parserNonterminalMap = new HashMap<Integer, Integer>();
-    
-    // root symbol
-    EarleyParserOptions.origSymbolIndex = parserTagIndex.indexOf(EarleyParserOptions.ORIG_SYMBOL, true);
-    EarleyParserOptions.rootSymbolIndex = parserTagIndex.indexOf(rootSymbol, true);
-    parserNonterminalMap.put(EarleyParserOptions.origSymbolIndex, parserNonterminalMap.size());
-    assert(parserNonterminalMap.get(EarleyParserOptions.origSymbolIndex) == 0);
-    
-    if(EarleyParserOptions.insideOutsideOpt==2){
-    	EarleyParserOptions.rootRule = new BiasProbRule(new FragmentRule(EarleyParserOptions.origSymbolIndex, 
-    			EarleyParserOptions.rootSymbolIndex, true), 1.0, 1.0);
-    } else {
-    	EarleyParserOptions.rootRule = new ProbRule(new FragmentRule(EarleyParserOptions.origSymbolIndex, 
-    			EarleyParserOptions.rootSymbolIndex, true), 1.0);
-    }
-    
     // rules
     ruleSet = new RuleSet(parserTagIndex, parserWordIndex);
-    ruleSet.add(EarleyParserOptions.rootRule);
+    ruleSet.add(options.rootRule);
     
     // edgespace
-    if(EarleyParserOptions.insideOutsideOpt > 0 || EarleyParserOptions.decodeOpt > 0 
+    if(options.insideOutsideOpt > 0 || options.decodeOpt > 0 
     		|| outputMeasures.contains(Measures.ENTROPY)){
       edgeSpace = new StandardEdgeSpace(parserTagIndex, parserWordIndex);
     } else {
@@ -217,7 +288,7 @@ public class EarleyParserGenerator {
    Map<Integer, Set<IntTaggedWord>> word2tagsMap = new HashMap<Integer, Set<IntTaggedWord>>();
        
    try {
-     if (EarleyParserOptions.insideOutsideOpt==2){
+     if (options.insideOutsideOpt==2){
        RuleFile.parseRuleFile(br, 
            ruleSet, tag2wordsMap, word2tagsMap, parserNonterminalMap, parserWordIndex, parserTagIndex, true);
      } else {
@@ -247,6 +318,7 @@ public class EarleyParserGenerator {
 
    // build edgeSpace
    edgeSpace.build(ruleSet.getTagRules());   
+   edgeSpace.indexRules(ruleSet);
    // build grammar
    grammar = new Grammar(parserWordIndex, parserTagIndex, parserNonterminalMap, operator);
    grammar.learnGrammar(ruleSet, edgeSpace, isSeparateRuleInTrie);
@@ -265,6 +337,132 @@ public class EarleyParserGenerator {
     lex.setWord2tagsMap(word2tagsMap);
   }
 
+  /**
+   * Parsers generated from now on prune with these settings, see {@link EarleyParserOptions#pruneThreshold}
+   * and {@link EarleyParserOptions#pruneTopK}. Parsers generated before are not affected.
+   */
+  public void setPruning(double pruneThreshold, int pruneTopK){
+    options = options.withPruning(pruneThreshold, pruneTopK);
+  }
+  
+  public void setMaxWidth(int maxWidth, Collection<String> exemptSymbols){
+    options = options.withMaxWidth(maxWidth, exemptSymbols);
+  }
+  
+  /**
+   * Number of fork-join workers each parser uses to complete and predict a column, 1 (default) to parse serially
+   */
+  public void setParallelism(int numWorkers){
+    setParallelism(numWorkers, false);
+  }
+  
+  /**
+   * Same as setParallelism(numWorkers), isExact is whether parallel predictions are added up in serial order
+   */
+  public void setParallelism(int numWorkers, boolean isExact){
+    options = options.withParallelism(numWorkers, isExact);
+  }
+  
+  /**
+   * Whether parsers generated from now on skip predictions that can't start with the next word, 
+   * see {@link EarleyParserOptions#isLookahead}
+   */
+  public void setLookahead(boolean isLookahead){
+    options = options.withLookahead(isLookahead);
+  }
+  
+  /**
+   * Parsers generated from now on don't build edges of nonterminals starting with any of prefixes across the
+   * utterance boundaries of a discourse, see {@link UtteranceBoundaries}. An empty collection turns it off.
+   */
+  public void setBoundaryConstraint(Collection<String> prefixes){
+    options = options.withBoundaryConstraint(prefixes);
+  }
+  
+  /**
+   * Parsers generated from now on first parse each sentence with a coarse grammar, whose nonterminals are those
+   * of the grammar renamed by projection (nonterminals not in projection keep their names), then only build 
+   * edges whose projections have coarse posteriors >= threshold over their spans, see {@link CoarseToFine}.
+   * 
+   * A coarse rule gets the sum of the probs of the fine rules projected onto it, divided by the number of
+   * fine mothers projected onto its mother, so it's a uniform mixture of the fine rules.
+   */
+  public void setCoarseToFine(Map<String, String> projection, double threshold){
+    coarseProjection = projection;
+    coarseThreshold = threshold;
+    
+    String coarseGrammar = projectGrammar(projection);
+    if(verbose>=3) System.err.println("# Coarse grammar:\n" + coarseGrammar);
+    String coarseRoot = CoarseToFine.project(projection, options.rootSymbol);
+    coarseGenerator = new EarleyParserGenerator(new BufferedReader(new StringReader(coarseGrammar)), coarseRoot, 
+        false, true, "", EarleyParserOptions.MARGINAL_OPT, Measures.SURPRISAL); // marginal decoding tracks completed edges
+  }
+  
+  /**
+   * Same as setCoarseToFine(projection, threshold), where nonterminals are projected by removing the
+   * parts matching annotationRegex, e.g., "\\^.*" projects NP^S to NP
+   */
+  public void setCoarseToFine(String annotationRegex, double threshold){
+    Map<String, String> projection = new LinkedHashMap<String, String>();
+    for(int iT : parserNonterminalMap.keySet()){
+      String symbol = parserTagIndex.get(iT);
+      String coarseSymbol = symbol.replaceAll(annotationRegex, "");
+      if(iT!=options.origSymbolIndex && coarseSymbol.length()>0){
+        projection.put(symbol, coarseSymbol);
+      }
+    }
+    setCoarseToFine(projection, threshold);
+  }
+  
+  /**
+   * Rules of the grammar, root rule excluded, with projected tags and summed probs, in the format read by RuleFile
+   */
+  private String projectGrammar(Map<String, String> projection){
+    Map<String, Map<String, Double>> coarseRules = new LinkedHashMap<String, Map<String, Double>>(); // mother -> rhs -> prob
+    Map<String, Set<Integer>> fineMothers = new HashMap<String, Set<Integer>>(); // mother -> fine mothers
+    for(ProbRule probRule : ruleSet.getAllRules()){
+      int iT = probRule.getMother();
+      if(iT==options.origSymbolIndex){
+        continue;
+      }
+      
+      String mother = CoarseToFine.project(projection, parserTagIndex.get(iT));
+      StringBuffer rhs = new StringBuffer();
+      for (int i = 0; i < probRule.numChildren(); i++) {
+        if(i>0){
+          rhs.append(" ");
+        }
+        if(probRule.isTag(i)){
+          rhs.append(CoarseToFine.project(projection, parserTagIndex.get(probRule.getChild(i))));
+        } else {
+          rhs.append("_" + parserWordIndex.get(probRule.getChild(i)));
+        }
+      }
+      
+      if(!coarseRules.containsKey(mother)){
+        coarseRules.put(mother, new LinkedHashMap<String, Double>());
+        fineMothers.put(mother, new HashSet<Integer>());
+      }
+      Map<String, Double> rhsMap = coarseRules.get(mother);
+      String rhsStr = rhs.toString();
+      rhsMap.put(rhsStr, (rhsMap.containsKey(rhsStr) ? rhsMap.get(rhsStr) : 0.0) + probRule.getProb());
+      fineMothers.get(mother).add(iT);
+    }
+    
+    StringBuffer sb = new StringBuffer();
+    for(String mother : coarseRules.keySet()){
+      int numFineMothers = fineMothers.get(mother).size();
+      for(Map.Entry<String, Double> entry : coarseRules.get(mother).entrySet()){
+        sb.append(mother + "->[" + entry.getKey() + "] : " + (entry.getValue()/numFineMothers) + "\n");
+      }
+    }
+    return sb.toString();
+  }
+  
+  public EarleyParserOptions getOptions() {
+    return options;
+  }
+  
   public Set<String> getOutputMeasures() {
 		return outputMeasures;
 	} 
@@ -0,0 +1,563 @@
+package parser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import base.BaseLexicon;
+import base.RuleSet;
+import util.Bits;
+import util.IntList;
+import util.LogProbOperator;
+import util.Operator;
+import util.ProbOperator;
+import util.ScoreAccumulator;
+import edu.stanford.nlp.math.SloppyMath;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Timing;
+
+/**
+ * Same chart layout and algorithm as {@link EarleyParserDense}, but cells are stored
+ * in an {@link OffHeapChart} addressed by long linear indices, so the heap only holds
+ * per-edge temporary arrays. Meant for very long inputs (e.g., whole discourses), where
+ * the dense chart would exceed the heap, best used together with -maxwidth.
+ *
+ * Unlike the dense and sparse parsers, it completes with the plain chartComplete(), which goes through
+ * all edges of the cells [middle, right] for each left, i.e., O(n^2 * |E|) per word for n words and
+ * |E| edges per cell: fastChartComplete() would keep the completed and active edges of every cell on
+ * the heap. With -maxwidth, completion is O(maxWidth^2 * |E|) per word instead.
+ */
+public class EarleyParserOffHeap extends EarleyParser {
+  private static final int FORWARD = 0;
+  private static final int INNER = 1;
+
+  protected final OffHeapChart insideChart; // forward & inner scores
+  protected OffHeapChart outsideChart; // outer scores, created on first use
+  private final File mapDir; // null for direct buffers, otherwise segments are memory-mapped files in this directory
+
+  public EarleyParserOffHeap(Grammar grammar, EdgeSpace edgeSpace,
+      BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+      Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+      Operator operator, Set<String> outputMeasures,
+      Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options, File mapDir) {
+    super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+        parserNonterminalMap, operator, outputMeasures, internalMeasures,
+        isSeparateRuleInTrie, options, false); // isFastComplete
+
+    this.mapDir = mapDir;
+    insideChart = new OffHeapChart(edgeSpaceSize, 2, operator.zero(), mapDir);
+    predictedForwardProb = new double[edgeSpaceSize];
+    predictedInnerProb = new double[edgeSpaceSize];
+    predictedEntries = new long[Bits.numWords(edgeSpaceSize)];
+    Arrays.fill(predictedForwardProb, operator.zero());
+    Arrays.fill(predictedInnerProb, operator.zero());
+
+    if(verbose>0){
+      System.err.println("# EarleyParserOffHeap" + ((mapDir==null) ? "" : ", mapped in " + mapDir));
+    }
+  }
+
+  @Override
+  protected boolean isLongIndexed(){
+    return true;
+  }
+
+  protected void sentInit(){
+    super.sentInit();
+
+    if (verbose>=2){
+      System.err.println("# EarleyParserOffHeap initializing ... ");
+      Timing.startTime();
+    }
+    insideChart.reset();
+  }
+
+  @Override
+  protected void growChart(int numWords){
+    // nothing to do, cells are allocated on first write
+  }
+
+  @Override
+  protected void compactColumn(int right){
+    for (int left = nextLeft(right, -1); left >= 0; left = nextLeft(right, left)) {
+      long row = insideRow(left, right);
+      if(row >= 0 && insideChart.count(row)==0){
+        insideChart.release(longLinear(left, right));
+      }
+    }
+  }
+
+  @Override
+  protected void initOuterProbs() {
+    if(outsideChart == null){
+      outsideChart = new OffHeapChart(edgeSpaceSize, 1, operator.zero(), mapDir);
+    } else {
+      outsideChart.reset();
+    }
+  }
+
+  /**
+   * Row of cell [left, right], or -1 if the cell is empty
+   */
+  protected long insideRow(int left, int right){
+    return insideChart.row(longLinear(left, right));
+  }
+
+  private long outsideRow(int left, int right){
+    return (outsideChart==null) ? -1 : outsideChart.row(longLinear(left, right));
+  }
+
+  /**
+   * Number of bytes used by the chart outside of the heap
+   */
+  public long numOffHeapBytes(){
+    return insideChart.numBytes() + ((outsideChart==null) ? 0 : outsideChart.numBytes());
+  }
+
+  @Override
+  protected void chartPredict(int left, int right){
+    long row = insideRow(left, right);
+    if(row < 0){
+      return;
+    }
+    for (int edge = insideChart.nextEdge(row, -1); edge >= 0; edge = insideChart.nextEdge(row, edge)) {
+      // predict for right: left X -> \alpha . Y \beta
+      predictFromEdge(left, right, edge);
+    }
+  }
+
+  @Override
+  protected void addToChart(int left, int right, int edge, double forward, double inner) {
+    long row = insideChart.allocate(longLinear(left, right));
+    insideChart.put(row, FORWARD, edge, forward);
+    insideChart.put(row, INNER, edge, inner);
+
+    boolean isNew = insideChart.set(row, edge);
+    assert(isNew);
+  }
+
+  @Override
+  public boolean containsInsideEdge(int left, int right, int edge) {
+    long row = insideRow(left, right);
+    return row >= 0 && insideChart.contains(row, edge);
+  }
+
+  @Override
+  protected int insideChartCount(int left, int right) {
+    long row = insideRow(left, right);
+    return (row < 0) ? 0 : insideChart.count(row);
+  }
+
+  @Override
+  protected void removeInsideEdge(int left, int right, int edge) {
+    long row = insideRow(left, right);
+    if(row >= 0){
+      insideChart.remove(row, edge);
+    }
+  }
+
+  @Override
+  public int nextInsideEdge(int left, int right, int edge) {
+    long row = insideRow(left, right);
+    return (row < 0) ? -1 : insideChart.nextEdge(row, edge);
+  }
+
+  @Override
+  public Set<Integer> listInsideEdges(int left, int right) {
+    Set<Integer> edges = new HashSet<Integer>();
+    for (int edge = nextInsideEdge(left, right, -1); edge >= 0; edge = nextInsideEdge(left, right, edge)) {
+      edges.add(edge);
+    }
+    return edges;
+  }
+
+  @Override
+  public boolean containsOutsideEdge(int left, int right, int edge) {
+    long row = outsideRow(left, right);
+    return row >= 0 && outsideChart.contains(row, edge);
+  }
+
+  @Override
+  protected int outsideChartCount(int left, int right) {
+    long row = outsideRow(left, right);
+    return (row < 0) ? 0 : outsideChart.count(row);
+  }
+
+  @Override
+  public int nextOutsideEdge(int left, int right, int edge) {
+    long row = outsideRow(left, right);
+    return (row < 0) ? -1 : outsideChart.nextEdge(row, edge);
+  }
+
+  @Override
+  public Set<Integer> listOutsideEdges(int left, int right) {
+    Set<Integer> edges = new HashSet<Integer>();
+    for (int edge = nextOutsideEdge(left, right, -1); edge >= 0; edge = nextOutsideEdge(left, right, edge)) {
+      edges.add(edge);
+    }
+    return edges;
+  }
+
+  /****************************/
+  /** Temporary prob methods **/
+  /***************************/
+  /** Used as holding zone for predictions, kept on the heap since it's only one cell **/
+  protected final double[] predictedForwardProb;
+  protected final double[] predictedInnerProb;
+  protected final long[] predictedEntries;
+  protected final IntList predictedEdges = new IntList(); // edges set in predictedEntries
+
+  @Override
+  protected void initPredictTmpScores(int right) {
+    for (int i = 0; i < predictedEdges.size(); i++) {
+      int edge = predictedEdges.get(i);
+      predictedForwardProb[edge] = operator.zero();
+      predictedInnerProb[edge] = operator.zero();
+      Bits.clear(predictedEntries, edge);
+    }
+    predictedEdges.clear();
+  }
+
+  @Override
+  protected void addPredictTmpForwardScore(int edge, double score) {
+    if(Bits.set(predictedEntries, edge)){
+      predictedEdges.add(edge);
+    }
+    predictedForwardProb[edge] = operator.add(predictedForwardProb[edge], score);
+  }
+
+  @Override
+  protected void addPredictTmpInnerScore(int edge, double score) {
+    predictedInnerProb[edge] = score;
+  }
+
+  @Override
+  protected void storePredictTmpScores(int right) {
+    // replace old entries with recently predicted entries
+    // all predictions will have the form right: right Y -> _
+    long row = insideChart.allocate(longLinear(right, right));
+    insideChart.clearRow(row);
+    for (int i = 0; i < predictedEdges.size(); i++) {
+      int edge = predictedEdges.get(i);
+      insideChart.set(row, edge);
+      insideChart.put(row, FORWARD, edge, predictedForwardProb[edge]);
+      insideChart.put(row, INNER, edge, predictedInnerProb[edge]);
+    }
+  }
+
+  /** Used as holding zones for completions, reused across all (left, middle, right) triples **/
+  protected ScoreAccumulator completions = new ScoreAccumulator(edgeSpaceSize, 2);
+
+  @Override
+  protected void initCompleteTmpScores() {
+    completions.clear();
+  }
+
+  @Override
+  protected void initCompleteTmpScores(int edge) {
+    completions.touch(edge);
+  }
+
+  @Override
+  protected void addCompleteTmpForwardScore(int edge, double score) {
+    completions.add(edge, FORWARD, score);
+  }
+
+  @Override
+  protected void addCompleteTmpInnerScore(int edge, double score) {
+    completions.add(edge, INNER, score);
+  }
+
+  @Override
+  protected void storeCompleteTmpScores(int left, int right) {
+    int numEdges = completions.numEdges();
+    if(numEdges==0){ // nothing completed, leave the cell untouched
+      return;
+    }
+
+    long row = insideChart.allocate(longLinear(left, right));
+    for (int k = 0; k < numEdges; k++) {
+      int edge = completions.edgeAt(k);
+      insideChart.set(row, edge);
+
+      if(completions.count(edge, FORWARD) > 0){
+        insideChart.put(row, FORWARD, edge, operator.add(completions.sum(edge, FORWARD, operator), insideChart.get(row, FORWARD, edge)));
+      }
+      if(completions.count(edge, INNER) > 0){
+        insideChart.put(row, INNER, edge, operator.add(completions.sum(edge, INNER, operator), insideChart.get(row, INNER, edge)));
+      }
+    }
+  }
+
+  /****************************/
+  /** Forward probabilities **/
+  /***************************/
+  @Override
+  protected boolean isForwardCellEmpty(int left, int right) {
+    return insideChartCount(left, right)==0;
+  }
+
+  protected double getForwardScore(int left, int right, int edge){
+    long row = insideRow(left, right);
+    return (row < 0) ? operator.zero() : insideChart.get(row, FORWARD, edge);
+  }
+
+  protected void addForwardScore(int left, int right, int edge, double score){
+    long row = insideChart.allocate(longLinear(left, right));
+    insideChart.put(row, FORWARD, edge, operator.add(insideChart.get(row, FORWARD, edge), score));
+  }
+
+  /*************************/
+  /** Inner probabilities **/
+  /*************************/
+  public double getInnerScore(int left, int right, int edge){
+    long row = insideRow(left, right);
+    return (row < 0) ? operator.zero() : insideChart.get(row, INNER, edge);
+  }
+
+  protected void addInnerScore(int left, int right, int edge, double score){
+    long row = insideChart.allocate(longLinear(left, right));
+    insideChart.put(row, INNER, edge, operator.add(insideChart.get(row, INNER, edge), score));
+  }
+  
+  @Override
+  protected void addEdgeScores(int left, int right, int edge, double forwardScore, double innerScore){
+    super.addEdgeScores(left, right, edge, forwardScore, innerScore);
+    insideChart.set(insideChart.allocate(longLinear(left, right)), edge);
+  }
+
+  /*************************/
+  /** Outer probabilities **/
+  /*************************/
+  public double getOuterScore(int left, int right, int edge){
+    long row = outsideRow(left, right);
+    return (row < 0) ? operator.zero() : outsideChart.get(row, 0, edge);
+  }
+
+  @Override
+  protected void addOuterScore(int left, int right, int edge, double score) {
+    long row = outsideChart.allocate(longLinear(left, right));
+    outsideChart.put(row, 0, edge, operator.add(outsideChart.get(row, 0, edge), score));
+    outsideChart.set(row, edge);
+  }
+
+  /****************/
+  /** Debug info **/
+  /****************/
+  public String edgeScoreInfo(int left, int right, int edge){
+    return edgeScoreInfo(left, right, edge, getForwardScore(left, right, edge), getInnerScore(left, right, edge));
+  }
+  
+  /****************************************/
+  /** Kernels specialized per score type **/
+  /****************************************/
+  /**
+   * Off-heap parser for probabilities, see {@link EarleyParserDense.ProbKernel}
+   */
+  public static final class ProbKernel extends EarleyParserOffHeap {
+    public ProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options, File mapDir) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options, mapDir);
+      assert(operator instanceof ProbOperator);
+    }
+    
+    @Override
+    protected void chartPredict(int left, int right){
+      long row = insideRow(left, right);
+      if(verbose>=2 || row < 0){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      for (int edge = insideChart.nextEdge(row, -1); edge >= 0; edge = insideChart.nextEdge(row, edge)) {
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] += insideChart.get(row, FORWARD, edge);
+        }
+      }
+    }
+    
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          if(Bits.set(predictedEntries, newEdge)){
+            predictedEdges.add(newEdge);
+          }
+          predictedForwardProb[newEdge] = predictedForwardProb[newEdge] + forward*forwardMultipliers[p];
+          predictedInnerProb[newEdge] = innerMultipliers[p];
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
+    }
+    
+    @Override
+    protected void complete(int left, int middle, int right, int nextEdge, double inner) {
+      long row = insideRow(left, middle);
+      if(verbose>=2 || row < 0){
+        super.complete(left, middle, right, nextEdge, inner);
+        return;
+      }
+      
+      int tag = edgeSpace.mother(nextEdge);
+      int[] completionEdges = grammar.getCompletionEdges();
+      
+      double[] completionScores = grammar.getCompletionScores();
+      
+      for (int c = grammar.completionStart(tag), end = grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c]; // middle: left X -> \alpha . Z \beta
+        if (insideChart.contains(row, prevEdge) && isWithinWidth(left, right, prevEdge)) {
+          double updateScore = completionScores[c]*inner;
+          double newForwardScore = insideChart.get(row, FORWARD, prevEdge)*updateScore;
+          double newInnerScore = insideChart.get(row, INNER, prevEdge)*updateScore;
+          int newEdge = edgeSpace.to(prevEdge);
+          completions.add(newEdge, FORWARD, newForwardScore);
+          completions.add(newEdge, INNER, newInnerScore);
+          addNewEdgeInfo(left, right, newEdge);
+          
+          if(options.decodeOpt==1){
+            addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
+          }
+          if (middle == right - 1) {
+            addPrefixProb(newForwardScore, left, middle, right, inner,
+                completionScores[c], prevEdge, -1, EarleyParserOptions.PCFG);
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Off-heap parser for log-probabilities, see {@link EarleyParserDense.ProbKernel}
+   */
+  public static final class LogProbKernel extends EarleyParserOffHeap {
+    public LogProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options, File mapDir) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options, mapDir);
+      assert(operator instanceof LogProbOperator);
+    }
+    
+    @Override
+    protected void chartPredict(int left, int right){
+      long row = insideRow(left, right);
+      if(verbose>=2 || row < 0){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      for (int edge = insideChart.nextEdge(row, -1); edge >= 0; edge = insideChart.nextEdge(row, edge)) {
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] = SloppyMath.logAdd(viaForwardScores[via], insideChart.get(row, FORWARD, edge));
+        }
+      }
+    }
+    
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          if(Bits.set(predictedEntries, newEdge)){
+            predictedEdges.add(newEdge);
+          }
+          predictedForwardProb[newEdge] = SloppyMath.logAdd(predictedForwardProb[newEdge], forward + forwardMultipliers[p]);
+          predictedInnerProb[newEdge] = innerMultipliers[p];
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
+    }
+    
+    @Override
+    protected void complete(int left, int middle, int right, int nextEdge, double inner) {
+      long row = insideRow(left, middle);
+      if(verbose>=2 || row < 0){
+        super.complete(left, middle, right, nextEdge, inner);
+        return;
+      }
+      
+      int tag = edgeSpace.mother(nextEdge);
+      int[] completionEdges = grammar.getCompletionEdges();
+      
+      double[] completionScores = grammar.getCompletionScores();
+      
+      for (int c = grammar.completionStart(tag), end = grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c]; // middle: left X -> \alpha . Z \beta
+        if (insideChart.contains(row, prevEdge) && isWithinWidth(left, right, prevEdge)) {
+          double updateScore = completionScores[c] + inner;
+          double newForwardScore = insideChart.get(row, FORWARD, prevEdge) + updateScore;
+          double newInnerScore = insideChart.get(row, INNER, prevEdge) + updateScore;
+          int newEdge = edgeSpace.to(prevEdge);
+          completions.add(newEdge, FORWARD, newForwardScore);
+          completions.add(newEdge, INNER, newInnerScore);
+          addNewEdgeInfo(left, right, newEdge);
+          
+          if(options.decodeOpt==1){
+            addBacktrack(left, middle, right, nextEdge, newEdge, newInnerScore);
+          }
+          if (middle == right - 1) {
+            addPrefixProb(newForwardScore, left, middle, right, inner,
+                completionScores[c], prevEdge, -1, EarleyParserOptions.PCFG);
+          }
+        }
+      }
+    }
+  }
+}
@@ -1,10 +1,19 @@
 package parser;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import base.BiasProbRule;
+import base.FragmentRule;
 import base.ProbRule;
 
 /**
- * Right now, we assume that all Earley Parser instances will share the same settings.
- * 
+ * Immutable settings of the Earley parsers built by one {@link EarleyParserGenerator}.
+ * Each generator owns an instance and hands it to every parser it creates, so
+ * generators with different grammars or modes can be used side by side in one JVM.
+ *
  * @author lmthang
  *
  */
@@ -15,24 +24,207 @@ public class EarleyParserOptions {
   public static final int PCFG = 0;
   public static final int AG = 1;
   public static final int FG = 2;
-  
+
   /** flags **/
-  public static boolean isScaling = true;
-  public static boolean isLogProb = false;
-  public static boolean isFastFG = true;  
-  
+  public final boolean isScaling;
+  public final boolean isLogProb;
+
   /** general info **/
   public static final String ORIG_SYMBOL = "";
-  public static int origSymbolIndex; // indexed by TAG_INDEX
-  public static String rootSymbol; // default: ROOT, could be changed
-  public static int rootSymbolIndex;
-  public static ProbRule rootRule; // "" -> ROOT
-  
+  public final int origSymbolIndex; // indexed by TAG_INDEX
+  public final String rootSymbol; // default: ROOT, could be changed
+  public final int rootSymbolIndex;
+  public final ProbRule rootRule; // "" -> ROOT
+
 
   /** inside-outside **/
-  public static int insideOutsideOpt = 0; // 1: EM, 2: VB
-  
+  public final int insideOutsideOpt; // 1: EM, 2: VB
+
   /** decode options **/
-  public static String decodeOptStr = "";
-  public static int decodeOpt = 0; // 1: Viterbi (Label Tree), 2: Marginal Decoding (Label Recall), 3: Social Marginal Decoding
+  public final String decodeOptStr;
+  public final int decodeOpt; // 1: Viterbi (Label Tree), 2: Marginal Decoding (Label Recall), 3: Social Marginal Decoding
+
+  /** pruning options (approximate parsing), off by default **/
+  public final double pruneThreshold; // if > 0, drop active edges [left, right] whose forward prob < pruneThreshold * prefix prob of right
+  public final int pruneTopK; // if > 0, keep only the pruneTopK active edges with highest forward probs in each cell
+
+  /** width-bounded parsing, off by default **/
+  public final int maxWidth; // if > 0, only build edges spanning at most maxWidth words, except for exempt nonterminals
+  public final Set<String> widthExemptSymbols; // regexes of nonterminals whose edges can be longer, the root symbol is always exempt
+
+  /** intra-sentence parallelism, off by default **/
+  public final int numWorkers; // if > 1, completion and prediction within a column are split across that many fork-join workers
+  public final boolean isExactParallel; // add up parallel predictions in serial order, so that scores are bit-identical to serial parsing
+
+  /** lookahead-filtered prediction, off by default **/
+  public final boolean isLookahead; // when the whole sentence is known, don't predict edges that can't start with the next word
+
+  /** utterance-boundary constraints for discourses, off by default **/
+  public final Set<String> boundaryPrefixes; // prefixes of nonterminals, e.g., "Sentence", whose edges can't cross utterance boundaries
+
+  /**
+   * @param ioOptStr "em", "vb", or anything else for no inside-outside
+   * @param decodeOptStr "viterbi", "marginal", "socialmarginal", or "" for no decoding
+   */
+  public EarleyParserOptions(String rootSymbol, int rootSymbolIndex, int origSymbolIndex,
+      boolean isScaling, boolean isLogProb, String ioOptStr, String decodeOptStr) {
+    this.rootSymbol = rootSymbol;
+    this.rootSymbolIndex = rootSymbolIndex;
+    this.origSymbolIndex = origSymbolIndex;
+    this.isScaling = isScaling;
+    this.isLogProb = isLogProb;
+    this.decodeOptStr = decodeOptStr;
+
+    // induction option
+    if(ioOptStr.equalsIgnoreCase("em")){
+      insideOutsideOpt = 1;
+    } else if(ioOptStr.equalsIgnoreCase("vb")){
+      insideOutsideOpt = 2;
+    } else {
+      insideOutsideOpt = 0;
+    }
+
+    // decode option
+    if(decodeOptStr.equalsIgnoreCase(VITERBI_OPT)){
+      decodeOpt = 1;
+    } else if(decodeOptStr.equalsIgnoreCase(MARGINAL_OPT)
+        || decodeOptStr.equalsIgnoreCase(SOCIALMARGINAL_OPT)){
+      decodeOpt = 2;
+    } else {
+      decodeOpt = 0;
+    }
+
+    // root rule
+    if(insideOutsideOpt==2){
+      rootRule = new BiasProbRule(new FragmentRule(origSymbolIndex, rootSymbolIndex, true), 1.0, 1.0);
+    } else {
+      rootRule = new ProbRule(new FragmentRule(origSymbolIndex, rootSymbolIndex, true), 1.0);
+    }
+
+    pruneThreshold = 0.0;
+    pruneTopK = 0;
+    maxWidth = 0;
+    widthExemptSymbols = Collections.emptySet();
+    numWorkers = 1;
+    isExactParallel = false;
+    isLookahead = false;
+    boundaryPrefixes = Collections.emptySet();
+  }
+
+  // copy with different pruning, width, parallelism, lookahead, and boundary options
+  private EarleyParserOptions(EarleyParserOptions options, double pruneThreshold, int pruneTopK,
+      int maxWidth, Set<String> widthExemptSymbols, int numWorkers, boolean isExactParallel, boolean isLookahead,
+      Set<String> boundaryPrefixes) {
+    rootSymbol = options.rootSymbol;
+    rootSymbolIndex = options.rootSymbolIndex;
+    origSymbolIndex = options.origSymbolIndex;
+    isScaling = options.isScaling;
+    isLogProb = options.isLogProb;
+    decodeOptStr = options.decodeOptStr;
+    insideOutsideOpt = options.insideOutsideOpt;
+    decodeOpt = options.decodeOpt;
+    rootRule = options.rootRule; // shared, it's part of the generator's rule set
+    this.pruneThreshold = pruneThreshold;
+    this.pruneTopK = pruneTopK;
+    this.maxWidth = maxWidth;
+    this.widthExemptSymbols = widthExemptSymbols;
+    this.numWorkers = numWorkers;
+    this.isExactParallel = isExactParallel;
+    this.isLookahead = isLookahead;
+    this.boundaryPrefixes = boundaryPrefixes;
+  }
+
+  /**
+   * Same options, but with the given pruning settings
+   */
+  public EarleyParserOptions withPruning(double pruneThreshold, int pruneTopK){
+    return new EarleyParserOptions(this, pruneThreshold, pruneTopK, maxWidth, widthExemptSymbols, numWorkers, isExactParallel, isLookahead, boundaryPrefixes);
+  }
+
+  /**
+   * Same options, but with the given width bound
+   *
+   * @param maxWidth max number of words an edge can span, 0 for no bound
+   * @param exemptSymbols regexes of nonterminals, e.g., "Discourse.*", whose edges can be longer
+   */
+  public EarleyParserOptions withMaxWidth(int maxWidth, Collection<String> exemptSymbols){
+    Set<String> symbols = Collections.unmodifiableSet(new HashSet<String>(exemptSymbols));
+    return new EarleyParserOptions(this, pruneThreshold, pruneTopK, maxWidth, symbols, numWorkers, isExactParallel, isLookahead, boundaryPrefixes);
+  }
+
+  /**
+   * Same options, but completion and prediction within a column use the given number of workers
+   *
+   * @param numWorkers number of fork-join workers per parser, 1 to parse serially
+   * @param isExact if true, parallel predictions are added up in serial order (slower reduction, but 
+   *   bit-identical scores), otherwise each worker sums its own and the sums are added up
+   */
+  public EarleyParserOptions withParallelism(int numWorkers, boolean isExact){
+    return new EarleyParserOptions(this, pruneThreshold, pruneTopK, maxWidth, widthExemptSymbols, 
+        Math.max(1, numWorkers), isExact, isLookahead, boundaryPrefixes);
+  }
+
+  /**
+   * Same options, but with lookahead-filtered prediction on or off. The filter only applies when
+   * parsing whole sentences, incremental parsing always predicts everything.
+   */
+  public EarleyParserOptions withLookahead(boolean isLookahead){
+    return new EarleyParserOptions(this, pruneThreshold, pruneTopK, maxWidth, widthExemptSymbols, 
+        numWorkers, isExactParallel, isLookahead, boundaryPrefixes);
+  }
+
+  /**
+   * Same options, but edges of nonterminals with the given prefixes can't cross utterance boundaries,
+   * see {@link UtteranceBoundaries}. Like lookahead, the constraint only applies when parsing whole sentences.
+   *
+   * @param prefixes e.g., "Sentence", "Topic", "Word", empty to turn the constraint off
+   */
+  public EarleyParserOptions withBoundaryConstraint(Collection<String> prefixes){
+    Set<String> symbols = Collections.unmodifiableSet(new HashSet<String>(prefixes));
+    return new EarleyParserOptions(this, pruneThreshold, pruneTopK, maxWidth, widthExemptSymbols,
+        numWorkers, isExactParallel, isLookahead, symbols);
+  }
+
+  public boolean isPruning(){
+    return pruneThreshold>0 || pruneTopK>0;
+  }
+
+  public boolean isWidthBounded(){
+    return maxWidth>0;
+  }
+
+  public boolean isParallel(){
+    return numWorkers>1;
+  }
+
+  public boolean isBoundaryConstrained(){
+    return boundaryPrefixes.size()>0;
+  }
+
+  /**
+   * Whether edges of the given nonterminal must lie within one utterance
+   */
+  public boolean isBoundaryConstrained(String symbol){
+    for (String prefix : boundaryPrefixes) {
+      if(symbol.startsWith(prefix)){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether edges of the given nonterminal can span more than maxWidth words
+   */
+  public boolean isWidthExempt(String symbol){
+    if(symbol.equals(ORIG_SYMBOL) || symbol.equals(rootSymbol)){
+      return true;
+    }
+    for (String regex : widthExemptSymbols) {
+      if(symbol.matches(regex)){
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -3,15 +3,22 @@
  */
 package parser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import util.DoubleList;
+import util.IntMultiMap;
+import util.LogProbOperator;
 import util.Operator;
+import util.ProbOperator;
 import base.BaseLexicon;
 import base.RuleSet;
+import edu.stanford.nlp.math.SloppyMath;
 import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Timing;
 
@@ -20,27 +27,41 @@ import edu.stanford.nlp.util.Timing;
  *
  */
 public class EarleyParserSparse extends EarleyParser {
-  protected Map<Integer, Map<Integer, Double>> forwardProb;   // forwardProb.get(linear(left, right)).get(edge)
-  protected Map<Integer, Map<Integer, Double>> innerProb;     // innerProb.get(linear(left, right)).get(edge)
+  protected static final int FORWARD = 0;
+  protected static final int INNER = 1;
+  
+  // insideChart[right][left]: forward and inner scores of edges spanning [left, right]
+  // columns and cells are created on demand, and reused across sentences
+  protected ChartCell[][] insideChart = new ChartCell[0][];
 
   /* for inside-outside computation, currently works when isLeftWildcard=false */
-  protected Map<Integer, Map<Integer, Double>> outerProb;     // innerProb.get(linear(left, right)).get(edge)
+  protected ChartCell[][] outsideChart = new ChartCell[0][]; // outsideChart[right][left]: outer scores of edges spanning [left, right]
+  
+  // cleared cells of previous sentences, by number of scores
+  private List<ChartCell> freeInsideCells = new ArrayList<ChartCell>();
+  private List<ChartCell> freeOutsideCells = new ArrayList<ChartCell>();
+  private int numInsideColumns = 0; // number of columns used by the previous sentence
+  private int numOutsideColumns = 0;
 
   
   public EarleyParserSparse(Grammar grammar, EdgeSpace edgeSpace,
 			BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
 			Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
 			Operator operator, Set<String> outputMeasures,
-			Set<String> internalMeasures, boolean isSeparateRuleInTrie) {
+			Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
 		super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
 				parserNonterminalMap, operator, outputMeasures, internalMeasures,
-				isSeparateRuleInTrie);
-		isFastComplete = true;
+				isSeparateRuleInTrie, options, true); // isFastComplete
 		if(verbose>=0){
 			System.err.println("# EarleyParserSparse");
 		}
 	}
 
+  @Override
+  protected boolean isEdgeSpaceGrowable(){
+    return true;
+  }
+  
   protected void sentInit(){
     super.sentInit();
     
@@ -49,23 +70,113 @@ public class EarleyParserSparse extends EarleyParser {
      Timing.startTime();
     }
   
-    forwardProb = new HashMap<Integer, Map<Integer,Double>>();
-    innerProb = new HashMap<Integer, Map<Integer,Double>>();
+    insideChart = resetChart(insideChart, numInsideColumns, freeInsideCells);
+    numInsideColumns = numWords+1;
+  }
+  
+  @Override
+  protected void growChart(int numWords){
+    if(insideChart.length < numWords+1){
+      insideChart = Arrays.copyOf(insideChart, numWords+1);
+    }
+    numInsideColumns = Math.max(numInsideColumns, numWords+1);
+  }
+
+  @Override
+  protected void compactColumn(int right){
+    ChartCell[] column = insideChart[right];
+    if(column == null){
+      return;
+    }
+    
+    boolean isEmpty = true;
+    for (int left = nextLeft(right, -1); left >= 0; left = nextLeft(right, left)) {
+      if(column[left] != null){
+        if(column[left].size()==0){
+          recycleCell(column[left], freeInsideCells);
+          column[left] = null;
+        } else {
+          isEmpty = false;
+        }
+      }
+    }
+    if(isEmpty){
+      insideChart[right] = null;
+    }
   }
 
   @Override
   protected void initOuterProbs() {
-    outerProb = new HashMap<Integer, Map<Integer,Double>>();
+    outsideChart = resetChart(outsideChart, numOutsideColumns, freeOutsideCells);
+    numOutsideColumns = numWords+1;
+  }
+  
+  /**
+   * Recycle the cells of the previous sentence and make room for numWords+1 columns
+   */
+  private ChartCell[][] resetChart(ChartCell[][] chart, int numColumns, List<ChartCell> freeCells){
+    for (int right = 0; right < numColumns; right++) {
+      ChartCell[] column = chart[right];
+      if(column != null){
+        for (int left = 0; left < column.length; left++) {
+          if(column[left] != null){
+            recycleCell(column[left], freeCells);
+            column[left] = null;
+          }
+        }
+      }
+    }
+    
+    if(chart.length < numWords+1){
+      chart = Arrays.copyOf(chart, numWords+1);
+    }
+    return chart;
+  }
+  
+  private void recycleCell(ChartCell cell, List<ChartCell> freeCells){
+    cell.clear();
+    freeCells.add(cell);
+  }
+  
+  private ChartCell newCell(int numScores){
+    List<ChartCell> freeCells = (numScores==2) ? freeInsideCells : freeOutsideCells;
+    return freeCells.isEmpty() ? new ChartCell(numScores, operator.zero()) : freeCells.remove(freeCells.size()-1);
   }
 
+  /**
+   * Cell [left, right] of chart, or null if it hasn't been created
+   */
+  protected ChartCell getCell(ChartCell[][] chart, int left, int right){
+    ChartCell[] column = chart[right];
+    return (column==null) ? null : column[left];
+  }
+  
+  /**
+   * Cell [left, right] of chart, created if necessary
+   */
+  protected ChartCell cell(ChartCell[][] chart, int left, int right, int numScores){
+    ChartCell[] column = chart[right];
+    if(column == null){
+      column = new ChartCell[right+1];
+      chart[right] = column;
+    }
+    
+    if(column[left] == null){
+      column[left] = newCell(numScores);
+    }
+    return column[left];
+  }
+  
   @Override
   protected void chartPredict(int left, int right){
-    Set<Integer> edges = forwardProb.containsKey(linear(left, right)) ? 
-    		forwardProb.get(linear(left, right)).keySet() : new HashSet<Integer>();    
-  	
-  	for (int edge : edges) {
+    ChartCell cell = getCell(insideChart, left, right);
+    if(cell == null){
+      return;
+    }
+    
+    for (int slot = cell.nextSlot(-1); slot >= 0; slot = cell.nextSlot(slot)) {
       // predict for right: left X -> \alpha . Y \beta
-      predictFromEdge(left, right, edge);
+      predictFromEdge(left, right, cell.edgeAt(slot));
     }
   }
   
@@ -75,15 +186,10 @@ public class EarleyParserSparse extends EarleyParser {
   @Override
   protected void addToChart(int left, int right, int edge, double logForward,
       double logInner) {
-    int lrIndex = linear(left, right); // left right index
-    
-    if(!forwardProb.containsKey(lrIndex)){
-      forwardProb.put(lrIndex, new HashMap<Integer, Double>());
-      innerProb.put(lrIndex, new HashMap<Integer, Double>());
-    }
-    assert(!forwardProb.get(lrIndex).containsKey(edge));
-    forwardProb.get(lrIndex).put(edge, logForward);
-    innerProb.get(lrIndex).put(edge, logInner);
+    ChartCell cell = cell(insideChart, left, right, 2);
+    assert(!cell.contains(edge));
+    cell.put(edge, FORWARD, logForward);
+    cell.put(edge, INNER, logInner);
   }
   
   
@@ -97,81 +203,86 @@ public class EarleyParserSparse extends EarleyParser {
   @Override
   protected void storeCompleteTmpScores(int left, int right) {
     // completions yield edges: right: left X -> _ Y . _
-    int lrIndex = linear(left, right);
-    if(!forwardProb.containsKey(lrIndex)){
-      forwardProb.put(lrIndex, new HashMap<Integer, Double>());
-      innerProb.put(lrIndex, new HashMap<Integer, Double>());
-    }
-    storeProbs(theseForwardProb, forwardProb.get(lrIndex));
-    storeProbs(theseInnerProb, innerProb.get(lrIndex));
+    ChartCell cell = cell(insideChart, left, right, 2);
+    storeProbs(theseForwardProb, cell, FORWARD);
+    storeProbs(theseInnerProb, cell, INNER);
   }
     
-  protected void storeProbs(Map<Integer, DoubleList> dl, Map<Integer, Double> probs) {
+  protected void storeProbs(Map<Integer, DoubleList> dl, ChartCell cell, int scoreIndex) {
     
     for (int edge : dl.keySet()) {
-      double[] temps = dl.get(edge).toArray();
-      if (temps.length > 0) {
-        double currentValue = (probs.containsKey(edge)) ? probs.get(edge) : operator.zero();
-        probs.put(edge, operator.add(operator.arraySum(temps), currentValue));
+      DoubleList temps = dl.get(edge);
+      if (temps.size() > 0) {
+        cell.add(edge, scoreIndex, operator.arraySum(temps.rawArray(), temps.size()), operator);
       }
     }
   }
   
   @Override
   public String edgeScoreInfo(int left, int right, int edge) {
-    int index = linear(left, right);
-    if(forwardProb.containsKey(index) && forwardProb.get(index).containsKey(edge)){
-      return edgeScoreInfo(left, right, edge, forwardProb.get(index).get(edge), innerProb.get(index).get(edge));
+    ChartCell cell = getCell(insideChart, left, right);
+    if(cell != null && cell.contains(edge)){
+      return edgeScoreInfo(left, right, edge, cell.get(edge, FORWARD), cell.get(edge, INNER));
     } else {
       return edgeScoreInfo(left, right, edge, operator.zero(), operator.zero());
     }    
   }
   
   @Override
-  protected boolean containsInsideEdge(int left, int right, int edge) {
-    return forwardProb.containsKey(linear(left, right)) && forwardProb.get(linear(left, right)).containsKey(edge);
+  public boolean containsInsideEdge(int left, int right, int edge) {
+    ChartCell cell = getCell(insideChart, left, right);
+    return cell != null && cell.contains(edge);
   }
 
   @Override
-  protected int insideChartCount(int left, int right) {
-    if(forwardProb.containsKey(linear(left, right))){
-      return forwardProb.get(linear(left, right)).size();
-    } else {
-      return 0;
+  protected void removeInsideEdge(int left, int right, int edge) {
+    ChartCell cell = getCell(insideChart, left, right);
+    if(cell != null){
+      cell.remove(edge);
     }
   }
   
+  @Override
+  protected int insideChartCount(int left, int right) {
+    ChartCell cell = getCell(insideChart, left, right);
+    return (cell==null) ? 0 : cell.size();
+  }
+  
+  @Override
+  public int nextInsideEdge(int left, int right, int edge) {
+    ChartCell cell = getCell(insideChart, left, right);
+    return (cell==null) ? -1 : cell.nextEdge(edge);
+  }
+  
   @Override
   public Set<Integer> listInsideEdges(int left, int right) {
-    if(forwardProb.containsKey(linear(left, right))){
-      return forwardProb.get(linear(left, right)).keySet();
-    } else {
-      return new HashSet<Integer>();
-    }
+    ChartCell cell = getCell(insideChart, left, right);
+    return (cell==null) ? new HashSet<Integer>() : cell.edgeSet();
   }
   
   @Override
-  protected boolean containsOutsideEdge(int left, int right, int edge) {
-    return outerProb.containsKey(linear(left, right)) && outerProb.get(linear(left, right)).containsKey(edge);
+  public boolean containsOutsideEdge(int left, int right, int edge) {
+    ChartCell cell = getCell(outsideChart, left, right);
+    return cell != null && cell.contains(edge);
   }
   
   
   @Override
   protected int outsideChartCount(int left, int right) {
-    if(outerProb.containsKey(linear(left, right))){
-      return outerProb.get(linear(left, right)).size();
-    } else {
-      return 0;
-    }
+    ChartCell cell = getCell(outsideChart, left, right);
+    return (cell==null) ? 0 : cell.size();
   }
 
+  @Override
+  public int nextOutsideEdge(int left, int right, int edge) {
+    ChartCell cell = getCell(outsideChart, left, right);
+    return (cell==null) ? -1 : cell.nextEdge(edge);
+  }
+  
   @Override
   public Set<Integer> listOutsideEdges(int left, int right) {
-    if(outerProb.containsKey(linear(left, right))){
-      return outerProb.get(linear(left, right)).keySet();
-    } else {
-      return new HashSet<Integer>();
-    }
+    ChartCell cell = getCell(outsideChart, left, right);
+    return (cell==null) ? new HashSet<Integer>() : cell.edgeSet();
   }
   
   /****************************/
@@ -179,23 +290,21 @@ public class EarleyParserSparse extends EarleyParser {
   /***************************/
   
   /** Used as holding zone for predictions **/
-  private Map<Integer, Double> predictedForwardProb;
-  private Map<Integer, Double> predictedInnerProb;
+  protected ChartCell predictedCell;
   
   @Override
-  protected void initPredictTmpScores() {
-    predictedForwardProb = new HashMap<Integer, Double>();
-    predictedInnerProb = new HashMap<Integer, Double>(); 
+  protected void initPredictTmpScores(int right) {
+    predictedCell = newCell(2);
   }
 
   @Override
   protected void addPredictTmpForwardScore(int edge, double score) {
-    addScore(predictedForwardProb, edge, score);
+    predictedCell.add(edge, FORWARD, score, operator);
   }
 
   @Override
   protected void addPredictTmpInnerScore(int edge, double score) {
-    predictedInnerProb.put(edge, score);
+    predictedCell.put(edge, INNER, score);
   }
 
   
@@ -203,9 +312,8 @@ public class EarleyParserSparse extends EarleyParser {
   protected void storePredictTmpScores(int right) {
     // replace old entries with recently predicted entries
     // all predictions will have the form right: right Y -> _
-    int rrIndex = linear(right, right); // right right index
-    forwardProb.put(rrIndex, predictedForwardProb);
-    innerProb.put(rrIndex, predictedInnerProb);
+    recycleCell(cell(insideChart, right, right, 2), freeInsideCells); // make sure column right exists
+    insideChart[right][right] = predictedCell;
   }
   
   /** Used as holding zones for completions **/
@@ -235,31 +343,16 @@ public class EarleyParserSparse extends EarleyParser {
   /***************************/
   @Override
   protected boolean isForwardCellEmpty(int left, int right) {
-    return !forwardProb.containsKey(linear(left, right));
+    return getCell(insideChart, left, right) == null;
   }
   
   protected double getForwardScore(int left, int right, int edge){
-    int lrIndex = linear(left, right);
-    
-    if(!forwardProb.containsKey(lrIndex)){
-      return operator.zero();
-    }
-    
-    if(!forwardProb.get(lrIndex).containsKey(edge)){
-      return operator.zero();
-    } else {
-      return forwardProb.get(lrIndex).get(edge);
-    }
+    ChartCell cell = getCell(insideChart, left, right);
+    return (cell==null) ? operator.zero() : cell.get(edge, FORWARD);
   }
 
   protected void addForwardScore(int left, int right, int edge, double score){
-    int lrIndex = linear(left, right);
-    
-    if(!forwardProb.containsKey(lrIndex)){
-      forwardProb.put(lrIndex, new HashMap<Integer, Double>());
-    }
-    
-    addScore(forwardProb.get(lrIndex), edge, score);
+    cell(insideChart, left, right, 2).add(edge, FORWARD, score, operator);
   }
   
   
@@ -267,53 +360,213 @@ public class EarleyParserSparse extends EarleyParser {
   /** Inner probabilities **/
   /*************************/
   public double getInnerScore(int left, int right, int edge){
-    int lrIndex = linear(left, right);
-    if(!innerProb.containsKey(lrIndex)){
-      return operator.zero();
-    }
-    
-    if(!innerProb.get(lrIndex).containsKey(edge)){
-      return operator.zero();
-    } else {
-      return innerProb.get(lrIndex).get(edge);
-    }
+    ChartCell cell = getCell(insideChart, left, right);
+    return (cell==null) ? operator.zero() : cell.get(edge, INNER);
   }
   
   protected void addInnerScore(int left, int right, int edge, double score){
-    int lrIndex = linear(left, right);
-    
-    if(!innerProb.containsKey(lrIndex)){
-      innerProb.put(lrIndex, new HashMap<Integer, Double>());
-    }
-    
-    addScore(innerProb.get(lrIndex), edge, score);
+    cell(insideChart, left, right, 2).add(edge, INNER, score, operator);
   }
   
   /*************************/
   /** Outside computation **/
   /*************************/
   public double getOuterScore(int left, int right, int edge){
-    int lrIndex = linear(left, right);
+    ChartCell cell = getCell(outsideChart, left, right);
+    return (cell==null) ? operator.zero() : cell.get(edge, 0);
+  }
+  
+  protected void addOuterScore(int left, int right, int edge, double score){
+    cell(outsideChart, left, right, 1).add(edge, 0, score, operator);
+  }
+
+  /****************************************/
+  /** Kernels specialized per score type **/
+  /****************************************/
+  /**
+   * Sparse parser for probabilities, see {@link EarleyParserDense.ProbKernel}
+   */
+  public static final class ProbKernel extends EarleyParserSparse {
+    public ProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options);
+      assert(operator instanceof ProbOperator);
+    }
     
-    if(!outerProb.containsKey(lrIndex)){
-      return operator.zero();
+    @Override
+    protected void chartPredict(int left, int right){
+      ChartCell cell = getCell(insideChart, left, right);
+      if(verbose>=2 || cell == null){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      for (int slot = cell.nextSlot(-1); slot >= 0; slot = cell.nextSlot(slot)) {
+        int edge = cell.edgeAt(slot);
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] += cell.scoreAt(slot, FORWARD);
+        }
+      }
     }
     
-    if(!outerProb.get(lrIndex).containsKey(edge)){
-      return operator.zero();
-    } else {
-      return outerProb.get(lrIndex).get(edge);
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          int predictedSlot = predictedCell.insert(newEdge);
+          predictedCell.setScoreAt(predictedSlot, FORWARD, 
+              predictedCell.scoreAt(predictedSlot, FORWARD) + forward*forwardMultipliers[p]);
+          predictedCell.setScoreAt(predictedSlot, INNER, innerMultipliers[p]);
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
+    }
+    
+    @Override
+    protected void fastCompleteLefts(int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+        double inner, IntMultiMap activeEdges, int slot){
+      if(verbose>=3){
+        super.fastCompleteLefts(middle, right, nextEdge, prevEdge, completionScore, inner, activeEdges, slot);
+        return;
+      }
+      
+      double updateScore = completionScore*inner;
+      int numLefts = activeEdges.sizeAt(slot);
+      for (int i = 0; i < numLefts; i++) {
+        int left = activeEdges.valueAt(slot, i); // middle : left X -> \alpha . Z \beta
+        if(!isWithinWidth(left, right, prevEdge)){
+          continue;
+        }
+        ChartCell cell = getCell(insideChart, left, middle);
+        int cellSlot = (cell==null) ? -1 : cell.slotOf(prevEdge);
+        double newForwardScore = (cellSlot<0) ? 0.0 : cell.scoreAt(cellSlot, FORWARD)*updateScore;
+        double newInnerScore = (cellSlot<0) ? 0.0 : cell.scoreAt(cellSlot, INNER)*updateScore;
+        fastCompleteEdge(left, middle, right, nextEdge, prevEdge, completionScore, inner, 
+            newForwardScore, newInnerScore);
+      }
     }
   }
   
-  protected void addOuterScore(int left, int right, int edge, double score){
-    int lrIndex = linear(left, right);
+  /**
+   * Sparse parser for log-probabilities, see {@link EarleyParserDense.ProbKernel}
+   */
+  public static final class LogProbKernel extends EarleyParserSparse {
+    public LogProbKernel(Grammar grammar, EdgeSpace edgeSpace,
+        BaseLexicon lex, RuleSet ruleSet, Index<String> parserWordIndex,
+        Index<String> parserTagIndex, Map<Integer, Integer> parserNonterminalMap,
+        Operator operator, Set<String> outputMeasures,
+        Set<String> internalMeasures, boolean isSeparateRuleInTrie, EarleyParserOptions options) {
+      super(grammar, edgeSpace, lex, ruleSet, parserWordIndex, parserTagIndex,
+          parserNonterminalMap, operator, outputMeasures, internalMeasures,
+          isSeparateRuleInTrie, options);
+      assert(operator instanceof LogProbOperator);
+    }
+    
+    @Override
+    protected void chartPredict(int left, int right){
+      ChartCell cell = getCell(insideChart, left, right);
+      if(verbose>=2 || cell == null){
+        super.chartPredict(left, right);
+        return;
+      }
+      
+      for (int slot = cell.nextSlot(-1); slot >= 0; slot = cell.nextSlot(slot)) {
+        int edge = cell.edgeAt(slot);
+        int via = grammar.getPredictionVia(edge);
+        if(via>=0){
+          if(!isVia[via]){
+            isVia[via] = true;
+            viaCategories.add(via);
+          }
+          viaForwardScores[via] = SloppyMath.logAdd(viaForwardScores[via], cell.scoreAt(slot, FORWARD));
+        }
+      }
+    }
     
-    if(!outerProb.containsKey(lrIndex)){
-      outerProb.put(lrIndex, new HashMap<Integer, Double>());
+    @Override
+    protected void predictFromCategories(int right){
+      if(verbose>=2){
+        super.predictFromCategories(right);
+        return;
+      }
+      
+      int[] predictedStates = grammar.getPredictedStates();
+      double[] forwardMultipliers = grammar.getPredictionForwardMultipliers();
+      double[] innerMultipliers = grammar.getPredictionInnerMultipliers();
+      
+      for (int i = 0; i < viaCategories.size(); i++) {
+        int via = viaCategories.get(i);
+        if(isLookaheadColumn && !isLookaheadTag(via)){
+          continue;
+        }
+        double forward = viaForwardScores[via];
+        for (int p = grammar.predictionStart(via), end = grammar.predictionEnd(via); p < end; p++) {
+          int newEdge = predictedStates[p];
+          if(isLookaheadColumn && !isLookaheadEdge(newEdge)){
+            continue;
+          }
+          int predictedSlot = predictedCell.insert(newEdge);
+          predictedCell.setScoreAt(predictedSlot, FORWARD, 
+              SloppyMath.logAdd(predictedCell.scoreAt(predictedSlot, FORWARD), forward + forwardMultipliers[p]));
+          predictedCell.setScoreAt(predictedSlot, INNER, innerMultipliers[p]);
+          addPredictedEdgeInfo(right, newEdge);
+        }
+      }
+      clearViaCategories();
     }
     
-    addScore(outerProb.get(lrIndex), edge, score);
+    @Override
+    protected void fastCompleteLefts(int middle, int right, int nextEdge, int prevEdge, double completionScore, 
+        double inner, IntMultiMap activeEdges, int slot){
+      if(verbose>=3){
+        super.fastCompleteLefts(middle, right, nextEdge, prevEdge, completionScore, inner, activeEdges, slot);
+        return;
+      }
+      
+      double updateScore = completionScore + inner;
+      int numLefts = activeEdges.sizeAt(slot);
+      for (int i = 0; i < numLefts; i++) {
+        int left = activeEdges.valueAt(slot, i); // middle : left X -> \alpha . Z \beta
+        if(!isWithinWidth(left, right, prevEdge)){
+          continue;
+        }
+        ChartCell cell = getCell(insideChart, left, middle);
+        int cellSlot = (cell==null) ? -1 : cell.slotOf(prevEdge);
+        double newForwardScore = (cellSlot<0) ? Double.NEGATIVE_INFINITY : cell.scoreAt(cellSlot, FORWARD) + updateScore;
+        double newInnerScore = (cellSlot<0) ? Double.NEGATIVE_INFINITY : cell.scoreAt(cellSlot, INNER) + updateScore;
+        fastCompleteEdge(left, middle, right, nextEdge, prevEdge, completionScore, inner, 
+            newForwardScore, newInnerScore);
+      }
+    }
   }
 }
 
@@ -392,4 +645,4 @@ public class EarleyParserSparse extends EarleyParser {
 //}
 //
 
-//protected Map<Integer, DoubleList> tempInsideProbs; // to avoid concurrently modify insideChart while performing completions
\ No newline at end of file
+//protected Map<Integer, DoubleList> tempInsideProbs; // to avoid concurrently modify insideChart while performing completions
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.util.Set;
 import base.Edge;
 import base.MotherRule;
 import base.ProbRule;
+import base.RuleSet;
 
 import util.Util;
 
@@ -31,6 +32,17 @@ public abstract class EdgeSpace {
   
   protected int size = 0; // number of distinct active edges
   protected int[] to;  // relate X -> A . B C to X -> A B . C   
+  
+  // per-edge attributes as primitive arrays next to to[], so hot loops don't go through Edge objects
+  protected int[] mother; // X of X -> A . B C
+  protected int[] dot; // 1 for X -> A . B C
+  protected int[] numRemaining; // number of children after the dot, 2 for X -> A . B C
+  protected int[] nextChild; // B of X -> A . B C, -1 if there's no child after the dot
+  protected boolean[] isNextTag; // whether nextChild is a tag rather than a terminal
+  protected boolean[] isTerminal; // tag -> terminals, see Edge.isTerminalEdge()
+  protected int[] prev; // relate X -> A B . C to X -> A . B C, -1 if the dot is first or X -> A . B C isn't in the space
+  protected int[] ruleId; // index of the edge's rule in the rule set given to indexRules(), -1 if none
+  protected RuleSet ruleSet; // null until indexRules() is called
 
   protected Index<String> tagIndex; // map tag strings to tag integers
   protected Index<String> wordIndex; // map tag strings to tag integers
@@ -45,6 +57,14 @@ public abstract class EdgeSpace {
     activeEdges = new HashSet<Integer>();
     terminal2fragmentEdges = new HashMap<Integer, Set<Integer>>();
     to = new int[1000];
+    mother = new int[1000];
+    dot = new int[1000];
+    numRemaining = new int[1000];
+    nextChild = new int[1000];
+    isNextTag = new boolean[1000];
+    isTerminal = new boolean[1000];
+    prev = new int[1000];
+    ruleId = new int[1000];
   }
   
   public void build(Collection<ProbRule> rules){
@@ -155,6 +175,48 @@ public abstract class EdgeSpace {
   public int to(int edge) {
     return to[edge];
   }
+  
+  public int mother(int edge) {
+    return mother[edge];
+  }
+  
+  public int dot(int edge) {
+    return dot[edge];
+  }
+  
+  public int numRemaining(int edge) {
+    return numRemaining[edge];
+  }
+  
+  public int nextChild(int edge) {
+    return nextChild[edge];
+  }
+  
+  public boolean isNextTag(int edge) {
+    return isNextTag[edge];
+  }
+  
+  public boolean isTerminal(int edge) {
+    return isTerminal[edge];
+  }
+  
+  public int prev(int edge) {
+    return prev[edge];
+  }
+  
+  public int ruleId(int edge) {
+    return ruleId[edge];
+  }
+  
+  /**
+   * Record the index in ruleSet of the rule of every edge, and of edges added later on
+   */
+  public void indexRules(RuleSet ruleSet) {
+    this.ruleSet = ruleSet;
+    for (int i = 0; i < size; i++) {
+      ruleId[i] = ruleSet.indexOf(get(i).getRule());
+    }
+  }
 
 
   // extend array size if there's not enough space
@@ -168,9 +230,27 @@ public abstract class EdgeSpace {
     }
   }
 
+  private boolean[] ensureSize(boolean[] array, int size) {
+    if (array.length == size) {
+      boolean[] newArray = new boolean[array.length * 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      return newArray;
+    } else {
+      return array;
+    }
+  }
+
   private void incrementSize() {
     size++;
     to = ensureSize(to, size);
+    mother = ensureSize(mother, size);
+    dot = ensureSize(dot, size);
+    numRemaining = ensureSize(numRemaining, size);
+    nextChild = ensureSize(nextChild, size);
+    isNextTag = ensureSize(isNextTag, size);
+    isTerminal = ensureSize(isTerminal, size);
+    prev = ensureSize(prev, size);
+    ruleId = ensureSize(ruleId, size);
   }
 
   /* returns proper edge number */
@@ -179,9 +259,35 @@ public abstract class EdgeSpace {
     assert(i<=size);
     if (i==size){ // new edge
       incrementSize();
+      storeAttributes(i, e);
     }
     return i;                               
   }
+  
+  private void storeAttributes(int state, Edge e) {
+    mother[state] = e.getMother();
+    dot[state] = e.getDot();
+    numRemaining[state] = e.numRemainingChildren();
+    if(numRemaining[state]>0){
+      nextChild[state] = e.getChildAfterDot(0);
+      isNextTag[state] = e.isTagAfterDot(0);
+    } else {
+      nextChild[state] = -1;
+      isNextTag[state] = false;
+    }
+    isTerminal[state] = e.isTerminalEdge();
+    ruleId[state] = (ruleSet == null) ? -1 : ruleSet.indexOf(e.getRule());
+    
+    // X -> \alpha Y . \beta links back to X -> \alpha . Y \beta, whichever of the two is added first
+    prev[state] = (e.getDot()>0) ? edgeIndex.indexOf(e.getPrevEdge()) : -1;
+    Edge nextEdge = e.getToEdge();
+    if(nextEdge != null){
+      int next = edgeIndex.indexOf(nextEdge);
+      if(next>=0){
+        prev[next] = state;
+      }
+    }
+  }
  
   public Set<Integer> getFragmentEdges(int iW){
     return terminal2fragmentEdges.get(iW);
@@ -9,9 +9,12 @@ import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.Timing;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import util.LogProbOperator;
 import util.Operator;
@@ -23,6 +26,7 @@ import util.Util;
  *   all active edges and hash them into integers, handled by StateSpace
  *   all prediction instances for each state i, handled by Prediction
  *   all completion instances for each state i, handled by Completion
+ *   both packed into flat int[]/double[] tables for the parser inner loops
  *   a rule trie that keep track of "extended" rules which rewrite non-terminals directly into a sequence of terminals.
  *    
  * @author Roger Levy
@@ -35,15 +39,32 @@ public class Grammar {
   // while a pair of X, state id, and rule score is a value associated to the key
   private TrieSurprisal ruleTrie;
   
-  private Completion[][] completionsArray; // completions[i] is the set of Completion instances for the tag i
 //  private Map<Integer, Completion[]> tag2completionsMap;
-  private Prediction[][] predictionsArray; // predictions[i] is the set of Prediction instances for the state i
+  private int[] viaCategoriesArray; // viaCategories[i] is the nonterminal Z after the dot of state i if it makes predictions, -1 otherwise
+  
+  // completions of tag Y are entries completionStart[Y] ... completionStart[Y+1]-1 of the tables below
+  private int[] completionStart;
+  private int[] completionEdges; // active edge X -> \alpha . Z \beta, see Completion.activeEdge
+  private double[] completionScores; // unary closure score R(Z=>Y), see Completion.score
+  
+  // the same completions indexed by Z: all active edges X -> \alpha . Z \beta share R(Z=>Y), so for tag Y,
+  // entries completionViaStart[Y] ... completionViaStart[Y+1]-1 list each such Z once, sorted
+  private int[] completionViaStart;
+  private int[] completionVias;
+  private double[] completionViaScores;
+  
+  // predictions via nonterminal Z, shared by all states X -> \alpha . Z \beta, are entries predictionStart[Z] ... predictionStart[Z+1]-1
+  private int[] predictionStart;
+  private int[] predictedStates; // see Prediction.predictedState
+  private double[] predictionForwardMultipliers; // see Prediction.forwardProbMultiplier
+  private double[] predictionInnerMultipliers; // see Prediction.innerProbMultiplier
 
   private Index<String> wordIndex;
   private Index<String> tagIndex;
   private Map<Integer, Integer> nonterminalMap;
 
   private ClosureMatrix leftCornerClosures;
+  private LookaheadFilter lookaheadFilter; // built on first use, shared by the parsers of this grammar
   private ClosureMatrix unaryClosures;
   private Operator operator;
   public Grammar(Index<String> wordIndex, Index<String> tagIndex, Map<Integer, Integer> nonterminals, Operator operator){
@@ -85,23 +106,124 @@ public class Grammar {
     processMultiTerminalRules(ruleSet.getMultiTerminalRules(), ruleSet, edgeSpace, isSeparateRuleInTrie);
     
     /*** construct predictions ***/
-    predictionsArray = Prediction.constructPredictions(ruleSet.getTagRules(), leftCornerClosures, 
+    Prediction[][] predictionsArray = Prediction.constructPredictions(ruleSet.getTagRules(), leftCornerClosures, 
         edgeSpace, tagIndex, wordIndex, 
         Util.getNonterminals(nonterminalMap), operator); 
     assert Prediction.checkPredictions(predictionsArray, edgeSpace);
+    packPredictions(predictionsArray, edgeSpace);
 
     /*** construct completion Set[] ***/
     // here state space does implies new states added from extended rules
     // we purposely use the old nontermPretermIndexer
 //    completionsArray = Completion.constructCompletions(unaryClosures, edgeSpace, tagIndex);
-    completionsArray = Completion.constructCompletions(unaryClosures, edgeSpace, 
+    Completion[][] completionsArray = Completion.constructCompletions(unaryClosures, edgeSpace, 
         tagIndex, wordIndex, operator); // tag2completionsMap
+    packCompletions(completionsArray);
+    indexCompletionVias(edgeSpace);
     
     if(verbose>=0){
       Timing.tick("! Done building grammar."); 
     }
   }
 
+  /**
+   * States waiting on the same nonterminal Z share the same predictions, so they are stored once per Z
+   * in flat tables, and each state only keeps its Z.
+   */
+  private void packPredictions(Prediction[][] predictionsArray, EdgeSpace edgeSpace){
+    viaCategoriesArray = new int[predictionsArray.length];
+    Prediction[][] predictionsViaArray = new Prediction[tagIndex.size()][];
+    Arrays.fill(predictionsViaArray, Prediction.NO_PREDICTION);
+    for (int state = 0; state < predictionsArray.length; state++) {
+      if(predictionsArray[state].length == 0){
+        viaCategoriesArray[state] = -1;
+      } else {
+        int viaCategoryIndex = edgeSpace.get(state).getChildAfterDot(0);
+        assert(predictionsViaArray[viaCategoryIndex].length == 0 || predictionsViaArray[viaCategoryIndex] == predictionsArray[state]);
+        viaCategoriesArray[state] = viaCategoryIndex;
+        predictionsViaArray[viaCategoryIndex] = predictionsArray[state];
+      }
+    }
+    
+    int numPredictions = 0;
+    predictionStart = new int[predictionsViaArray.length+1];
+    for (int via = 0; via < predictionsViaArray.length; via++) {
+      predictionStart[via] = numPredictions;
+      numPredictions += predictionsViaArray[via].length;
+    }
+    predictionStart[predictionsViaArray.length] = numPredictions;
+    
+    predictedStates = new int[numPredictions];
+    predictionForwardMultipliers = new double[numPredictions];
+    predictionInnerMultipliers = new double[numPredictions];
+    for (int via = 0; via < predictionsViaArray.length; via++) {
+      int i = predictionStart[via];
+      for (Prediction p : predictionsViaArray[via]) {
+        predictedStates[i] = p.predictedState;
+        predictionForwardMultipliers[i] = p.forwardProbMultiplier;
+        predictionInnerMultipliers[i] = p.innerProbMultiplier;
+        i++;
+      }
+    }
+  }
+  
+  /**
+   * Completions of all tags in flat tables, in the same order as completionsArray
+   */
+  private void packCompletions(Completion[][] completionsArray){
+    int numCompletions = 0;
+    completionStart = new int[completionsArray.length+1];
+    for (int tag = 0; tag < completionsArray.length; tag++) {
+      completionStart[tag] = numCompletions;
+      numCompletions += completionsArray[tag].length;
+    }
+    completionStart[completionsArray.length] = numCompletions;
+    
+    completionEdges = new int[numCompletions];
+    completionScores = new double[numCompletions];
+    for (int tag = 0; tag < completionsArray.length; tag++) {
+      int i = completionStart[tag];
+      for (Completion completion : completionsArray[tag]) {
+        completionEdges[i] = completion.activeEdge;
+        completionScores[i] = completion.score;
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Index the packed completions of each tag by the nonterminal after the dot of their active edges
+   */
+  private void indexCompletionVias(EdgeSpace edgeSpace){
+    int numTags = completionStart.length-1;
+    List<TreeMap<Integer, Double>> tagVias = new ArrayList<TreeMap<Integer, Double>>();
+    int numVias = 0;
+    for (int tag = 0; tag < numTags; tag++) {
+      TreeMap<Integer, Double> viaScores = new TreeMap<Integer, Double>();
+      for (int c = completionStart[tag]; c < completionStart[tag+1]; c++) {
+        int via = edgeSpace.nextChild(completionEdges[c]);
+        assert(!viaScores.containsKey(via) || viaScores.get(via)==completionScores[c]);
+        viaScores.put(via, completionScores[c]);
+      }
+      tagVias.add(viaScores);
+      numVias += viaScores.size();
+    }
+    
+    completionViaStart = new int[numTags+1];
+    completionVias = new int[numVias];
+    completionViaScores = new double[numVias];
+    int i = 0;
+    for (int tag = 0; tag < numTags; tag++) {
+      completionViaStart[tag] = i;
+      for (Map.Entry<Integer, Double> entry : tagVias.get(tag).entrySet()) {
+        completionVias[i] = entry.getKey();
+        completionViaScores[i] = entry.getValue();
+        i++;
+      }
+    }
+    completionViaStart[numTags] = i;
+  }
+
   private void processMultiTerminalRules(Collection<ProbRule> extendedRules, RuleSet ruleSet, 
       EdgeSpace edgeSpace, boolean isSeparateRuleInTrie){
   Timing.startDoing("\n# Processing extended rules ...");
@@ -136,25 +258,130 @@ public class Grammar {
     return ruleTrie;
   }
 
+  /**
+   * Completions of tag as objects, rebuilt from the flat tables, for debugging and tests.
+   * Parsing loops go through completionStart()/completionEnd() instead.
+   */
   public Completion[] getCompletions(int tag) {
 //    if(tag2completionsMap.containsKey(tag)){
 //      return tag2completionsMap.get(tag);
 //    } else {
 //      return Completion.NO_COMPLETION;
 //    }
-  	if(tag>=completionsArray.length){
-  		return Completion.NO_COMPLETION;
-  	} else {
-  		return completionsArray[tag];
-  	}
+    int start = completionStart(tag);
+    int end = completionEnd(tag);
+    if(start==end){
+      return Completion.NO_COMPLETION;
+    } else {
+      Completion[] completions = new Completion[end-start];
+      for (int i = start; i < end; i++) {
+        completions[i-start] = new Completion(completionEdges[i], completionScores[i]);
+      }
+      return completions;
+    }
+  }
+  
+  /**
+   * Index of the first completion of tag in getCompletionEdges() and getCompletionScores()
+   */
+  public int completionStart(int tag) {
+    return (tag<completionStart.length-1) ? completionStart[tag] : 0;
+  }
+  
+  /**
+   * One past the index of the last completion of tag
+   */
+  public int completionEnd(int tag) {
+    return (tag<completionStart.length-1) ? completionStart[tag+1] : 0;
+  }
+  
+  public int[] getCompletionEdges() {
+    return completionEdges;
+  }
+  
+  public double[] getCompletionScores() {
+    return completionScores;
+  }
+  
+  /**
+   * Index in getCompletionViaScores() of R(via=>tag), the completion score of active edges X -> \alpha . via \beta
+   * by tag, -1 if they aren't completions of tag
+   */
+  public int completionVia(int tag, int via) {
+    if(tag>=completionViaStart.length-1){
+      return -1;
+    }
+    int index = Arrays.binarySearch(completionVias, completionViaStart[tag], completionViaStart[tag+1], via);
+    return (index<0) ? -1 : index;
+  }
+  
+  public double[] getCompletionViaScores() {
+    return completionViaScores;
   }
 
+  /**
+   * Predictions of state pos as objects, rebuilt from the flat tables, for debugging and tests
+   */
   public Prediction[] getPredictions(int pos) {
-    if(pos>=predictionsArray.length){
+    int via = getPredictionVia(pos);
+    if(via<0){
       return Prediction.NO_PREDICTION;
     } else {
-      return predictionsArray[pos];
+      Prediction[] predictions = new Prediction[predictionEnd(via)-predictionStart(via)];
+      for (int i = predictionStart(via); i < predictionEnd(via); i++) {
+        predictions[i-predictionStart(via)] = new Prediction(predictedStates[i], 
+            predictionForwardMultipliers[i], predictionInnerMultipliers[i]);
+      }
+      return predictions;
+    }
+  }
+  
+  /**
+   * The nonterminal whose predictions state pos makes, i.e., Z for X -> \alpha . Z \beta, or -1 if it makes none
+   */
+  public int getPredictionVia(int pos) {
+    if(pos>=viaCategoriesArray.length){
+      return -1;
+    } else {
+      return viaCategoriesArray[pos];
+    }
+  }
+  
+  /**
+   * Index of the first prediction via nonterminal viaCategoryIndex, shared by all states waiting on it,
+   * in getPredictedStates(), getPredictionForwardMultipliers() and getPredictionInnerMultipliers()
+   */
+  public int predictionStart(int viaCategoryIndex) {
+    return predictionStart[viaCategoryIndex];
+  }
+  
+  /**
+   * One past the index of the last prediction via nonterminal viaCategoryIndex
+   */
+  public int predictionEnd(int viaCategoryIndex) {
+    return predictionStart[viaCategoryIndex+1];
+  }
+  
+  public int[] getPredictedStates() {
+    return predictedStates;
+  }
+  
+  public double[] getPredictionForwardMultipliers() {
+    return predictionForwardMultipliers;
+  }
+  
+  public double[] getPredictionInnerMultipliers() {
+    return predictionInnerMultipliers;
+  }
+  
+  /**
+   * One-word lookahead tables for prediction, built from ruleSet the first time they're asked for
+   */
+  public synchronized LookaheadFilter getLookaheadFilter(RuleSet ruleSet) {
+    if(lookaheadFilter==null){
+      lookaheadFilter = new LookaheadFilter(ruleSet, tagIndex.size());
     }
+    return lookaheadFilter;
   }
   
   public ClosureMatrix getLeftCornerClosures() {
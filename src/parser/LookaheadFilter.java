@@ -0,0 +1,137 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import base.ProbRule;
+import base.RuleSet;
+import util.Bits;
+import util.IntList;
+
+/**
+ * One-word lookahead for prediction. A predicted edge right: right Y -> . \alpha can only be
+ * extended if \alpha can start with word_right, i.e., if its first child is a tag T that is a
+ * left corner, through first children, of a tag that word_right starts (a preterminal of word_right,
+ * or the mother of a rule X -> _w ... whose first terminal is word_right), or if its first child is
+ * word_right itself. Edges that fail the test never get any inner mass, so dropping them leaves
+ * prefix probabilities unchanged.
+ *
+ * The left-corner parents of each tag are kept as a flat table, and the allowed tags of a word
+ * are found by walking up from its start tags, so the cost per word is the number of tags it allows
+ * rather than the square of the number of tags.
+ */
+public class LookaheadFilter {
+  private final int numTags;
+
+  // tags X with a rule X -> T \alpha are parents[parentStart[T]] ... parents[parentStart[T+1]-1]
+  private final int[] parentStart;
+  private final int[] parents;
+
+  private final Map<Integer, int[]> word2startTags; // word w -> tags X with a rule X -> _w ...
+
+  public LookaheadFilter(RuleSet ruleSet, int numTags){
+    this.numTags = numTags;
+
+    List<Set<Integer>> tag2parents = new ArrayList<Set<Integer>>(numTags);
+    for (int tag = 0; tag < numTags; tag++) {
+      tag2parents.add(null);
+    }
+    Map<Integer, Set<Integer>> word2tags = new HashMap<Integer, Set<Integer>>();
+    for (ProbRule probRule : ruleSet.getTagRules()) { // including fragment rules
+      int mother = probRule.getMother();
+      int child = probRule.getChild(0);
+      if(probRule.isTag(0)){
+        if(tag2parents.get(child)==null){
+          tag2parents.set(child, new LinkedHashSet<Integer>());
+        }
+        tag2parents.get(child).add(mother);
+      } else {
+        addStartTag(word2tags, child, mother);
+      }
+    }
+    addStartTags(word2tags, ruleSet.getTerminalRules());
+    addStartTags(word2tags, ruleSet.getMultiTerminalRules());
+
+    // pack
+    parentStart = new int[numTags+1];
+    IntList parentList = new IntList();
+    for (int tag = 0; tag < numTags; tag++) {
+      parentStart[tag] = parentList.size();
+      if(tag2parents.get(tag)!=null){
+        for (int parent : tag2parents.get(tag)) {
+          parentList.add(parent);
+        }
+      }
+    }
+    parentStart[numTags] = parentList.size();
+    parents = parentList.toArray();
+
+    word2startTags = new HashMap<Integer, int[]>();
+    for (int word : word2tags.keySet()) {
+      IntList tags = new IntList();
+      for (int tag : word2tags.get(word)) {
+        tags.add(tag);
+      }
+      word2startTags.put(word, tags.toArray());
+    }
+  }
+
+  private static void addStartTags(Map<Integer, Set<Integer>> word2tags, Collection<ProbRule> terminalRules){
+    for (ProbRule probRule : terminalRules) {
+      addStartTag(word2tags, probRule.getChild(0), probRule.getMother());
+    }
+  }
+
+  private static void addStartTag(Map<Integer, Set<Integer>> word2tags, int word, int tag){
+    if(!word2tags.containsKey(word)){
+      word2tags.put(word, new LinkedHashSet<Integer>());
+    }
+    word2tags.get(word).add(tag);
+  }
+
+  /**
+   * Number of tags the filter knows of, allowed bitsets should hold that many bits
+   */
+  public int numTags(){
+    return numTags;
+  }
+
+  /**
+   * Set in allowed tag and all tags it is a left corner of
+   *
+   * @param queue scratch list, tags set by this call are appended to it
+   */
+  public void allowTag(int tag, long[] allowed, IntList queue){
+    if(tag>=numTags || !Bits.set(allowed, tag)){
+      return;
+    }
+
+    int from = queue.size();
+    queue.add(tag);
+    for (int i = from; i < queue.size(); i++) {
+      int child = queue.get(i);
+      for (int p = parentStart[child], end = parentStart[child+1]; p < end; p++) {
+        if(Bits.set(allowed, parents[p])){
+          queue.add(parents[p]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Set in allowed all tags that have a rule X -> _word ..., and all tags they are left corners of
+   */
+  public void allowWord(int word, long[] allowed, IntList queue){
+    int[] tags = word2startTags.get(word);
+    if(tags!=null){
+      for (int tag : tags) {
+        allowTag(tag, allowed, queue);
+      }
+    }
+  }
+}
@@ -37,8 +37,9 @@ public class Main {
     System.err.println("! " + message);
     System.err.println("Main -in inFile  -out outPrefix (-grammar grammarFile | -treebank treebankFile) " +
         "-obj objectives\n" + 
-        "\t[-root rootSymbol] [-sparse] [-normalprob] [-scale] [-decode opt] [-verbose opt]" +
-        "\t[-thread n] [-filter length]" + 
+        "\t[-root rootSymbol] [-sparse | -auto | -offheap [-mapdir dir]] [-normalprob] [-scale] [-decode opt] [-verbose opt]" +
+        "\t[-thread n] [-parallel n [-exactsum]] [-filter length] [-prune f] [-topk n] [-maxwidth n -exempt symbols] [-lookahead]" + 
+        "\t[-coarse regex [-coarseprune f]] [-boundary prefixes]" + 
         "\t[-io opt -maxiteration n -intermediate n -minprob f]\n");
     
     // compulsory
@@ -55,6 +56,10 @@ public class Main {
     System.err.println("\t Optional:");
     System.err.println("\t\t root \t\t specify the start symbol of sentences (default \"ROOT\")");
     System.err.println("\t\t sparse \t\t optimize for sparse grammars (default: run with dense grammars)");
+    System.err.println("\t\t auto \t\t choose the dense or the sparse parser for each sentence, by the expected size and occupancy of its chart");
+    System.err.println("\t\t offheap \t\t dense parser whose chart is stored outside of the Java heap, for very long inputs. " +
+        "Memory is bounded by -XX:MaxDirectMemorySize, unless -mapdir is given.");
+    System.err.println("\t\t mapdir \t\t with -offheap, store the chart in memory-mapped temporary files in dir");
     System.err.println("\t\t normalprob \t\t perform numeric computation in normal prob (cf. log-prob). This switch is best to be used with -scale.");
     System.err.println("\t\t scale \t\t rescaling approach to parse extremely long sentences");
     System.err.println("\n\t\t decode \t\t perform decoding, " + 
@@ -64,7 +69,26 @@ public class Main {
         "0: surprisal per word, 1-4 -- increasing more details");
     
     System.err.println("\t\t thread \t\t if value > 1, use multi-threaded version of the parser");
+    System.err.println("\t\t parallel \t\t if value > 1, split the completion and prediction of each chart column across n workers, " +
+        "to use several cores on a single long sentence");
+    System.err.println("\t\t exactsum \t\t with -parallel, add up predictions in serial order so that scores are bit-identical to -parallel 1");
     System.err.println("\t\t filter \t\t if value > 0, filter sentences that are >= filtered length");
+    System.err.println("\t\t prune \t\t approximate parsing, drop active edges whose forward probs are below f times the prefix prob of the current word. " +
+        "Add \"" + Measures.PRUNED_MASS + "\" to -obj to output the pruned mass per word.");
+    System.err.println("\t\t topk \t\t approximate parsing, keep only the n active edges with highest forward probs in each chart cell");
+    System.err.println("\t\t maxwidth \t\t approximate parsing for long inputs, only build constituents of at most n words. " +
+        "Old chart columns are dropped unless -io or -decode is used.");
+    System.err.println("\t\t exempt \t\t with -maxwidth, a comma separated list of regexes of nonterminals that can span more than n words, " +
+        "e.g. \"Discourse.*\". The root symbol is always exempt.");
+    System.err.println("\t\t lookahead \t\t don't predict edges that can't start with the next word. " +
+        "Exact, prefix probs are unchanged.");
+    System.err.println("\t\t coarse \t\t coarse-to-fine parsing, first parse with the grammar whose nonterminals have the parts matching " +
+        "regex removed, e.g. \"\\^.*\" projects NP^S to NP, then only build fine constituents whose projections are likely. " +
+        "Add \"" + Measures.SURPRISAL_DEVIATION + "\" to -obj to also parse without pruning and output how much surprisals differ.");
+    System.err.println("\t\t coarseprune \t\t with -coarse, min posterior of coarse constituents (default 1e-4)");
+    System.err.println("\t\t boundary \t\t a comma separated list of prefixes of nonterminals, e.g. \"Sentence,Topic,T.,Socials,Word\", " +
+        "that can't span across utterance boundaries of a discourse. An utterance starts at a token beginning with '.' or equal to \"##\" " + 
+        "once the previous utterance has passed its \"##\".");
     
     System.err.println("\n\t\t io \t\t run inside-outside algorithm, " + 
         "output final grammar to outPrefix.io.grammar. opt should be \"em\" or \"vb\"");
@@ -82,6 +106,7 @@ public class Main {
     
     /* Default parameters */        
     EarleyParser parser = null;
+    AdaptiveParser autoParser = null; // with -auto, chooses parser for each sentence
         
     /* Define flags */
     Map<String, Integer> flags = new HashMap<String, Integer>();
@@ -96,13 +121,26 @@ public class Main {
     flags.put("-root", new Integer(1)); // root symbol
     flags.put("-id", new Integer(1)); // sentence indices
     flags.put("-sparse", new Integer(0)); // optimize for sparse grammars
+    flags.put("-auto", new Integer(0)); // dense or sparse, per sentence
+    flags.put("-offheap", new Integer(0)); // chart outside of the heap
+    flags.put("-mapdir", new Integer(1)); // directory of memory-mapped chart files
     flags.put("-normalprob", new Integer(0)); // normal prob 
     flags.put("-scale", new Integer(0)); // scaling 
     flags.put("-decode", new Integer(1)); // decode option
     flags.put("-verbose", new Integer(1)); 
     
     flags.put("-thread", new Integer(1)); // thread option
+    flags.put("-parallel", new Integer(1)); // intra-sentence parallelism
+    flags.put("-exactsum", new Integer(0)); // parallel sums in serial order
     flags.put("-filter", new Integer(1)); // filter option
+    flags.put("-prune", new Integer(1)); // pruning threshold relative to prefix probs
+    flags.put("-topk", new Integer(1)); // max number of edges per cell
+    flags.put("-maxwidth", new Integer(1)); // max constituent width
+    flags.put("-exempt", new Integer(1)); // nonterminals exempt from the max width
+    flags.put("-lookahead", new Integer(0)); // lookahead-filtered prediction
+    flags.put("-coarse", new Integer(1)); // coarse-to-fine projection regex
+    flags.put("-coarseprune", new Integer(1)); // coarse-to-fine posterior threshold
+    flags.put("-boundary", new Integer(1)); // nonterminals within utterance boundaries
     
     flags.put("-io", new Integer(1)); // inside-outside computation
     flags.put("-maxiteration", new Integer(1)); // number of iterations to run IO
@@ -129,6 +167,7 @@ public class Main {
       Prediction.verbose = verbose;
       Completion.verbose = verbose;
       EarleyParser.verbose = verbose;
+      AdaptiveParser.verbose = verbose;
       RuleFile.verbose = verbose;
     }
     
@@ -137,6 +176,25 @@ public class Main {
     if (argsMap.keySet().contains("-sparse")) {
       parserOpt = 1; // sparse
     }
+    if (argsMap.keySet().contains("-auto")) {
+      if(parserOpt==1){
+        printHelp(args, "-sparse and -auto are mutually exclusive");
+      }
+      parserOpt = 3; // dense or sparse, per sentence
+    }
+    File mapDir = null;
+    if (argsMap.keySet().contains("-offheap")) {
+      if(parserOpt!=0){
+        printHelp(args, "-offheap can't be used with -sparse or -auto");
+      }
+      parserOpt = 2; // off-heap
+      if (argsMap.keySet().contains("-mapdir")) {
+        mapDir = new File(argsMap.get("-mapdir")[0]);
+        if(!mapDir.isDirectory()){
+          printHelp(args, "-mapdir, " + mapDir + " is not a directory");
+        }
+      }
+    }
     
     /* normalprob */
     boolean isLogProb = true;
@@ -164,6 +222,14 @@ public class Main {
     if (argsMap.keySet().contains("-thread")) {
       numThreads = Integer.parseInt(argsMap.get("-thread")[0]);
     }
+    int numWorkers = 1;
+    if (argsMap.keySet().contains("-parallel")) {
+      numWorkers = Integer.parseInt(argsMap.get("-parallel")[0]);
+      if(numWorkers<=0){
+        printHelp(args, "-parallel, n should be > 0");
+      }
+    }
+    boolean isExactParallel = argsMap.keySet().contains("-exactsum");
     
     /* filter option */
     int filterLen = 0;
@@ -171,6 +237,60 @@ public class Main {
     	filterLen = Integer.parseInt(argsMap.get("-filter")[0]);
     }
     
+    /* pruning opt */
+    double pruneThreshold = 0.0;
+    if (argsMap.keySet().contains("-prune")) {
+      pruneThreshold = Double.parseDouble(argsMap.get("-prune")[0]);
+      if(pruneThreshold<0.0 || pruneThreshold>=1.0){
+        printHelp(args, "-prune, f should be in [0, 1)");
+      }
+    }
+    int pruneTopK = 0;
+    if (argsMap.keySet().contains("-topk")) {
+      pruneTopK = Integer.parseInt(argsMap.get("-topk")[0]);
+      if(pruneTopK<=0){
+        printHelp(args, "-topk, n should be > 0");
+      }
+    }
+    
+    /* width opt */
+    int maxWidth = 0;
+    if (argsMap.keySet().contains("-maxwidth")) {
+      maxWidth = Integer.parseInt(argsMap.get("-maxwidth")[0]);
+      if(maxWidth<=0){
+        printHelp(args, "-maxwidth, n should be > 0");
+      }
+    }
+    List<String> exemptSymbols = new ArrayList<String>();
+    if (argsMap.keySet().contains("-exempt")) {
+      exemptSymbols = Arrays.asList(argsMap.get("-exempt")[0].split(","));
+    }
+    
+    /* lookahead opt */
+    boolean isLookahead = argsMap.keySet().contains("-lookahead");
+    
+    /* coarse-to-fine opt */
+    String coarseRegex = null;
+    if (argsMap.keySet().contains("-coarse")) {
+      coarseRegex = argsMap.get("-coarse")[0];
+    }
+    double coarseThreshold = 1e-4;
+    if (argsMap.keySet().contains("-coarseprune")) {
+      if(coarseRegex==null){
+        printHelp(args, "-coarseprune only used with -coarse");
+      }
+      coarseThreshold = Double.parseDouble(argsMap.get("-coarseprune")[0]);
+      if(coarseThreshold<0 || coarseThreshold>=1){
+        printHelp(args, "-coarseprune, f should be in [0, 1)");
+      }
+    }
+    
+    /* utterance-boundary opt */
+    List<String> boundaryPrefixes = new ArrayList<String>();
+    if (argsMap.keySet().contains("-boundary")) {
+      boundaryPrefixes = Arrays.asList(argsMap.get("-boundary")[0].split(","));
+    }
+    
     /* io opt */
     String ioOptStr = "";
     if (argsMap.keySet().contains("-io")) {
@@ -241,13 +361,21 @@ public class Main {
     System.err.println("# Root symbol = " + rootSymbol);
     System.err.println("# Objectives = " + objStr);
     System.err.println("# isSparse = " + (parserOpt==1));
+    System.err.println("# isAuto = " + (parserOpt==3));
+    System.err.println("# isOffHeap = " + (parserOpt==2) + ((mapDir==null) ? "" : ", map dir = " + mapDir));
     System.err.println("# isLogProb = " + isLogProb);
     System.err.println("# isScaling = " + isScaling);
     System.err.println("# decodeOpt = " + decodeOptStr);
     System.err.println("# verbose opt = " + verbose);
     
-    System.err.println("# Num threads = " + numThreads);
+    System.err.println("# Num threads = " + numThreads + ", workers per parser = " + numWorkers 
+        + (isExactParallel ? " (exact sums)" : ""));
     System.err.println("# Filter length = " + filterLen);
+    System.err.println("# Prune threshold = " + pruneThreshold + ", top k = " + pruneTopK);
+    System.err.println("# Max width = " + maxWidth + ", exempt = " + exemptSymbols);
+    System.err.println("# isLookahead = " + isLookahead);
+    System.err.println("# Coarse regex = " + coarseRegex + ", coarse threshold = " + coarseThreshold);
+    System.err.println("# Boundary prefixes = " + boundaryPrefixes);
     
     System.err.println("# ioOpt = " + ioOptStr);
     System.err.println("# maxIteration = " + maxiteration);
@@ -348,11 +476,28 @@ public class Main {
     /***************/
     EarleyParserGenerator parserGenerator = new EarleyParserGenerator(inGrammarFile, inGrammarType, rootSymbol, 
   			isScaling, isLogProb, ioOptStr, decodeOptStr, objStr);
+    parserGenerator.setPruning(pruneThreshold, pruneTopK);
+    parserGenerator.setMaxWidth(maxWidth, exemptSymbols);
+    parserGenerator.setParallelism(numWorkers, isExactParallel);
+    parserGenerator.setLookahead(isLookahead);
+    parserGenerator.setBoundaryConstraint(boundaryPrefixes);
+    if(coarseRegex!=null){
+      parserGenerator.setCoarseToFine(coarseRegex, coarseThreshold);
+    }
     if (numThreads==1){ // single threaded
 			if(parserOpt==0){ // dense
 			  parser = parserGenerator.getParserDense();
 			} else if(parserOpt==1){ // sparse
 				parser = parserGenerator.getParserSparse();
+			} else if(parserOpt==2){ // off-heap
+			  parser = parserGenerator.getParserOffHeap(mapDir);
+			} else if(parserOpt==3){ // auto
+			  autoParser = parserGenerator.getParserAuto();
+			  if(ioOptStr.equals("")){
+			    parser = autoParser.select(0); // only used to output the grammar
+			  } else { // inside-outside parses all sentences with a single parser, the sparse one
+			    parser = parserGenerator.getParserSparse();
+			  }
 			} else {
 			  assert(false);
 			}
@@ -387,7 +532,11 @@ public class Main {
     try {
       if(ioOptStr.equals("")){
       	if(numThreads==1){
-      		parser.parseSentences(sentences, indices, outPrefix);
+      	  if(autoParser != null){
+      	    autoParser.parseSentences(sentences, indices, outPrefix);
+      	  } else {
+      	    parser.parseSentences(sentences, indices, outPrefix);
+      	  }
       	} else { // multi-threaded
       		// prepare writers
           Map<String, BufferedWriter> measureWriterMap = new HashMap<String, BufferedWriter>();
@@ -400,7 +549,8 @@ public class Main {
           }
           
       		MulticoreWrapper<ParserInput,ParserOutput> wrapper = 
-              new MulticoreWrapper<ParserInput, ParserOutput>(numThreads, new ThreadedParser(parserGenerator), false);
+              new MulticoreWrapper<ParserInput, ParserOutput>(numThreads, new ThreadedParser(parserGenerator, 
+                  (parserOpt==3) ? AdaptiveParser.defaultMemoryBudget()/numThreads : 0), false);
         	for (int i = 0; i < sentences.size(); i++) {
 						wrapper.put(new ParserInput(sentences.get(i), indices.get(i)));
 						
@@ -490,27 +640,47 @@ public class Main {
    *
    */
   private static class ThreadedParser implements ThreadsafeProcessor<ParserInput,ParserOutput> {
-  	private EarleyParser parser;
+  	private EarleyParser parser; // null if autoParser is used
+  	private AdaptiveParser autoParser; // null if parser is used
     private EarleyParserGenerator parserGenerator;
+    private long autoMemoryBudget;
     
-    public ThreadedParser(EarleyParserGenerator parserGenerator) {
+    /**
+     * @param autoMemoryBudget if > 0, choose the dense or the sparse parser for each sentence, with dense charts
+     *   limited to that many bytes, otherwise always use the dense parser
+     */
+    public ThreadedParser(EarleyParserGenerator parserGenerator, long autoMemoryBudget) {
     	this.parserGenerator = parserGenerator;
-      this.parser = parserGenerator.getParserDense();
+    	this.autoMemoryBudget = autoMemoryBudget;
+    	if(autoMemoryBudget > 0){
+    	  this.autoParser = parserGenerator.getParserAuto(autoMemoryBudget);
+    	} else {
+    	  this.parser = parserGenerator.getParserDense();
+    	}
     }
 
     @Override
     public ParserOutput process(ParserInput input) {
-    	parser.setSentId(input.id);
-    	if(!parser.parseSentence(input.sentence)){
+      boolean isParsed;
+      EarleyParser sentParser;
+      if(autoParser != null){
+        isParsed = autoParser.parseSentence(input.sentence, input.id);
+        sentParser = autoParser.getParser();
+      } else {
+        parser.setSentId(input.id);
+        isParsed = parser.parseSentence(input.sentence);
+        sentParser = parser;
+      }
+    	if(!isParsed){
     		System.err.print("! Failed to parse sentence " + input.id + ". " + input.sentence);
     		//System.exit(1);
     	}
-      return new ParserOutput(input.sentence, input.id, parser.getMeasures());
+      return new ParserOutput(input.sentence, input.id, sentParser.getMeasures());
     }
 
     @Override
     public ThreadsafeProcessor<ParserInput, ParserOutput> newInstance() {
-      return new ThreadedParser(this.parserGenerator);
+      return new ThreadedParser(this.parserGenerator, this.autoMemoryBudget);
     }
 
   }
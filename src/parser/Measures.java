@@ -36,6 +36,8 @@ public class Measures {
   
   
   public static final String STRINGPROB = "stringprob";
+  public static final String PRUNED_MASS = "prunedmass"; // forward prob mass pruned at each word, relative to the prefix prob
+  public static final String SURPRISAL_DEVIATION = "surprisaldeviation"; // coarse-to-fine surprisal minus the unpruned surprisal
   
   // map objective names, e.g., "prefix", "synPrefix", etc., to a list of values
   
@@ -83,6 +85,15 @@ public class Measures {
     }
   }
   
+  /**
+   * Append a zero value to every measure, for a word added to the end of the sentence
+   */
+  public void addPosition(){
+    for (DoubleList values : measureMap.values()) {
+      values.add(0.0);
+    }
+  }
+  
   public int numValues(String obj){
     return measureMap.get(obj).size();
   }
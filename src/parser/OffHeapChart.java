@@ -0,0 +1,386 @@
+package parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chart cells kept outside of the Java heap, so that a chart can be larger than the heap
+ * (and than 2^31 entries). As in {@link EarleyParserDense}, a cell [left, right] is a row
+ * with a bitset over edges, an edge count, and a few edge-indexed score arrays. Cells are
+ * addressed by long linear indices, see {@link EarleyParser#longLinear(int, int)}, and
+ * rows are only allocated on first write.
+ *
+ * Rows live in segments of at most 1GB, either direct ByteBuffers (bounded by 
+ * -XX:MaxDirectMemorySize) or, if a directory is given, memory-mapped temporary files, one per segment.
+ * Segments double in size as needed (mapped files are extended and mapped again), they're kept after
+ * reset() and reused by later sentences. Rows of released cells are reused right away.
+ *
+ * Cells are mapped to rows by an open-addressing hash on the heap, so memory grows with the
+ * number of allocated cells, e.g., O(n*W) with -maxwidth W, rather than with n^2.
+ *
+ * Row layout: cell index (long), edge count (long), bitset (longs), scores (doubles).
+ */
+public class OffHeapChart {
+  private static final int SEGMENT_BITS = 30; // 1GB segments
+  private static final int MIN_SEGMENT_BYTES = 1 << 16;
+  private static final int MIN_TABLE_SIZE = 64;
+  private static final long NO_CELL = -1;
+
+  private final int rowSize; // edge space size
+  private final int numScores; // number of score arrays per cell
+  private final double zero;
+  private final File mapDir; // null for direct buffers
+
+  private final int entriesOffset; // byte offsets within a row
+  private final int scoresOffset;
+  private final int rowBytes;
+  private final int rowsPerSegment;
+
+  private final List<ByteBuffer> rowSegments = new ArrayList<ByteBuffer>();
+  private final List<File> segmentFiles = new ArrayList<File>(); // files of the mapped segments
+  
+  // cell -> row hash, linear probing
+  private long[] tableCells = newTableCells(MIN_TABLE_SIZE); // NO_CELL for empty slots
+  private long[] tableRows = new long[MIN_TABLE_SIZE];
+  private int numTableCells = 0;
+  
+  private long numRows = 0; // rows handed out for the current sentence
+  private long[] freeRows = new long[16]; // released rows of the current sentence
+  private int numFreeRows = 0;
+
+  public OffHeapChart(int rowSize, int numScores, double zero, File mapDir) {
+    this.rowSize = rowSize;
+    this.numScores = numScores;
+    this.zero = zero;
+    this.mapDir = mapDir;
+
+    entriesOffset = 16;
+    scoresOffset = entriesOffset + 8*((rowSize + 63) >>> 6);
+    long bytes = scoresOffset + 8L*rowSize*numScores;
+    if(bytes > (1L << SEGMENT_BITS)){
+      System.err.println("! OffHeapChart: edge space of size " + rowSize + " is too large, a row takes " + bytes + " bytes");
+      System.exit(1);
+    }
+    rowBytes = (int) bytes;
+    rowsPerSegment = (1 << SEGMENT_BITS) / rowBytes;
+  }
+
+  /*************/
+  /** Segments */
+  /*************/
+  /**
+   * Map the first numBytes of file, extending it with zeros if necessary
+   */
+  private ByteBuffer mapFile(File file, int numBytes){
+    ByteBuffer segment = null;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.setLength(numBytes);
+      segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, numBytes); // stays valid after closing
+      raf.close();
+    } catch (IOException e) {
+      System.err.println("! OffHeapChart: can't map a chart segment in " + mapDir);
+      e.printStackTrace();
+      System.exit(1);
+    }
+    return segment;
+  }
+
+  /**
+   * Row segment i, created or grown (keeping its contents) so that it has at least numBytes
+   */
+  private ByteBuffer segment(int i, int numBytes){
+    while(rowSegments.size() <= i){
+      rowSegments.add(null);
+      segmentFiles.add(null);
+    }
+    ByteBuffer segment = rowSegments.get(i);
+    if(segment == null || segment.capacity() < numBytes){
+      int capacity = (segment == null) ? MIN_SEGMENT_BYTES : segment.capacity();
+      while(capacity < numBytes){
+        capacity = (int) Math.min(2L*capacity, 1L << SEGMENT_BITS);
+      }
+      
+      ByteBuffer newSegment;
+      if(mapDir == null){
+        newSegment = ByteBuffer.allocateDirect(capacity); // zero-filled
+        if(segment != null){
+          segment.clear();
+          newSegment.put(segment);
+          newSegment.clear();
+        }
+      } else { // the file keeps the contents, map it again with the new length
+        if(segmentFiles.get(i) == null){
+          try {
+            File file = File.createTempFile("chart", ".seg", mapDir);
+            file.deleteOnExit();
+            segmentFiles.set(i, file);
+          } catch (IOException e) {
+            System.err.println("! OffHeapChart: can't create a chart segment in " + mapDir);
+            e.printStackTrace();
+            System.exit(1);
+          }
+        }
+        newSegment = mapFile(segmentFiles.get(i), capacity);
+      }
+      segment = newSegment.order(ByteOrder.nativeOrder());
+      rowSegments.set(i, segment);
+    }
+    return segment;
+  }
+  
+  private ByteBuffer rowSegment(long row){
+    return rowSegments.get((int) (row / rowsPerSegment));
+  }
+
+  private int rowOffset(long row){
+    return (int) (row % rowsPerSegment) * rowBytes;
+  }
+
+  /***********/
+  /** Table **/
+  /***********/
+  private static long[] newTableCells(int size){
+    long[] cells = new long[size];
+    Arrays.fill(cells, NO_CELL);
+    return cells;
+  }
+  
+  private int hash(long cell){
+    long h = cell * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & (tableCells.length - 1);
+  }
+  
+  /**
+   * Slot of cell in the table, or of the empty slot where it would go
+   */
+  private int slot(long cell){
+    int mask = tableCells.length - 1;
+    int slot = hash(cell);
+    while(tableCells[slot] != cell && tableCells[slot] != NO_CELL){
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+  
+  private long getTable(long cell){
+    int slot = slot(cell);
+    return (tableCells[slot] == NO_CELL) ? -1 : tableRows[slot];
+  }
+
+  private void putTable(long cell, long row){
+    if(2*(numTableCells+1) > tableCells.length){ // at most half full
+      long[] oldCells = tableCells;
+      long[] oldRows = tableRows;
+      tableCells = newTableCells(2*oldCells.length);
+      tableRows = new long[2*oldCells.length];
+      for (int i = 0; i < oldCells.length; i++) {
+        if(oldCells[i] != NO_CELL){
+          int slot = slot(oldCells[i]);
+          tableCells[slot] = oldCells[i];
+          tableRows[slot] = oldRows[i];
+        }
+      }
+    }
+    
+    int slot = slot(cell);
+    if(tableCells[slot] == NO_CELL){
+      tableCells[slot] = cell;
+      numTableCells++;
+    }
+    tableRows[slot] = row;
+  }
+  
+  private void removeTable(long cell){
+    int mask = tableCells.length - 1;
+    int slot = slot(cell);
+    if(tableCells[slot] == NO_CELL){
+      return;
+    }
+    
+    // shift back later cells of the probe sequence, so that lookups don't stop at the hole
+    int hole = slot;
+    for (int i = (hole + 1) & mask; tableCells[i] != NO_CELL; i = (i + 1) & mask) {
+      int home = hash(tableCells[i]);
+      if(((i - home) & mask) >= ((i - hole) & mask)){ // home isn't in (hole, i]
+        tableCells[hole] = tableCells[i];
+        tableRows[hole] = tableRows[i];
+        hole = i;
+      }
+    }
+    tableCells[hole] = NO_CELL;
+    numTableCells--;
+  }
+
+  /***********/
+  /** Cells **/
+  /***********/
+  /**
+   * Row of the given cell, or -1 if the cell hasn't been allocated
+   */
+  public long row(long cell){
+    return getTable(cell);
+  }
+
+  /**
+   * Row of the given cell, allocated and cleared if necessary
+   */
+  public long allocate(long cell){
+    long row = getTable(cell);
+    if(row >= 0){
+      return row;
+    }
+
+    if(numFreeRows > 0){
+      row = freeRows[--numFreeRows];
+    } else {
+      row = numRows++;
+      segment((int) (row / rowsPerSegment), rowOffset(row) + rowBytes);
+    }
+    clearRow(row);
+    rowSegment(row).putLong(rowOffset(row), cell);
+    putTable(cell, row);
+    return row;
+  }
+
+  /**
+   * Remove all edges of a row
+   */
+  public void clearRow(long row){
+    ByteBuffer segment = rowSegment(row);
+    int offset = rowOffset(row);
+    segment.putLong(offset + 8, 0L);
+    for (int i = entriesOffset; i < scoresOffset; i += 8) {
+      segment.putLong(offset + i, 0L);
+    }
+    for (int i = scoresOffset; i < rowBytes; i += 8) {
+      segment.putDouble(offset + i, zero);
+    }
+  }
+
+  /**
+   * Make the cell empty and give its row back
+   */
+  public void release(long cell){
+    long row = getTable(cell);
+    if(row < 0){
+      return;
+    }
+    removeTable(cell);
+    rowSegment(row).putLong(rowOffset(row), NO_CELL);
+    if(numFreeRows == freeRows.length){
+      freeRows = Arrays.copyOf(freeRows, 2*numFreeRows);
+    }
+    freeRows[numFreeRows++] = row;
+  }
+
+  /**
+   * Empty all cells, segments are kept for later sentences
+   */
+  public void reset(){
+    for (long row = 0; row < numRows; row++) {
+      long cell = rowSegment(row).getLong(rowOffset(row));
+      if(cell != NO_CELL){
+        removeTable(cell);
+      }
+    }
+    numRows = 0;
+    numFreeRows = 0;
+  }
+
+  /***********/
+  /** Edges **/
+  /***********/
+  public int count(long row){
+    return (int) rowSegment(row).getLong(rowOffset(row) + 8);
+  }
+
+  public boolean contains(long row, int edge){
+    return (rowSegment(row).getLong(rowOffset(row) + entriesOffset + ((edge >>> 6) << 3)) & (1L << edge)) != 0;
+  }
+
+  /**
+   * Add edge to the row, returns true if it wasn't there before
+   */
+  public boolean set(long row, int edge){
+    ByteBuffer segment = rowSegment(row);
+    int offset = rowOffset(row);
+    int index = offset + entriesOffset + ((edge >>> 6) << 3);
+    long word = segment.getLong(index);
+    if((word & (1L << edge)) != 0){
+      return false;
+    }
+    segment.putLong(index, word | (1L << edge));
+    segment.putLong(offset + 8, segment.getLong(offset + 8) + 1);
+    return true;
+  }
+
+  /**
+   * Remove edge and its scores from the row
+   */
+  public void remove(long row, int edge){
+    ByteBuffer segment = rowSegment(row);
+    int offset = rowOffset(row);
+    int index = offset + entriesOffset + ((edge >>> 6) << 3);
+    long word = segment.getLong(index);
+    if((word & (1L << edge)) == 0){
+      return;
+    }
+    segment.putLong(index, word & ~(1L << edge));
+    segment.putLong(offset + 8, segment.getLong(offset + 8) - 1);
+    for (int i = 0; i < numScores; i++) {
+      put(row, i, edge, zero);
+    }
+  }
+
+  /**
+   * First edge of the row after the given one (start with -1), or -1 if there is none
+   */
+  public int nextEdge(long row, int edge){
+    int from = edge + 1;
+    if(from >= rowSize){
+      return -1;
+    }
+
+    ByteBuffer segment = rowSegment(row);
+    int offset = rowOffset(row) + entriesOffset;
+    int numEntryWords = (scoresOffset - entriesOffset) >>> 3;
+    int w = from >>> 6;
+    long word = segment.getLong(offset + (w << 3)) & (-1L << from);
+    while(true){
+      if(word != 0){
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if(++w == numEntryWords){
+        return -1;
+      }
+      word = segment.getLong(offset + (w << 3));
+    }
+  }
+
+  public double get(long row, int scoreIndex, int edge){
+    return rowSegment(row).getDouble(rowOffset(row) + scoresOffset + ((scoreIndex*rowSize + edge) << 3));
+  }
+
+  public void put(long row, int scoreIndex, int edge, double score){
+    rowSegment(row).putDouble(rowOffset(row) + scoresOffset + ((scoreIndex*rowSize + edge) << 3), score);
+  }
+
+  /**
+   * Number of bytes used outside of the heap
+   */
+  public long numBytes(){
+    long numBytes = 0;
+    for (ByteBuffer segment : rowSegments) {
+      numBytes += segment.capacity();
+    }
+    return numBytes;
+  }
+}
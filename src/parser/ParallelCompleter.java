@@ -0,0 +1,342 @@
+package parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.DoubleList;
+import util.IntList;
+import util.IntMultiMap;
+import util.Operator;
+import util.ScoreAccumulator;
+import base.BackTrack;
+
+/**
+ * Intra-sentence parallel completion for an {@link EarleyParser}, so that a single long
+ * sentence can use several cores. Within column right, a cell [left, right] is built from
+ * cells [middle, right] with middle >= left, so cells are still completed one after another.
+ * What is split across the fork-join workers is the work of one cell:
+ *  - cellComplete(): the middles of a target cell [left, right], in contiguous chunks.
+ *  - fastCellComplete(): the completed edges [middle, right] of one middle, in contiguous chunks.
+ * Workers only read the chart and keep what they find in their own buffers. The calling thread
+ * then goes through the buffers in chunk order, which is the serial order, and does all the
+ * writes and bookkeeping, so scores are the same as with serial completion.
+ */
+class ParallelCompleter {
+  static final int MIN_CHUNK = 4; // min number of middles (or completed edges) per worker, less isn't worth a fork
+  private static final int FORWARD = 0;
+  private static final int INNER = 1;
+
+  private final EarleyParser parser;
+  private final EdgeSpace edgeSpace;
+  private final Operator operator;
+  private final boolean isViterbi;
+  private final ForkJoinPool pool;
+  private final Worker[] workers;
+
+  /** current job, set by the calling thread before invoking the pool **/
+  private int left; // cellComplete
+  private int middle; // fastCellComplete
+  private int right;
+  private IntList middles; // cellComplete: middles of [left, right]
+  private int completedSlot; // fastCellComplete: slot of middle in parser.completedEdges[right], i.e., completed edges [middle, right]
+  private double[] completedInners = new double[0]; // fastCellComplete: inner scores of the completed edges, as seen by serial completion
+  private int numItems;
+  private int numChunks;
+
+  public ParallelCompleter(EarleyParser parser, ForkJoinPool pool){
+    this.parser = parser;
+    this.edgeSpace = parser.edgeSpace;
+    this.operator = parser.operator;
+    this.isViterbi = (parser.options.decodeOpt==1);
+    this.pool = pool;
+    int numWorkers = pool.getParallelism();
+    workers = new Worker[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new Worker();
+    }
+  }
+
+  private int numChunks(int numItems){
+    return Math.min(workers.length, numItems/MIN_CHUNK);
+  }
+
+  /**
+   * Same as calling parser.cellComplete(left, middle, right) for each of the given middles, in order,
+   * except for multi-terminal rules. Middles should be > left, in decreasing order.
+   *
+   * @return false if there're too few middles to split, nothing is done then
+   */
+  public boolean cellComplete(int left, int right, IntList middles){
+    numItems = middles.size();
+    numChunks = numChunks(numItems);
+    if(numChunks<2){
+      return false;
+    }
+    this.left = left;
+    this.right = right;
+    this.middles = middles;
+    pool.invoke(new ChunkTask(false, 0, numChunks));
+
+    for (int c = 0; c < numChunks; c++) {
+      Worker worker = workers[c];
+      int start = 0;
+      for (int g = 0; g < worker.groupEnds.size(); g++) { // one group per middle
+        int end = worker.groupEnds.get(g);
+        if(end>start){
+          parser.initCompleteTmpScores();
+          for (int k = start; k < end; k++) {
+            int newEdge = worker.newEdges.get(k);
+            parser.initCompleteTmpScores(newEdge);
+            parser.addCompleteTmpForwardScore(newEdge, worker.forwardScores.get(k));
+            parser.addCompleteTmpInnerScore(newEdge, worker.innerScores.get(k));
+            parser.addNewEdgeInfo(left, right, newEdge);
+          }
+          parser.addLongSpan(left, right);
+          parser.storeCompleteTmpScores(left, right);
+        }
+        start = end;
+      }
+      worker.mergeSideInfo();
+    }
+    return true;
+  }
+
+  /**
+   * Same as calling parser.fastCellComplete(middle, right, nextEdge) for each of the first numEdges
+   * completed edges [middle, right], in order.
+   *
+   * @return false if there're too few edges to split, nothing is done then
+   */
+  public boolean fastCellComplete(int middle, int right, int numEdges){
+    numItems = numEdges;
+    numChunks = numChunks(numItems);
+    if(numChunks<2){
+      return false;
+    }
+    this.middle = middle;
+    this.right = right;
+    IntMultiMap completedEdges = parser.completedEdges[right];
+    completedSlot = completedEdges.slot(middle);
+    if(completedInners.length<numItems){
+      completedInners = new double[2*numItems];
+    }
+    IntMultiMap activeEdges = parser.activeEdgeInfo[middle];
+    int[] completionEdges = parser.grammar.getCompletionEdges();
+    double[] closureScores = parser.grammar.getCompletionScores();
+
+    // completions of active edges [middle, middle] add to [middle, right], i.e., may change the inner
+    // scores of later next edges, so we do them serially and remember the inner scores each edge would see
+    for (int i = 0; i < numItems; i++) {
+      int nextEdge = completedEdges.valueAt(completedSlot, i);
+      double inner = parser.getInnerScore(middle, right, nextEdge);
+      completedInners[i] = inner;
+
+      int tag = edgeSpace.mother(nextEdge);
+      for (int c = parser.grammar.completionStart(tag), end = parser.grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c];
+        if(activeEdges.contains(prevEdge, middle) && parser.isWithinWidth(middle, right, prevEdge)){
+          double updateScore = operator.multiply(closureScores[c], inner);
+          parser.fastCompleteEdge(middle, middle, right, nextEdge, prevEdge, closureScores[c], inner,
+              operator.multiply(parser.getForwardScore(middle, middle, prevEdge), updateScore),
+              operator.multiply(parser.getInnerScore(middle, middle, prevEdge), updateScore));
+        }
+      }
+    }
+
+    // the rest only reads cells of earlier columns
+    pool.invoke(new ChunkTask(true, 0, numChunks));
+
+    for (int c = 0; c < numChunks; c++) {
+      Worker worker = workers[c];
+      for (int k = 0; k < worker.newEdges.size(); k++) {
+        int edgeLeft = worker.lefts.get(k);
+        parser.addLongSpan(edgeLeft, right);
+        parser.fastCompleteEdge(edgeLeft, middle, right, worker.nextEdges.get(k), worker.activeEdges.get(k),
+            worker.completionScores.get(k), worker.inners.get(k), worker.forwardScores.get(k), worker.innerScores.get(k));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Splits chunks [start, end) in halves until there's one chunk, which is run by the worker of that chunk
+   */
+  private class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final boolean isFast;
+    private final int start;
+    private final int end;
+
+    ChunkTask(boolean isFast, int start, int end){
+      this.isFast = isFast;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end-start==1){
+        int from = (int) ((long) start*numItems/numChunks);
+        int to = (int) ((long) end*numItems/numChunks);
+        if(isFast){
+          workers[start].fastComplete(from, to);
+        } else {
+          workers[start].complete(from, to);
+        }
+      } else {
+        int mid = (start+end)/2;
+        invokeAll(new ChunkTask(isFast, start, mid), new ChunkTask(isFast, mid, end));
+      }
+    }
+  }
+
+  /**
+   * Buffers of one chunk, reused across jobs
+   */
+  private class Worker {
+    private final ScoreAccumulator scores = new ScoreAccumulator(parser.edgeSpaceSize, 2);
+
+    // new edges and their scores, in order: summed per middle by complete(), one per completion by fastComplete()
+    private final IntList newEdges = new IntList();
+    private final DoubleList forwardScores = new DoubleList();
+    private final DoubleList innerScores = new DoubleList();
+    private final IntList groupEnds = new IntList(); // complete(): end of the new edges of each middle
+
+    // fastComplete(): what else fastCompleteEdge() needs to know about each new edge
+    private final IntList lefts = new IntList();
+    private final IntList nextEdges = new IntList();
+    private final IntList activeEdges = new IntList();
+    private final DoubleList completionScores = new DoubleList();
+    private final DoubleList inners = new DoubleList();
+
+    private final DoubleList prefixScores = new DoubleList(); // complete(): forward scores to add to the prefix prob of right
+    private final Map<Integer, BackTrack> backtracks = new HashMap<Integer, BackTrack>(); // complete(): best backtrack of each new edge
+
+    private void clear(){
+      newEdges.clear();
+      forwardScores.clear();
+      innerScores.clear();
+      groupEnds.clear();
+      lefts.clear();
+      nextEdges.clear();
+      activeEdges.clear();
+      completionScores.clear();
+      inners.clear();
+      prefixScores.clear();
+      backtracks.clear();
+    }
+
+    /**
+     * Completions of [left, right] from middles.get(from) ... middles.get(to-1)
+     */
+    private void complete(int from, int to){
+      clear();
+      for (int i = from; i < to; i++) {
+        int middle = middles.get(i);
+        scores.clear();
+        for(int edge = parser.nextInsideEdge(middle, right, -1); edge >= 0; edge = parser.nextInsideEdge(middle, right, edge)){
+          if(edgeSpace.to(edge) == -1){ // no more child after the dot
+            complete(middle, edge, parser.getInnerScore(middle, right, edge));
+          }
+        }
+
+        // sum as storeCompleteTmpScores() would do for this middle
+        for (int k = 0; k < scores.numEdges(); k++) {
+          int newEdge = scores.edgeAt(k);
+          newEdges.add(newEdge);
+          forwardScores.add(scores.sum(newEdge, FORWARD, operator));
+          innerScores.add(scores.sum(newEdge, INNER, operator));
+        }
+        groupEnds.add(newEdges.size());
+      }
+    }
+
+    // same as EarleyParser.complete() without side effects
+    private void complete(int middle, int nextEdge, double inner){
+      int tag = edgeSpace.mother(nextEdge);
+      int[] completionEdges = parser.grammar.getCompletionEdges();
+      double[] closureScores = parser.grammar.getCompletionScores();
+      for (int c = parser.grammar.completionStart(tag), end = parser.grammar.completionEnd(tag); c < end; c++) {
+        int prevEdge = completionEdges[c];
+        if (parser.containsInsideEdge(left, middle, prevEdge)
+            && parser.isSpanAllowed(left, right, prevEdge)) {
+          double updateScore = operator.multiply(closureScores[c], inner);
+          double newForwardScore = operator.multiply(
+              parser.getForwardScore(left, middle, prevEdge), updateScore);
+          double newInnerScore = operator.multiply(
+              parser.getInnerScore(left, middle, prevEdge), updateScore);
+          int newEdge = edgeSpace.to(prevEdge);
+          scores.add(newEdge, FORWARD, newForwardScore);
+          scores.add(newEdge, INNER, newInnerScore);
+
+          if(isViterbi){
+            BackTrack backtrack = backtracks.get(newEdge);
+            if(backtrack==null || backtrack.parentInnerScore < newInnerScore
+                || (backtrack.parentInnerScore == newInnerScore 
+                    && parser.isTieWinner(nextEdge, middle, backtrack.edge, backtrack.middle, right))){
+              backtracks.put(newEdge, new BackTrack(nextEdge, middle, newInnerScore));
+            }
+          }
+          if (middle == right - 1) {
+            prefixScores.add(newForwardScore);
+          }
+        }
+      }
+    }
+
+    /**
+     * Prefix probs and backtracks found by complete(), the best backtrack of a chunk is the one
+     * serial completion would keep, so merging chunks in order gives the same result.
+     */
+    private void mergeSideInfo(){
+      for (int k = 0; k < prefixScores.size(); k++) {
+        parser.wordPrefixScores[right] = operator.add(parser.wordPrefixScores[right], prefixScores.get(k));
+      }
+      for (Map.Entry<Integer, BackTrack> entry : backtracks.entrySet()) {
+        BackTrack backtrack = entry.getValue();
+        parser.addBacktrack(left, backtrack.middle, right, backtrack.edge, entry.getKey(), backtrack.parentInnerScore);
+      }
+    }
+
+    /**
+     * Completions of [*, right] from the completed edges [middle, right] from ... to-1 and active edges
+     * [left, middle], left < middle
+     */
+    private void fastComplete(int from, int to){
+      clear();
+      IntMultiMap completedEdges = parser.completedEdges[right];
+      IntMultiMap activeLefts = parser.activeEdgeInfo[middle];
+      int[] completionEdges = parser.grammar.getCompletionEdges();
+      double[] closureScores = parser.grammar.getCompletionScores();
+      for (int i = from; i < to; i++) {
+        int nextEdge = completedEdges.valueAt(completedSlot, i);
+        double inner = completedInners[i];
+        int tag = edgeSpace.mother(nextEdge);
+        for (int c = parser.grammar.completionStart(tag), end = parser.grammar.completionEnd(tag); c < end; c++) {
+          int prevEdge = completionEdges[c];
+          int slot = activeLefts.slot(prevEdge);
+          if(slot<0){
+            continue;
+          }
+          for (int j = 0; j < activeLefts.sizeAt(slot); j++) {
+            int prevLeft = activeLefts.valueAt(slot, j);
+            if(prevLeft==middle || !parser.isSpanAllowed(prevLeft, right, prevEdge)){
+              continue;
+            }
+            double updateScore = operator.multiply(closureScores[c], inner);
+            lefts.add(prevLeft);
+            nextEdges.add(nextEdge);
+            activeEdges.add(prevEdge);
+            completionScores.add(closureScores[c]);
+            inners.add(inner);
+            forwardScores.add(operator.multiply(parser.getForwardScore(prevLeft, middle, prevEdge), updateScore));
+            innerScores.add(operator.multiply(parser.getInnerScore(prevLeft, middle, prevEdge), updateScore));
+            newEdges.add(edgeSpace.to(prevEdge));
+          }
+        }
+      }
+    }
+  }
+}
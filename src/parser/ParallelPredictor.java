@@ -0,0 +1,160 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.DoubleList;
+import util.IntList;
+import util.Operator;
+
+/**
+ * Intra-sentence parallel prediction for an {@link EarleyParser}. Predictions at column right
+ * are made from the forward mass, per nonterminal after the dot, of the edges of the cells
+ * [left, right], which are complete by then. The lefts are split into contiguous chunks, one per
+ * fork-join worker, and each worker sums the forward scores of its cells into its own buffers.
+ * The calling thread then adds the buffers to the parser's per-nonterminal mass, in chunk order:
+ *  - by default, each worker sums the forward scores per nonterminal, so only the sums
+ *    are added up serially. Scores may differ from serial prediction in the last bits.
+ *  - with options.isExactParallel, workers keep every forward score, in order, and they're
+ *    added up one by one as serial prediction does, so scores are bit-identical.
+ * The predictions themselves are then made once per nonterminal by the parser.
+ */
+class ParallelPredictor {
+  static final int MIN_CHUNK = 4; // min number of lefts per worker, less isn't worth a fork
+
+  private final EarleyParser parser;
+  private final Operator operator;
+  private final boolean isExact;
+  private final ForkJoinPool pool;
+  private final Worker[] workers;
+
+  /** current job, set by the calling thread before invoking the pool **/
+  private int right;
+  private IntList lefts; // lefts of non-empty cells [left, right]
+  private int numChunks;
+
+  public ParallelPredictor(EarleyParser parser, ForkJoinPool pool){
+    this.parser = parser;
+    this.operator = parser.operator;
+    this.isExact = parser.options.isExactParallel;
+    this.pool = pool;
+    workers = new Worker[pool.getParallelism()];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker();
+    }
+  }
+
+  /**
+   * Same as calling parser.chartPredict(left, right) for each of the given lefts, in order, before
+   * predictFromCategories(right).
+   *
+   * @return false if there're too few lefts to split, nothing is done then
+   */
+  public boolean chartPredict(int right, IntList lefts){
+    numChunks = Math.min(workers.length, lefts.size()/MIN_CHUNK);
+    if(numChunks<2){
+      return false;
+    }
+    this.right = right;
+    this.lefts = lefts;
+    pool.invoke(new ChunkTask(0, numChunks));
+
+    for (int c = 0; c < numChunks; c++) {
+      workers[c].reduce();
+    }
+    return true;
+  }
+
+  /**
+   * Splits chunks [start, end) in halves until there's one chunk, which is run by the worker of that chunk
+   */
+  private class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int start;
+    private final int end;
+
+    ChunkTask(int start, int end){
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end-start==1){
+        int numLefts = lefts.size();
+        workers[start].predict(start*numLefts/numChunks, end*numLefts/numChunks);
+      } else {
+        int mid = (start+end)/2;
+        invokeAll(new ChunkTask(start, mid), new ChunkTask(mid, end));
+      }
+    }
+  }
+
+  /**
+   * Buffers of one chunk, reused across columns
+   */
+  private class Worker {
+    // nonterminals after the dot, in order of their first edge, and the sums of forward scores
+    private final IntList vias = new IntList();
+    private final boolean[] isVia;
+    private final double[] forwardScores; // forwardScores[via]: sum of forward scores
+
+    // isExact: every forward score, in order
+    private final IntList edgeVias = new IntList();
+    private final DoubleList edgeScores = new DoubleList();
+
+    Worker(){
+      isVia = new boolean[parser.numCategories];
+      forwardScores = new double[parser.numCategories];
+      Arrays.fill(forwardScores, operator.zero());
+    }
+
+    /**
+     * Forward mass of the cells [lefts.get(from), right] ... [lefts.get(to-1), right]
+     */
+    private void predict(int from, int to){
+      for (int i = from; i < to; i++) {
+        int left = lefts.get(i);
+        for (int edge = parser.nextInsideEdge(left, right, -1); edge >= 0; edge = parser.nextInsideEdge(left, right, edge)) {
+          int via = parser.grammar.getPredictionVia(edge);
+          if(via<0){
+            continue;
+          }
+          double forward = parser.getForwardScore(left, right, edge);
+          if(isExact){
+            edgeVias.add(via);
+            edgeScores.add(forward);
+          } else {
+            if(!isVia[via]){
+              isVia[via] = true;
+              vias.add(via);
+            }
+            forwardScores[via] = operator.add(forwardScores[via], forward);
+          }
+        }
+      }
+    }
+
+    /**
+     * Add the forward mass of this chunk to the parser's, then clear the buffers
+     */
+    private void reduce(){
+      if(isExact){
+        for (int k = 0; k < edgeVias.size(); k++) {
+          parser.addViaForwardScore(edgeVias.get(k), edgeScores.get(k));
+        }
+        edgeVias.clear();
+        edgeScores.clear();
+      }
+
+      for (int k = 0; k < vias.size(); k++) {
+        int via = vias.get(k);
+        parser.addViaForwardScore(via, forwardScores[via]);
+        isVia[via] = false;
+        forwardScores[via] = operator.zero();
+      }
+      vias.clear();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import util.Bits;
+import util.IntMultiMap;
+import base.BackTrack;
+
+/**
+ * Per-sentence bookkeeping of an {@link EarleyParser}: word indices, prefix scores,
+ * scaling factors, completion info and backtrack info. Each parser owns one
+ * instance and reuses it for all sentences, so containers grow to the largest
+ * sentence seen. reset() only clears what the previous sentence touched and
+ * recycles the inner sets and maps it handed out.
+ */
+public class ParseState {
+  protected final List<Integer> wordIndices = new ArrayList<Integer>();
+  protected double[] wordPrefixScores = new double[0];
+  // scaling: logScalings[i] is the log of the product of the scaling factors of words 0 ... i-1, logScalings[0] = 0
+  protected double[] logScalings = new double[0];
+  // completion info, one multimap per position right: completedEdges[right] maps left to the completed
+  // edges [left, right], activeEdgeInfo[right] maps an active edge to its lefts
+  protected IntMultiMap[] completedEdges = new IntMultiMap[0];
+  protected IntMultiMap[] activeEdgeInfo = new IntMultiMap[0];
+  protected final Map<Integer, Map<Integer, Set<Integer>>> fragmentEdgeInfo = new HashMap<Integer, Map<Integer, Set<Integer>>>();
+  protected final Map<Integer, Map<Integer, BackTrack>> backtrackChart = new HashMap<Integer, Map<Integer, BackTrack>>();
+  // width-bounded parsing: longLefts[right] is a bitset of lefts with edges [left, right] longer than the max width, null if none
+  protected long[][] longLefts = new long[0][];
+
+  // recycled containers
+  private final List<Set<Integer>> freeSets = new ArrayList<Set<Integer>>();
+  private final List<Map<Integer, BackTrack>> freeBacktrackCells = new ArrayList<Map<Integer, BackTrack>>();
+  private final List<Map<Integer, Set<Integer>>> fragmentEdgeMaps = new ArrayList<Map<Integer, Set<Integer>>>(); // fragmentEdgeMaps.get(right)
+  private int numPositions = 0; // number of positions (numWords+1) prepared for the current sentence
+
+  /**
+   * Clear the state of the previous sentence and prepare for a sentence of numWords words
+   */
+  public void reset(int numWords, double zero, double one){
+    wordIndices.clear();
+
+    // completion info
+    for (int i = 0; i < numPositions; i++) {
+      completedEdges[i].clear();
+      activeEdgeInfo[i].clear();
+      recycleSets(fragmentEdgeMaps.get(i));
+      fragmentEdgeMaps.get(i).clear();
+    }
+    fragmentEdgeInfo.clear();
+    
+    // backtrack info
+    for (Map<Integer, BackTrack> backtrackCell : backtrackChart.values()) {
+      backtrackCell.clear();
+      freeBacktrackCells.add(backtrackCell);
+    }
+    backtrackChart.clear();
+    
+    Arrays.fill(longLefts, 0, Math.min(numPositions, longLefts.length), null);
+    numPositions = 0;
+    grow(numWords, zero);
+    wordPrefixScores[0] = one;
+    logScalings[0] = 0.0;
+  }
+  
+  /**
+   * Make room for a sentence of numWords words, keeping the info of positions already there.
+   * Used when words are added one at a time, note that wordPrefixScores, logScalings, and the
+   * completion info arrays may be reallocated.
+   */
+  public void grow(int numWords, double zero){
+    if(numWords+1 <= numPositions){
+      return;
+    }
+    
+    // prefix scores
+    if(wordPrefixScores.length < numWords+1){
+      wordPrefixScores = Arrays.copyOf(wordPrefixScores, numWords+1);
+    }
+    Arrays.fill(wordPrefixScores, numPositions, numWords+1, zero);
+    if(logScalings.length < numWords+1){
+      logScalings = Arrays.copyOf(logScalings, numWords+1);
+    }
+    
+    if(longLefts.length < numWords+1){
+      longLefts = Arrays.copyOf(longLefts, numWords+1);
+    }
+    
+    // completion info
+    if(completedEdges.length < numWords+1){
+      int oldLength = completedEdges.length;
+      completedEdges = Arrays.copyOf(completedEdges, numWords+1);
+      activeEdgeInfo = Arrays.copyOf(activeEdgeInfo, numWords+1);
+      for (int i = oldLength; i <= numWords; i++) {
+        completedEdges[i] = new IntMultiMap();
+        activeEdgeInfo[i] = new IntMultiMap();
+      }
+    }
+    for (int i = fragmentEdgeMaps.size(); i <= numWords; i++) {
+      fragmentEdgeMaps.add(new HashMap<Integer, Set<Integer>>());
+    }
+    for (int i = numPositions; i <= numWords; i++) {
+      fragmentEdgeInfo.put(i, fragmentEdgeMaps.get(i));
+    }
+    numPositions = numWords+1;
+  }
+
+  private void recycleSets(Map<Integer, Set<Integer>> map){
+    for (Set<Integer> set : map.values()) {
+      recycleSet(set);
+    }
+  }
+
+  /**
+   * An empty set, recycled from a previous sentence if possible
+   */
+  public Set<Integer> newSet(){
+    return freeSets.isEmpty() ? new HashSet<Integer>() : freeSets.remove(freeSets.size()-1);
+  }
+
+  /**
+   * Give back a set obtained from newSet() that's no longer used
+   */
+  public void recycleSet(Set<Integer> set){
+    set.clear();
+    freeSets.add(set);
+  }
+
+  /**
+   * Remember that there are edges [left, right] longer than the max width
+   */
+  public void addLongLeft(int left, int right){
+    if(longLefts[right] == null){
+      longLefts[right] = new long[Bits.numWords(right+1)];
+    }
+    Bits.set(longLefts[right], left);
+  }
+
+  /**
+   * An empty backtrack cell, recycled from a previous sentence if possible
+   */
+  public Map<Integer, BackTrack> newBacktrackCell(){
+    return freeBacktrackCells.isEmpty() ? new HashMap<Integer, BackTrack>() : freeBacktrackCells.remove(freeBacktrackCells.size()-1);
+  }
+}
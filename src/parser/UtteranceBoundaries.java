@@ -0,0 +1,82 @@
+package parser;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+
+/**
+ * Utterance boundaries of a discourse such as
+ *   .dog kid.eyes mom.eyes # .pig kid.hands # ## and whats that is this a puppy dog .pig # ## woof woof
+ * where each utterance lists its social cues, then "##", then its words. Like
+ * {@link decoder.MarginalDecoder#socialMarginalDecoding()}, a new utterance starts at a token beginning
+ * with '.' or equal to "##" once the current utterance has passed its "##".
+ *
+ * Edges of boundary-constrained nonterminals must lie within one utterance: a completed edge over
+ * [left, right] can't have a boundary strictly inside, and an active edge can't end at a boundary
+ * either since it still has to be extended.
+ */
+public class UtteranceBoundaries {
+  public static final String CUE_PREFIX = ".";
+  public static final String WORDS_MARKER = "##";
+
+  private int numUtterances = 0;
+  private int[] nextBoundaries = new int[0]; // nextBoundaries[left]: first boundary after left, numWords for the last utterance
+
+  /**
+   * Find the boundaries of words, the array is reused across sentences
+   */
+  public void init(List<? extends HasWord> words){
+    int numWords = words.size();
+    if(nextBoundaries.length < numWords+1){
+      nextBoundaries = new int[numWords+1];
+    }
+
+    // mark utterance starts, left to right
+    numUtterances = (numWords>0) ? 1 : 0;
+    boolean isWords = false; // whether the current utterance has passed its "##"
+    for (int i = 0; i < numWords; i++) {
+      String word = words.get(i).word();
+      nextBoundaries[i] = -1;
+      if(isWords && (word.startsWith(CUE_PREFIX) || word.equals(WORDS_MARKER))){ // start of a new utterance
+        nextBoundaries[i] = i;
+        isWords = false;
+        numUtterances++;
+      }
+      if(word.equals(WORDS_MARKER)){
+        isWords = true;
+      }
+    }
+
+    // next boundaries, right to left
+    int boundary = numWords;
+    nextBoundaries[numWords] = numWords;
+    for (int left = numWords-1; left >= 0; left--) {
+      int start = nextBoundaries[left];
+      nextBoundaries[left] = boundary;
+      if(start==left){
+        boundary = left;
+      }
+    }
+  }
+
+  /**
+   * Whether an edge of a constrained nonterminal can span [left, right], left < right
+   *
+   * @param isActive whether the edge is active, X -> \alpha . \beta, rather than completed
+   */
+  public boolean isAllowed(int left, int right, boolean isActive){
+    int boundary = nextBoundaries[left];
+    return isActive ? right<boundary : right<=boundary;
+  }
+
+  /**
+   * First boundary after left, numWords if none
+   */
+  public int nextBoundary(int left){
+    return nextBoundaries[left];
+  }
+
+  public int getNumUtterances() {
+    return numUtterances;
+  }
+}
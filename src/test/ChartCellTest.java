@@ -0,0 +1,74 @@
+package test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import parser.ChartCell;
+import util.LogProbOperator;
+import util.Operator;
+import junit.framework.TestCase;
+
+public class ChartCellTest extends TestCase{
+  public void testBasic(){
+    Operator operator = new LogProbOperator();
+    ChartCell cell = new ChartCell(2, operator.zero());
+    assertEquals(0, cell.size());
+    assertEquals(false, cell.contains(3));
+    assertEquals(operator.zero(), cell.get(3, 0));
+
+    cell.put(3, 1, Math.log(0.5)); // only inner score
+    assertEquals(true, cell.contains(3));
+    assertEquals(operator.zero(), cell.get(3, 0));
+    assertEquals(0.5, Math.exp(cell.get(3, 1)), 1e-10);
+
+    cell.add(3, 1, Math.log(0.25), operator);
+    cell.add(3, 0, Math.log(0.1), operator);
+    assertEquals(0.75, Math.exp(cell.get(3, 1)), 1e-10);
+    assertEquals(0.1, Math.exp(cell.get(3, 0)), 1e-10);
+    assertEquals(1, cell.size());
+  }
+
+  public void testGrowAndIterate(){
+    Operator operator = new LogProbOperator();
+    ChartCell cell = new ChartCell(2, operator.zero());
+    Set<Integer> expected = new HashSet<Integer>();
+    for (int edge = 0; edge < 1000; edge += 7) {
+      cell.put(edge, 0, edge);
+      cell.put(edge, 1, -edge);
+      expected.add(edge);
+    }
+    cell.put(65536 + 7, 0, 1.0); // collides with edge 7 before mixing
+    expected.add(65536 + 7);
+
+    assertEquals(expected.size(), cell.size());
+    assertEquals(expected, cell.edgeSet());
+
+    int count = 0;
+    for (int slot = cell.nextSlot(-1); slot >= 0; slot = cell.nextSlot(slot)) {
+      int edge = cell.edgeAt(slot);
+      assertEquals(true, expected.contains(edge));
+      if(edge < 65536){
+        assertEquals((double) edge, cell.scoreAt(slot, 0));
+        assertEquals((double) -edge, cell.scoreAt(slot, 1));
+      }
+      count++;
+    }
+    assertEquals(expected.size(), count);
+
+    // remove every other edge, the remaining ones must still be found
+    for (int edge = 0; edge < 1000; edge += 14) {
+      assertEquals(true, cell.remove(edge));
+      expected.remove(edge);
+    }
+    assertEquals(false, cell.remove(0));
+    assertEquals(expected.size(), cell.size());
+    assertEquals(expected, cell.edgeSet());
+    assertEquals(7.0, cell.get(7, 0));
+    assertEquals(1.0, cell.get(65536 + 7, 0));
+    
+    cell.clear();
+    assertEquals(0, cell.size());
+    assertEquals(-1, cell.nextSlot(-1));
+    assertEquals(false, cell.contains(7));
+  }
+}
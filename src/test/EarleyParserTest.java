@@ -6,7 +6,9 @@ import induction.InsideOutside;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 
 //import junit.framework.TestCase;
@@ -20,9 +22,11 @@ import decoder.ViterbiDecoder;
 import edu.stanford.nlp.trees.Tree;
 import base.ClosureMatrix;
 import base.RelationMatrix;
+import parser.AdaptiveParser;
 import parser.Completion;
 import parser.EarleyParser;
 import parser.EarleyParserGenerator;
+import parser.EarleyParserOptions;
 import parser.EdgeSpace;
 import parser.Grammar;
 import parser.Measures;
@@ -33,7 +37,13 @@ import util.Util;
 public class EarleyParserTest { // extends TestCase {
   private EarleyParser parser;
   private String rootSymbol = "ROOT";
-  private int parserOpt = 0; // 0: dense, 1: sparse, 2: sparse IO
+  private int parserOpt = 0; // 0: dense, 1: sparse, 2: off-heap
+  private int numWorkers = 1; // completion and prediction workers per parser
+  private boolean isExactParallel = false;
+  private boolean isLookahead = false; // lookahead-filtered prediction
+  private String coarseRegex = null; // coarse-to-fine parsing if not null
+  private double coarseThreshold = 0.0;
+  private List<String> boundaryPrefixes = new ArrayList<String>(); // nonterminals within utterance boundaries
   private boolean isScaling = false; // true; //      
   private boolean isLogProb = true; // false; //    
   private String ioOptStr = "vb";
@@ -190,24 +200,47 @@ public class EarleyParserTest { // extends TestCase {
     int inGrammarType = 1; // read from grammar
     EarleyParserGenerator parserGenerator = new EarleyParserGenerator(inGrammarFile, inGrammarType, rootSymbol, 
   			isScaling, isLogProb, ioOptStr, decodeOptStr, objStr);
+    parserGenerator.setParallelism(numWorkers, isExactParallel);
+    parserGenerator.setLookahead(isLookahead);
     if(parserOpt==0){ // dense
 		  parser = parserGenerator.getParserDense();
 		} else if(parserOpt==1){ // sparse
 			parser = parserGenerator.getParserSparse();
+		} else if(parserOpt==2){ // off-heap
+		  parser = parserGenerator.getParserOffHeap(null);
 		} else {
 		  assert(false);
 		}
   }
   
   private void initParserFromString(String grammarString){
+    initParserFromString(grammarString, 0.0, 0);
+  }
+  
+  private void initParserFromString(String grammarString, double pruneThreshold, int pruneTopK){
+    initParserFromString(grammarString, pruneThreshold, pruneTopK, 0, new ArrayList<String>());
+  }
+  
+  private void initParserFromString(String grammarString, double pruneThreshold, int pruneTopK,
+      int maxWidth, List<String> exemptSymbols){
     try {
     	EarleyParserGenerator parserGenerator = new EarleyParserGenerator(
     			Util.getBufferedReaderFromString(grammarString), rootSymbol, 
     			isScaling, isLogProb, ioOptStr, decodeOptStr, objStr);
+    	parserGenerator.setPruning(pruneThreshold, pruneTopK);
+    	parserGenerator.setMaxWidth(maxWidth, exemptSymbols);
+    	parserGenerator.setParallelism(numWorkers, isExactParallel);
+    	parserGenerator.setLookahead(isLookahead);
+    	parserGenerator.setBoundaryConstraint(boundaryPrefixes);
+    	if(coarseRegex!=null){
+    	  parserGenerator.setCoarseToFine(coarseRegex, coarseThreshold);
+    	}
       if(parserOpt==0){ // dense
   		  parser = parserGenerator.getParserDense();
   		} else if(parserOpt==1){ // sparse
   			parser = parserGenerator.getParserSparse();
+  		} else if(parserOpt==2){ // off-heap
+  		  parser = parserGenerator.getParserOffHeap(null);
   		} else {
   		  assert(false);
   		}
@@ -497,6 +530,536 @@ public class EarleyParserTest { // extends TestCase {
       assertEquals(tree.toString(), "( (ROOT (A (B (A (B1 b) (C1 c) (D d))) (C c))))");
     }
   }
+  
+  @Test
+  public void testSentenceStateReuse(){
+    initParserFromString(basicRecursiveFragmentGrammarString);
+    
+    // a short sentence after longer ones reuses the state of the parser
+    parser.parseSentence("b c d c");
+    parser.parseSentence("d c c");
+    parser.parseSentence("b c");
+    
+    assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), new double[]{0.39204208777602356, 0.5108256237659905}));
+    assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), new double[]{0.0, 0.25000000000000006}));
+    if(parser.getDecodeOpt()==1){
+      Tree tree = (new ViterbiDecoder(parser)).getBestParse();
+      assertEquals(tree.toString(), "( (ROOT (A b (C c))))");
+    }
+  }
+  
+  @Test
+  public void testPruning(){
+    objStr = objStr + "," + Measures.PRUNED_MASS;
+    String inputSentence = "b c c";
+    
+    // exact parse
+    initParserFromString(basicRecursiveFragmentGrammarString);
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    double stringProb = parser.getMeasureList(Measures.STRINGPROB).get(2);
+    
+    // a tiny threshold doesn't change the results
+    initParserFromString(basicRecursiveFragmentGrammarString, 1e-10, 0);
+    parser.parseSentence(inputSentence);
+    assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+    assertEquals(true, compare(parser.getMeasureList(Measures.PRUNED_MASS), new double[]{0.0, 0.0, 0.0}));
+    
+    // keeping one edge per cell loses some mass but never adds any
+    initParserFromString(basicRecursiveFragmentGrammarString, 0.0, 1);
+    parser.parseSentence(inputSentence);
+    double prunedMass = 0.0;
+    for (double mass : parser.getMeasureList(Measures.PRUNED_MASS)) {
+      prunedMass += mass;
+    }
+    assertEquals(true, prunedMass > 0);
+    assertEquals(true, parser.getMeasureList(Measures.STRINGPROB).get(2) <= stringProb + 1e-10);
+  }
+  
+  @Test
+  public void testPruningInsideOutside(){
+    // PP attachment, only active edges are pruned so the outside pass and decoding still see the constituents
+    String ppGrammarString = "ROOT->[S] : 1.0\n" + 
+    "S->[NP VP] : 1.0\n" + 
+    "NP->[N] : 0.6\n" + 
+    "NP->[NP PP] : 0.4\n" + 
+    "VP->[V NP] : 0.7\n" + 
+    "VP->[VP PP] : 0.3\n" + 
+    "PP->[P NP] : 1.0\n" + 
+    "N->[_john] : 0.5\n" + 
+    "N->[_mary] : 0.3\n" + 
+    "N->[_telescope] : 0.2\n" + 
+    "V->[_saw] : 1.0\n" + 
+    "P->[_with] : 1.0\n";
+    String inputSentence = "john saw mary with telescope";
+    String origIoOptStr = ioOptStr;
+    String origDecodeOptStr = decodeOptStr;
+    String origObjStr = objStr;
+    ioOptStr = "em";
+    decodeOptStr = EarleyParserOptions.MARGINAL_OPT;
+    objStr = objStr + "," + Measures.PRUNED_MASS;
+    int origParserOpt = parserOpt;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      // exact parse
+      initParserFromString(ppGrammarString);
+      parser.parseSentence(inputSentence);
+      String expectedCounts = parser.sprintExpectedCounts();
+      String tree = (new MarginalDecoder(parser)).getBestParse().toString();
+      assertEquals(true, expectedCounts.contains("0.428571 VP->[VP PP]"));
+      
+      // a tiny threshold doesn't change the results
+      initParserFromString(ppGrammarString, 1e-10, 0);
+      parser.parseSentence(inputSentence);
+      assertEquals(true, compare(parser.sprintExpectedCounts(), expectedCounts));
+      assertEquals(tree, (new MarginalDecoder(parser)).getBestParse().toString());
+      
+      // keeping two active edges per cell drops the VP attachment, the counts are those of the NP attachment
+      initParserFromString(ppGrammarString, 0.0, 2);
+      parser.parseSentence(inputSentence);
+      double prunedMass = 0.0;
+      for (double mass : parser.getMeasureList(Measures.PRUNED_MASS)) {
+        prunedMass += mass;
+      }
+      assertEquals(true, prunedMass > 0);
+      String prunedCounts = parser.sprintExpectedCounts();
+      assertEquals(true, prunedCounts.contains("3.000000 NP->[N]"));
+      assertEquals(true, prunedCounts.contains("1.000000 NP->[NP PP]"));
+      assertEquals(false, prunedCounts.contains("VP->[VP PP]"));
+      assertEquals(tree, (new MarginalDecoder(parser)).getBestParse().toString());
+    }
+    parserOpt = origParserOpt;
+    ioOptStr = origIoOptStr;
+    decodeOptStr = origDecodeOptStr;
+    objStr = origObjStr;
+  }
+  
+  @Test
+  public void testMaxWidth(){
+    // a discourse made of short sentences, no outside pass or decoding so that old columns are evicted
+    String discourseGrammarString = "ROOT->[Discourse] : 1.0\n" + 
+    "Discourse->[Sentence Discourse] : 0.5\n" + 
+    "Discourse->[Sentence] : 0.5\n" + 
+    "Sentence->[A B] : 0.6\n" + 
+    "Sentence->[A Sentence B] : 0.4\n" + 
+    "A->[_a] : 1.0\n" + 
+    "B->[_b] : 1.0\n";
+    ioOptStr = "";
+    decodeOptStr = "";
+    String inputSentence = "a b a a b b a b a b";
+    
+    // exact parse
+    initParserFromString(discourseGrammarString);
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+    
+    // sentences span at most 4 words, so only discourses need to be longer
+    List<String> exemptSymbols = new ArrayList<String>();
+    exemptSymbols.add("Disc.*");
+    initParserFromString(discourseGrammarString, 0.0, 0, 4, exemptSymbols);
+    parser.parseSentence(inputSentence);
+    assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+    assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+    checkIncremental(inputSentence);
+    
+    // without exemption, only the first sentence can be complete
+    initParserFromString(discourseGrammarString, 0.0, 0, 4, new ArrayList<String>());
+    parser.parseSentence(inputSentence);
+    List<Double> boundedStringProbs = parser.getMeasureList(Measures.STRINGPROB);
+    assertEquals(stringProbs.get(1), boundedStringProbs.get(1), 1e-10);
+    assertEquals(0.0, boundedStringProbs.get(9), 1e-10);
+    assertEquals(false, parser.hasParse());
+  }
+  
+  @Test
+  public void testOffHeap(){
+    String[] grammars = {complexRecursiveFragmentGrammarString, getCatalanGrammar(0.1)};
+    String[] inputSentences = {"b c d c", "x x x x x x x x x x"};
+    int origParserOpt = parserOpt;
+    for (int i = 0; i < grammars.length; i++) {
+      parserOpt = 0; // dense
+      initParserFromString(grammars[i]);
+      parser.parseSentence(inputSentences[i]);
+      List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+      List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+      String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+      
+      parserOpt = 2;
+      initParserFromString(grammars[i]);
+      parser.parseSentence(inputSentences[i]);
+      assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+      assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+      
+      // a second sentence reuses the chart segments
+      parser.parseSentence(inputSentences[i]);
+      assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+    }
+    parserOpt = origParserOpt;
+  }
+  
+  @Test
+  public void testParallelParsing(){
+    // long enough for cells to have more middles, and columns more lefts, than a worker chunk
+    StringBuffer sb = new StringBuffer("x");
+    for (int i = 0; i < 29; i++) {
+      sb.append(" x");
+    }
+    String inputSentence = sb.toString();
+    int origParserOpt = parserOpt;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      initParserFromString(getCatalanGrammar(0.1));
+      parser.parseSentence(inputSentence);
+      List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+      List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+      String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+      
+      // workers are merged in serial order, so results are identical
+      numWorkers = 4;
+      isExactParallel = true;
+      initParserFromString(getCatalanGrammar(0.1));
+      parser.parseSentence(inputSentence);
+      assertEquals(surprisals, parser.getMeasureList(Measures.SURPRISAL));
+      assertEquals(stringProbs, parser.getMeasureList(Measures.STRINGPROB));
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+      
+      // workers sum their own predictions first
+      isExactParallel = false;
+      initParserFromString(getCatalanGrammar(0.1));
+      numWorkers = 1;
+      parser.parseSentence(inputSentence);
+      assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+      assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+    }
+    
+    // the sparse parser splits the completed edges of a cell, which needs a grammar with many categories
+    parserOpt = 1;
+    inputSentence = "The two young sea-lions .";
+    initParserFromFile(wsj5);
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+    numWorkers = 4;
+    initParserFromFile(wsj5);
+    numWorkers = 1;
+    parser.parseSentence(inputSentence);
+    assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+    assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+    parserOpt = origParserOpt;
+  }
+
+  @Test
+  public void testLookahead(){
+    // fragment and multi-terminal rules, unknown words, and a highly ambiguous grammar
+    String[] grammars = {complexRecursiveFragmentGrammarString, extendedGrammarString, getCatalanGrammar(0.1)};
+    String[] inputSentences = {"b c d c", "b zz c", "x x x x x x x x x x"};
+    int origParserOpt = parserOpt;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      for (int i = 0; i < grammars.length; i++) {
+        initParserFromString(grammars[i]);
+        parser.parseSentence(inputSentences[i]);
+        List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+        List<Double> prefixes = parser.getMeasureList(Measures.PREFIX);
+        List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+        String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+        
+        // predictions that can't start with the next word have no inner mass, prefix probs are unchanged
+        isLookahead = true;
+        initParserFromString(grammars[i]);
+        isLookahead = false;
+        parser.parseSentence(inputSentences[i]);
+        assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+        assertEquals(true, compare(parser.getMeasureList(Measures.PREFIX), toArray(prefixes)));
+        assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+        assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+        
+        // the filter is off when words are pushed one at a time
+        checkIncremental(inputSentences[i]);
+      }
+    }
+    
+    // a treebank grammar, where most predictions are filtered
+    parserOpt = 1;
+    String inputSentence = "The two young sea-lions .";
+    initParserFromFile(wsj5);
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+    isLookahead = true;
+    initParserFromFile(wsj5);
+    isLookahead = false;
+    parser.parseSentence(inputSentence);
+    assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+    assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+    parserOpt = origParserOpt;
+  }
+
+  @Test
+  public void testCoarseToFine(){
+    // PP attachment with parent annotations, projected onto NP, VP, and PP
+    String annotatedGrammarString = "ROOT->[S] : 1.0\n" + 
+    "S->[NP^S VP^S] : 1.0\n" + 
+    "NP^S->[N] : 0.6\n" + 
+    "NP^S->[NP^NP PP^NP] : 0.4\n" + 
+    "NP^NP->[N] : 1.0\n" + 
+    "NP^PP->[N] : 0.7\n" + 
+    "NP^PP->[NP^NP PP^NP] : 0.3\n" + 
+    "NP^VP->[N] : 0.7\n" + 
+    "NP^VP->[NP^NP PP^NP] : 0.3\n" + 
+    "VP^S->[V NP^VP] : 0.6\n" + 
+    "VP^S->[VP^VP PP^VP] : 0.4\n" + 
+    "VP^VP->[V NP^VP] : 1.0\n" + 
+    "PP^NP->[P NP^PP] : 1.0\n" + 
+    "PP^VP->[P NP^PP] : 1.0\n" + 
+    "N->[_john] : 0.5\n" + 
+    "N->[_mary] : 0.3\n" + 
+    "N->[_telescope] : 0.2\n" + 
+    "V->[_saw] : 1.0\n" + 
+    "P->[_with] : 1.0\n";
+    String inputSentence = "john saw mary with telescope";
+    int origParserOpt = parserOpt;
+    String origObjStr = objStr;
+    objStr = objStr + "," + Measures.SURPRISAL_DEVIATION;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      // exact parse
+      initParserFromString(annotatedGrammarString);
+      parser.parseSentence(inputSentence);
+      List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+      List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+      String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+      
+      // all constituents of complete parses are kept, so the string prob and the best parse are unchanged,
+      // only prefixes that can't be completed lose mass
+      coarseRegex = "\\^.*";
+      coarseThreshold = 0.0;
+      initParserFromString(annotatedGrammarString);
+      parser.parseSentence(inputSentence);
+      assertEquals(stringProbs.get(4), parser.getMeasureList(Measures.STRINGPROB).get(4), 1e-10);
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+      List<Double> deviations = parser.getMeasureList(Measures.SURPRISAL_DEVIATION);
+      double prefixDeviation = 0.0; // prefix probs are lower bounds, so their surprisals can only be higher
+      for (int i = 0; i < surprisals.size(); i++) {
+        assertEquals(surprisals.get(i) + deviations.get(i), parser.getMeasureList(Measures.SURPRISAL).get(i), 1e-10);
+        prefixDeviation += deviations.get(i);
+        assertEquals(true, prefixDeviation >= -1e-10);
+      }
+      
+      // the coarse grammar prefers the NP attachment, the VP [1, 3] of the VP attachment has a posterior below 0.5
+      coarseThreshold = 0.5;
+      initParserFromString(annotatedGrammarString);
+      parser.parseSentence(inputSentence);
+      assertEquals(true, parser.getCoarseToFine().prunedFraction() > 0);
+      assertEquals(true, parser.hasParse());
+      assertEquals(true, parser.getMeasureList(Measures.STRINGPROB).get(4) < stringProbs.get(4));
+      coarseRegex = null;
+    }
+    objStr = origObjStr;
+    parserOpt = origParserOpt;
+  }
+
+  @Test
+  public void testCompletionJoins(){
+    // preterminals have many completions but few edges wait on them, so both joins run
+    String inputSentence = "The two young sea-lions .";
+    int origParserOpt = parserOpt;
+    parserOpt = 2; // no fast completion
+    initParserFromFile(wsj5);
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    String tree = (new ViterbiDecoder(parser)).getBestParse().toString();
+    for (parserOpt = 0; parserOpt <= 1; parserOpt++) {
+      initParserFromFile(wsj5);
+      parser.parseSentence(inputSentence);
+      assertEquals(true, parser.getNumCompletionJoins() > 0);
+      assertEquals(true, parser.getNumWaitingJoins() > 0);
+      assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+    }
+    parserOpt = origParserOpt;
+  }
+
+  @Test
+  public void testAdaptiveParser(){
+    // the dense chart of the long sentence doesn't fit in the budget
+    String[] inputSentences = {"The two", "The two young sea-lions ."};
+    EarleyParserGenerator parserGenerator = new EarleyParserGenerator(wsj5, 1, rootSymbol,
+        isScaling, isLogProb, ioOptStr, decodeOptStr, objStr);
+    long memoryBudget = parserGenerator.getParserAuto().denseChartBytes(2);
+    AdaptiveParser autoParser = parserGenerator.getParserAuto(memoryBudget);
+    assertEquals(false, autoParser.chooseDense(5));
+    assertEquals(true, autoParser.sparseChartBytes(5) < autoParser.denseChartBytes(5));
+
+    EarleyParser denseParser = parserGenerator.getParserDense();
+    for (int i = 0; i < inputSentences.length; i++) {
+      autoParser.parseSentence(inputSentences[i], i + "");
+      denseParser.parseSentence(inputSentences[i]);
+      assertEquals(true, compare(autoParser.getParser().getMeasureList(Measures.SURPRISAL),
+          toArray(denseParser.getMeasureList(Measures.SURPRISAL))));
+    }
+    assertEquals(true, autoParser.getParser() != denseParser);
+    assertEquals(autoParser.chooseDense(2) ? 1 : 0, autoParser.getNumDenseSents());
+    assertEquals(2, autoParser.getNumDenseSents() + autoParser.getNumSparseSents());
+
+    // only cells within the max width get dense rows
+    AdaptiveParser unboundedParser = parserGenerator.getParserAuto(memoryBudget);
+    parserGenerator.setMaxWidth(10, new ArrayList<String>());
+    AdaptiveParser boundedParser = parserGenerator.getParserAuto(memoryBudget);
+    assertEquals(unboundedParser.denseChartBytes(5), boundedParser.denseChartBytes(5));
+    assertEquals(true, 5*boundedParser.denseChartBytes(200) < unboundedParser.denseChartBytes(200));
+  }
+
+  @Test
+  public void testUtteranceBoundaries(){
+    // cue and marker tokens can also be words, so Words can run into the next utterance
+    String discourseGrammarString = "ROOT->[Discourse] : 1.0\n" + 
+    "Discourse->[Sentence Discourse] : 0.5\n" + 
+    "Discourse->[Sentence] : 0.5\n" + 
+    "Sentence->[Topic Words] : 1.0\n" + 
+    "Topic->[T Topic] : 0.5\n" + 
+    "Topic->[_##] : 0.5\n" + 
+    "T->[_.dog] : 0.5\n" + 
+    "T->[_.pig] : 0.5\n" + 
+    "Words->[Word Words] : 0.5\n" + 
+    "Words->[Word] : 0.5\n" + 
+    "Word->[_woof] : 0.4\n" + 
+    "Word->[_dog] : 0.2\n" + 
+    "Word->[_.pig] : 0.2\n" + 
+    "Word->[_##] : 0.2\n";
+    String inputSentence = ".dog ## woof dog .pig ## woof";
+    int origParserOpt = parserOpt;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      // one sentence over the whole discourse, or one per utterance
+      initParserFromString(discourseGrammarString);
+      parser.parseSentence(inputSentence);
+      assertEquals(true, parser.dumpInsideChart().contains("cell 2-7"));
+      assertEquals(true, parser.stringLogProbability(7) > Math.log(1.5625e-5) + 1e-10);
+      
+      // only the latter is left: 0.5*0.125*0.02 * 0.5*0.125*0.2
+      boundaryPrefixes = Arrays.asList("Sentence", "Topic", "T", "Word");
+      initParserFromString(discourseGrammarString);
+      boundaryPrefixes = new ArrayList<String>();
+      parser.parseSentence(inputSentence);
+      assertEquals(false, parser.dumpInsideChart().contains("cell 2-7"));
+      assertEquals(Math.log(1.5625e-5), parser.stringLogProbability(7), 1e-10);
+      assertEquals("( (ROOT (Discourse (Sentence (Topic (T .dog) (Topic ##)) (Words (Word woof) (Words (Word dog)))) " +
+          "(Discourse (Sentence (Topic (T .pig) (Topic ##)) (Words (Word woof)))))))", 
+          (new ViterbiDecoder(parser)).getBestParse().toString());
+    }
+    parserOpt = origParserOpt;
+  }
+
+  @Test
+  public void testScaling(){
+    // scaled prob-space parsing matches log-prob parsing, including the outside pass
+    StringBuffer sb = new StringBuffer("x");
+    for (int i = 0; i < 29; i++) {
+      sb.append(" x");
+    }
+    String inputSentence = sb.toString();
+    String origIoOptStr = ioOptStr;
+    ioOptStr = "em";
+    int origParserOpt = parserOpt;
+    for (parserOpt = 0; parserOpt <= 2; parserOpt++) {
+      initParserFromString(getCatalanGrammar(0.1));
+      parser.parseSentence(inputSentence);
+      List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+      List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+      String expectedCounts = parser.sprintExpectedCounts();
+
+      isScaling = true;
+      isLogProb = false;
+      initParserFromString(getCatalanGrammar(0.1));
+      isScaling = false;
+      isLogProb = true;
+      parser.parseSentence(inputSentence);
+      assertEquals(true, compare(parser.getMeasureList(Measures.SURPRISAL), toArray(surprisals)));
+      assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+      assertEquals(true, compare(parser.sprintExpectedCounts(), expectedCounts));
+    }
+    parserOpt = origParserOpt;
+    ioOptStr = origIoOptStr;
+  }
+
+  @Test
+  public void testIndependentOptions(){
+    // a plain parser and a log-prob Viterbi parser, built from different generators, used side by side
+    EarleyParser viterbiParser = null;
+    try {
+      EarleyParserGenerator viterbiGenerator = new EarleyParserGenerator(
+          Util.getBufferedReaderFromString(basicGrammarString), rootSymbol, 
+          false, true, "", EarleyParserOptions.VITERBI_OPT, "surprisal");
+      viterbiParser = (parserOpt==0) ? viterbiGenerator.getParserSparse() : viterbiGenerator.getParserDense();
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+    initParserFromString(basicGrammarString);
+    assertEquals(false, parser.getOptions()==viterbiParser.getOptions());
+    assertEquals(1, viterbiParser.getDecodeOpt());
+    
+    parser.parseSentence("a b");
+    viterbiParser.parseSentence("a b");
+    parser.parseSentence("a b");
+    
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    List<Double> viterbiSurprisals = viterbiParser.getMeasureList(Measures.SURPRISAL);
+    assertEquals(true, compare(viterbiSurprisals, toArray(surprisals)));
+    assertEquals("( (ROOT (A a) (B b)))", (new ViterbiDecoder(viterbiParser)).getBestParse().toString());
+  }
+  
+  @Test
+  public void testIncremental(){
+    // fragment rules need the next word, which is only known once it's pushed
+    initParserFromString(complexRecursiveFragmentGrammarString);
+    checkIncremental("b c d c");
+    
+    // longer than the initial capacity, so chart structures grow
+    initParserFromString(getCatalanGrammar(0.1));
+    StringBuffer sb = new StringBuffer("x");
+    for (int i = 0; i < 39; i++) {
+      sb.append(" x");
+    }
+    checkIncremental(sb.toString());
+    
+    // batch parsing after an incremental session
+    initParserFromString(basicGrammarString);
+    checkIncremental("a b");
+  }
+  
+  /**
+   * Parse sentence incrementally and check that the measures and Viterbi parse are the
+   * same as when parsing the whole sentence at once
+   */
+  private void checkIncremental(String inputSentence){
+    parser.parseSentence(inputSentence);
+    List<Double> surprisals = parser.getMeasureList(Measures.SURPRISAL);
+    List<Double> prefixes = parser.getMeasureList(Measures.PREFIX);
+    List<Double> stringProbs = parser.getMeasureList(Measures.STRINGPROB);
+    String tree = (parser.getDecodeOpt()==1) ? (new ViterbiDecoder(parser)).getBestParse().toString() : "";
+    
+    parser.begin();
+    String[] tokens = inputSentence.split("\\s+");
+    for (int i = 0; i < tokens.length; i++) {
+      parser.pushWord(tokens[i]);
+      Map<String, Double> valueMap = parser.currentMeasures();
+      assertEquals(surprisals.get(i), valueMap.get(Measures.SURPRISAL), 1e-10);
+      assertEquals(prefixes.get(i), valueMap.get(Measures.PREFIX), 1e-10);
+    }
+    assertEquals(true, parser.finish());
+    assertEquals(true, compare(parser.getMeasureList(Measures.STRINGPROB), toArray(stringProbs)));
+    if(parser.getDecodeOpt()==1){
+      assertEquals(tree, (new ViterbiDecoder(parser)).getBestParse().toString());
+    }
+  }
+  
+  private double[] toArray(List<Double> values){
+    double[] results = new double[values.size()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = values.get(i);
+    }
+    return results;
+  }
+  
   @Test
   public void testExtendedGrammarIO(){
     initParserFromString(extendedGrammarString);
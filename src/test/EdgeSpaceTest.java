@@ -173,8 +173,26 @@ public class EdgeSpaceTest extends TestCase {
       sb.append("\n");
     }
     assertEquals(sb.toString(), "b: A -> A . _b\na: A -> . _a B\n");
+
+    // edge attributes
+    edgeSpace.indexRules(ruleSet);
+    assertEquals(tagIndex.indexOf("A"), edgeSpace.mother(4)); // A -> A . B
+    assertEquals(1, edgeSpace.dot(4));
+    assertEquals(1, edgeSpace.numRemaining(4));
+    assertEquals(tagIndex.indexOf("B"), edgeSpace.nextChild(4));
+    assertEquals(true, edgeSpace.isNextTag(4));
+    assertEquals(3, edgeSpace.prev(4));
+    assertEquals(-1, edgeSpace.prev(3));
+    assertEquals(wordIndex.indexOf("b"), edgeSpace.nextChild(8)); // A -> A . _b
+    assertEquals(false, edgeSpace.isNextTag(8));
+    assertEquals(0, edgeSpace.numRemaining(9));
+    assertEquals(-1, edgeSpace.nextChild(9));
+    assertEquals(8, edgeSpace.prev(9));
+    assertEquals(true, edgeSpace.ruleId(3)>=0);
+    assertEquals(edgeSpace.ruleId(3), edgeSpace.ruleId(4));
+    assertEquals(ruleSet.indexOf(edgeSpace.get(9).getRule()), edgeSpace.ruleId(9));
   }
-  
+
   public void testFragmentComplex(){
     Index<String> wordIndex = new HashIndex<String>();
     Index<String> tagIndex = new HashIndex<String>();
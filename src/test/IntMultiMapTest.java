@@ -0,0 +1,82 @@
+package test;
+
+import util.IntMultiMap;
+import junit.framework.TestCase;
+
+public class IntMultiMapTest extends TestCase{
+  public void testAddRemoveAndReuse(){
+    IntMultiMap map = new IntMultiMap();
+    assertEquals(true, map.isEmpty());
+    assertEquals(-1, map.slot(5));
+
+    for (int i = 0; i < 100; i++) { // more than the initial table and list lengths
+      assertEquals(true, map.add(i%3, 1000-i));
+    }
+    assertEquals(false, map.add(1, 999)); // already there
+    assertEquals(3, map.numSlots());
+    assertEquals(34, map.size(0));
+    assertEquals(33, map.size(1));
+    assertEquals(true, map.contains(2, 998));
+    assertEquals(false, map.contains(2, 999));
+
+    // insertion order, appending while iterating doesn't disturb what's there
+    int slot = map.slot(1);
+    int size = map.sizeAt(slot);
+    for (int i = 0; i < size; i++) {
+      assertEquals(999-3*i, map.valueAt(slot, i));
+      map.add(1, 2000+i);
+    }
+    assertEquals(66, map.sizeAt(slot));
+
+    // removal keeps the order of the others
+    assertEquals(true, map.remove(1, 996));
+    assertEquals(false, map.remove(1, 996));
+    assertEquals(false, map.contains(1, 996));
+    assertEquals(999, map.valueAt(slot, 0));
+    assertEquals(993, map.valueAt(slot, 1));
+    assertEquals(true, map.add(1, 996));
+    assertEquals(996, map.valueAt(slot, 65));
+
+    map.clear();
+    assertEquals(true, map.isEmpty());
+    assertEquals(0, map.numSlots());
+    assertEquals(0, map.size(1));
+    assertEquals(false, map.contains(1, 999));
+    assertEquals(true, map.add(7, 3));
+    assertEquals(7, map.keyAt(map.slot(7)));
+    assertEquals(3, map.valueAt(map.slot(7), 0));
+  }
+
+  public void testClearAfterGrowth(){
+    IntMultiMap map = new IntMultiMap();
+    for (int i = 0; i < 10000; i++) {
+      map.add(i%100, i);
+    }
+    for (int i = 0; i < 10000; i+=2) { // holes in the probe sequences
+      assertEquals(true, map.remove(i%100, i));
+    }
+    for (int i = 1; i < 10000; i+=2) {
+      assertEquals(true, map.contains(i%100, i));
+    }
+    map.clear();
+
+    // a few values in the big tables, cleared bucket by bucket
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(true, map.add(i, round));
+        assertEquals(true, map.add(i, 100+i));
+      }
+      assertEquals(true, map.remove(3, 103));
+      assertEquals(10, map.numSlots());
+      assertEquals(1, map.size(3));
+      assertEquals(false, map.contains(99, 9999));
+      map.clear();
+      assertEquals(true, map.isEmpty());
+      for (int i = 0; i < 10; i++) {
+        assertEquals(-1, map.slot(i));
+        assertEquals(false, map.contains(i, round));
+        assertEquals(false, map.contains(i, 100+i));
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package test;
+
+import java.util.Random;
+
+import parser.EarleyParser;
+import parser.EarleyParserGenerator;
+import util.LogSumExp;
+import edu.stanford.nlp.math.ArrayMath;
+import edu.stanford.nlp.math.SloppyMath;
+
+/**
+ * Timings for log-prob score accumulation, not run as part of the unit tests:
+ *  - sums of random log scores, in batches of typical sizes, with pairwise SloppyMath.logAdd,
+ *    ArrayMath.logSum and LogSumExp.logSum.
+ *  - log-prob parsing with grammars/wsj5.grammar and grammars/WSJ.500.fg.rules, with the dense and
+ *    sparse parsers.
+ *
+ * java test.LogSumExpBenchmark [numRepeats]
+ */
+public class LogSumExpBenchmark {
+  private static final int[] BATCH_SIZES = {2, 4, 16, 64, 256};
+  private static final String[][] INPUTS = {
+    {"grammars/wsj5.grammar", "Investcorp , New York , said it and the management of Sports & Recreation Inc. bought the operator of the chain ."},
+    {"grammars/WSJ.500.fg.rules", "The two young sea-lions took not the slightest interest in our arrival ."},
+  };
+
+  public static void main(String[] args) {
+    int numRepeats = (args.length>0) ? Integer.parseInt(args[0]) : 10;
+
+    benchmarkSums(numRepeats);
+    for (String[] input : INPUTS) {
+      benchmarkParsing(input[0], input[1], numRepeats);
+    }
+  }
+
+  private static void benchmarkSums(int numRepeats){
+    Random random = new Random(1);
+    int numValues = 1 << 20;
+    double[] values = new double[numValues];
+    for (int i = 0; i < numValues; i++) {
+      values[i] = -50*random.nextDouble();
+    }
+
+    for (int size : BATCH_SIZES) {
+      double pairwiseTime = Double.MAX_VALUE, arrayMathTime = Double.MAX_VALUE, batchedTime = Double.MAX_VALUE;
+      double check = 0.0;
+      for (int r = 0; r < numRepeats; r++) {
+        long start = System.nanoTime();
+        for (int from = 0; from < numValues; from += size) {
+          double sum = Double.NEGATIVE_INFINITY;
+          for (int i = from; i < from+size; i++) {
+            sum = SloppyMath.logAdd(sum, values[i]);
+          }
+          check += sum;
+        }
+        pairwiseTime = Math.min(pairwiseTime, System.nanoTime()-start);
+
+        start = System.nanoTime();
+        for (int from = 0; from < numValues; from += size) {
+          check += ArrayMath.logSum(values, from, from+size);
+        }
+        arrayMathTime = Math.min(arrayMathTime, System.nanoTime()-start);
+
+        start = System.nanoTime();
+        for (int from = 0; from < numValues; from += size) {
+          check += LogSumExp.logSum(values, from, from+size);
+        }
+        batchedTime = Math.min(batchedTime, System.nanoTime()-start);
+      }
+
+      System.out.printf("# batch size %d, ns per score: logAdd %.2f, ArrayMath.logSum %.2f, LogSumExp.logSum %.2f (check %g)\n",
+          size, pairwiseTime/numValues, arrayMathTime/numValues, batchedTime/numValues, check);
+    }
+  }
+
+  private static void benchmarkParsing(String grammarFile, String sentence, int numRepeats){
+    EarleyParserGenerator parserGenerator = new EarleyParserGenerator(grammarFile, 1, "ROOT",
+        false, true, "", "", "surprisal,stringprob");
+    EarleyParser[] parsers = {parserGenerator.getParserDense(), parserGenerator.getParserSparse()};
+    String[] names = {"dense", "sparse"};
+
+    for (int p = 0; p < parsers.length; p++) {
+      EarleyParser parser = parsers[p];
+      parser.parseSentence(sentence); // warm up
+      long bestTime = Long.MAX_VALUE;
+      for (int r = 0; r < numRepeats; r++) {
+        long start = System.nanoTime();
+        parser.parseSentence(sentence);
+        bestTime = Math.min(bestTime, System.nanoTime()-start);
+      }
+      System.out.printf("# %s, %s, %d words: %.2f ms per sentence, string log prob %g\n", grammarFile, names[p],
+          sentence.split(" ").length, bestTime/1e6, parser.stringLogProbability(parser.getNumWords()));
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package test;
+
+import util.LogSumExp;
+import junit.framework.TestCase;
+import edu.stanford.nlp.math.SloppyMath;
+
+public class LogSumExpTest extends TestCase{
+  public void testLogSum(){
+    double[] values = {Math.log(0.1), Math.log(0.2), Math.log(0.3), Math.log(0.4), -1000.0};
+    assertEquals(0.0, LogSumExp.logSum(values, 0, 4), 1e-12);
+    assertEquals(Math.log(0.5), LogSumExp.logSum(values, 1, 3), 1e-12);
+    assertEquals(values[2], LogSumExp.logSum(values, 2, 3)); // a single score is returned as is
+    assertEquals(Double.NEGATIVE_INFINITY, LogSumExp.logSum(values, 2, 2));
+
+    // same as adding up one at a time, whatever the position of the max
+    double sum = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      sum = SloppyMath.logAdd(sum, value);
+    }
+    assertEquals(sum, LogSumExp.logSum(values, 0, values.length), 1e-12);
+
+    double[] zeros = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    assertEquals(Double.NEGATIVE_INFINITY, LogSumExp.logSum(zeros, 0, zeros.length));
+    zeros[1] = -2.0;
+    assertEquals(-2.0, LogSumExp.logSum(zeros, 0, zeros.length));
+
+    // scores far below the max still count, 1.0 + exp(-40) would round to 1.0
+    double[] tiny = {0.0, -40.0};
+    assertEquals(Math.exp(-40.0), LogSumExp.logSum(tiny, 0, tiny.length), 1e-30);
+  }
+}
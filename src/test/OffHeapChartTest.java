@@ -0,0 +1,117 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+
+import parser.EarleyParser;
+import parser.OffHeapChart;
+import util.LogProbOperator;
+import util.Operator;
+import junit.framework.TestCase;
+
+public class OffHeapChartTest extends TestCase{
+  public void testBasic(){
+    Operator operator = new LogProbOperator();
+    OffHeapChart chart = new OffHeapChart(100, 2, operator.zero(), null);
+    long cell = EarleyParser.longLinear(3, 70000); // beyond int linear indices
+    assertEquals(true, cell > Integer.MAX_VALUE);
+    assertEquals(-1, chart.row(cell));
+
+    long row = chart.allocate(cell);
+    assertEquals(row, chart.row(cell));
+    assertEquals(0, chart.count(row));
+    assertEquals(operator.zero(), chart.get(row, 1, 65));
+
+    assertEquals(true, chart.set(row, 65));
+    assertEquals(false, chart.set(row, 65));
+    assertEquals(true, chart.set(row, 3));
+    chart.put(row, 1, 65, Math.log(0.5));
+    assertEquals(2, chart.count(row));
+    assertEquals(true, chart.contains(row, 65));
+    assertEquals(false, chart.contains(row, 64));
+    assertEquals(0.5, Math.exp(chart.get(row, 1, 65)), 1e-10);
+    assertEquals(operator.zero(), chart.get(row, 0, 65));
+
+    // iterate
+    assertEquals(3, chart.nextEdge(row, -1));
+    assertEquals(65, chart.nextEdge(row, 3));
+    assertEquals(-1, chart.nextEdge(row, 65));
+
+    chart.remove(row, 65);
+    assertEquals(1, chart.count(row));
+    assertEquals(operator.zero(), chart.get(row, 1, 65));
+    assertEquals(-1, chart.nextEdge(row, 3));
+  }
+
+  public void testReuse(){
+    Operator operator = new LogProbOperator();
+    OffHeapChart chart = new OffHeapChart(1000, 2, operator.zero(), null);
+    for (int right = 0; right < 200; right++) { // more rows than the initial segment holds
+      for (int left = 0; left <= right; left += 50) {
+        long row = chart.allocate(EarleyParser.longLinear(left, right));
+        chart.set(row, right);
+        chart.put(row, 0, right, left);
+      }
+    }
+    long row = chart.row(EarleyParser.longLinear(50, 150));
+    assertEquals(true, chart.contains(row, 150));
+    assertEquals(50.0, chart.get(row, 0, 150));
+
+    // released rows are handed out again, cleared
+    chart.release(EarleyParser.longLinear(50, 150));
+    assertEquals(-1, chart.row(EarleyParser.longLinear(50, 150)));
+    long newRow = chart.allocate(EarleyParser.longLinear(0, 500));
+    assertEquals(row, newRow);
+    assertEquals(0, chart.count(newRow));
+    assertEquals(operator.zero(), chart.get(newRow, 0, 150));
+
+    long numBytes = chart.numBytes();
+    chart.reset();
+    assertEquals(-1, chart.row(EarleyParser.longLinear(0, 199)));
+    assertEquals(-1, chart.row(EarleyParser.longLinear(0, 500)));
+    row = chart.allocate(EarleyParser.longLinear(0, 0));
+    assertEquals(0, chart.count(row));
+    assertEquals(-1, chart.nextEdge(row, -1));
+    assertEquals(numBytes, chart.numBytes());
+  }
+
+  public void testSparseCells(){
+    Operator operator = new LogProbOperator();
+    OffHeapChart chart = new OffHeapChart(10, 1, operator.zero(), null);
+    int numWords = 20000;
+    for (int right = 0; right < numWords; right++) { // a width-bounded chart of a long input
+      for (int left = Math.max(0, right-2); left <= right; left++) {
+        chart.set(chart.allocate(EarleyParser.longLinear(left, right)), right % 10);
+      }
+      if(right >= 2){
+        chart.release(EarleyParser.longLinear(right-2, right));
+      }
+    }
+    for (int right = 0; right < numWords; right++) {
+      assertEquals(right < 2, chart.row(EarleyParser.longLinear(0, right)) >= 0);
+      long row = chart.row(EarleyParser.longLinear(right, right));
+      assertEquals(true, chart.contains(row, right % 10));
+    }
+    assertEquals(-1, chart.row(EarleyParser.longLinear(0, numWords-1)));
+  }
+
+  public void testMapDir() throws IOException{
+    Operator operator = new LogProbOperator();
+    File mapDir = File.createTempFile("chart", "");
+    mapDir.delete();
+    mapDir.mkdir();
+    mapDir.deleteOnExit();
+    OffHeapChart chart = new OffHeapChart(1000, 2, operator.zero(), mapDir);
+    for (int right = 0; right < 100; right++) { // segments are grown several times
+      long row = chart.allocate(EarleyParser.longLinear(0, right));
+      chart.set(row, right);
+      chart.put(row, 1, right, -right);
+    }
+    for (int right = 0; right < 100; right++) {
+      long row = chart.row(EarleyParser.longLinear(0, right));
+      assertEquals(true, chart.contains(row, right));
+      assertEquals(-right, chart.get(row, 1, right), 0.0);
+    }
+    assertEquals(1, mapDir.listFiles().length); // grown in place
+  }
+}
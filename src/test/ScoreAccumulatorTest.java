@@ -0,0 +1,35 @@
+package test;
+
+import util.LogProbOperator;
+import util.Operator;
+import util.ScoreAccumulator;
+import junit.framework.TestCase;
+
+public class ScoreAccumulatorTest extends TestCase{
+  public void testSumAndReuse(){
+    Operator operator = new LogProbOperator();
+    ScoreAccumulator acc = new ScoreAccumulator(10, 2);
+
+    for (int i = 0; i < 6; i++) { // more than the initial list length
+      acc.add(7, 0, Math.log(0.1));
+    }
+    acc.add(7, 1, Math.log(0.25));
+    acc.touch(3); // touched without scores
+    assertEquals(false, acc.touch(7));
+
+    assertEquals(2, acc.numEdges());
+    assertEquals(7, acc.edgeAt(0));
+    assertEquals(3, acc.edgeAt(1));
+    assertEquals(0.6, Math.exp(acc.sum(7, 0, operator)), 1e-10);
+    assertEquals(0.25, Math.exp(acc.sum(7, 1, operator)), 1e-10);
+    assertEquals(0, acc.count(3, 0));
+    assertEquals(operator.zero(), acc.sum(3, 0, operator));
+
+    acc.clear();
+    assertEquals(0, acc.numEdges());
+    assertEquals(0, acc.count(7, 0));
+    acc.add(7, 0, Math.log(0.5));
+    assertEquals(1, acc.numEdges());
+    assertEquals(0.5, Math.exp(acc.sum(7, 0, operator)), 1e-10);
+  }
+}
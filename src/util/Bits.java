@@ -0,0 +1,100 @@
+package util;
+
+/**
+ * Static helpers to use long arrays as fixed-size bitsets.
+ *
+ * Iterate over set bits as follows:
+ *   for (int i = Bits.nextSetBit(bits, 0); i >= 0; i = Bits.nextSetBit(bits, i+1)) { ... }
+ */
+public class Bits {
+  /**
+   * Number of long words needed to store n bits
+   */
+  public static int numWords(int n){
+    return (n + 63) >>> 6;
+  }
+
+  public static boolean get(long[] bits, int i){
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * Set bit i, returns true if it wasn't set before
+   */
+  public static boolean set(long[] bits, int i){
+    int w = i >>> 6;
+    long mask = 1L << i;
+    if((bits[w] & mask) != 0){
+      return false;
+    }
+    bits[w] |= mask;
+    return true;
+  }
+
+  public static void clear(long[] bits, int i){
+    bits[i >>> 6] &= ~(1L << i);
+  }
+
+  /**
+   * Index of the first set bit at or after from, or -1 if there is none
+   */
+  public static int nextSetBit(long[] bits, int from){
+    int w = from >>> 6;
+    if(w >= bits.length){
+      return -1;
+    }
+
+    long word = bits[w] & (-1L << from);
+    while(true){
+      if(word != 0){
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if(++w == bits.length){
+        return -1;
+      }
+      word = bits[w];
+    }
+  }
+
+  /**
+   * Index of the last set bit at or before from, or -1 if there is none
+   */
+  public static int prevSetBit(long[] bits, int from){
+    if(from < 0){
+      return -1;
+    }
+    int w = from >>> 6;
+    if(w >= bits.length){
+      w = bits.length-1;
+      from = -1; // all bits of the last word
+    }
+
+    long word = bits[w] & (-1L >>> (63 - (from & 63)));
+    while(true){
+      if(word != 0){
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+      }
+      if(w-- == 0){
+        return -1;
+      }
+      word = bits[w];
+    }
+  }
+
+  /**
+   * bits |= other, other shouldn't be longer than bits
+   */
+  public static void or(long[] bits, long[] other){
+    for (int w = 0; w < other.length; w++) {
+      bits[w] |= other[w];
+    }
+  }
+
+  public static int cardinality(long[] bits){
+    int count = 0;
+    for (long word : bits) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+}
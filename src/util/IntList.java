@@ -0,0 +1,58 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, backed by an array that is kept on clear()
+ * so it can be reused without allocation.
+ */
+public class IntList {
+  private int[] values;
+  private int size = 0;
+
+  public IntList() {
+    this(8);
+  }
+
+  public IntList(int initialSize) {
+    values = new int[initialSize];
+  }
+
+  public void add(int value){
+    if(size == values.length){
+      values = Arrays.copyOf(values, Math.max(8, 2*size));
+    }
+    values[size++] = value;
+  }
+
+  public int get(int index){
+    if(index >= size){
+      throw new IndexOutOfBoundsException("Error -- can't get position " + index + " from an IntList of size " + size);
+    }
+    return values[index];
+  }
+
+  public int size(){
+    return size;
+  }
+
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  public void clear(){
+    size = 0;
+  }
+
+  /**
+   * Returns a copy of the filled part of the list
+   */
+  public int[] toArray(){
+    return Arrays.copyOf(values, size);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
@@ -0,0 +1,296 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Multimap from non-negative int keys to lists of distinct non-negative int values, without boxing.
+ * Each key gets a slot the first time a value is added to it; slots stay valid until clear(), and the
+ * values of a slot are kept in insertion order. Appending never moves values that are already there,
+ * so a caller can go through a slot while adding to it by iterating up to the size it started with:
+ *   int slot = map.slot(key);
+ *   int size = map.sizeAt(slot);
+ *   for (int i = 0; i < size; i++) {
+ *     int value = map.valueAt(slot, i);
+ *     ...
+ *   }
+ *
+ * clear() keeps all arrays, so a map reused across sentences stops allocating once it's big enough, and
+ * only resets the buckets in use, so its cost doesn't grow with the largest sentence seen.
+ * Concurrent reads are fine as long as nobody writes.
+ */
+public class IntMultiMap {
+  private static final int INIT_LENGTH = 4;
+  private static final long FREE = -1L;
+
+  // key -> slot, open addressing with linear probing
+  private int[] keyTable = new int[16]; // key of each bucket, -1 if free
+  private int[] slotTable = new int[16]; // slot of each bucket
+
+  // slots
+  private int[] slotKeys = new int[8];
+  private int[][] values = new int[8][];
+  private int[] sizes = new int[8];
+  private int numSlots = 0;
+
+  // (key, value) pairs, for set semantics, open addressing with linear probing
+  private long[] pairTable = new long[16];
+  private int numPairs = 0;
+
+  private int numValues = 0;
+
+  public IntMultiMap() {
+    Arrays.fill(keyTable, -1);
+    Arrays.fill(pairTable, FREE);
+  }
+
+  /**
+   * Add value to the list of key, returns false if it's already there
+   */
+  public boolean add(int key, int value){
+    assert(key>=0 && value>=0);
+    long pair = pair(key, value);
+    if(!addPair(pair)){
+      return false;
+    }
+
+    int slot = slot(key);
+    if(slot<0){
+      slot = addSlot(key);
+    }
+    int[] list = values[slot];
+    int size = sizes[slot];
+    if(list == null){
+      list = new int[INIT_LENGTH];
+      values[slot] = list;
+    } else if(size == list.length){
+      list = Arrays.copyOf(list, 2*size);
+      values[slot] = list;
+    }
+    list[size] = value;
+    sizes[slot] = size+1;
+    numValues++;
+    return true;
+  }
+
+  public boolean contains(int key, int value){
+    long pair = pair(key, value);
+    int mask = pairTable.length-1;
+    for (int i = hash(pair) & mask; pairTable[i] != FREE; i = (i+1) & mask) {
+      if(pairTable[i] == pair){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Remove value from the list of key, the order of the other values is kept. Not to be called while
+   * iterating over that key.
+   */
+  public boolean remove(int key, int value){
+    long pair = pair(key, value);
+    int mask = pairTable.length-1;
+    int i = hash(pair) & mask;
+    for (; pairTable[i] != pair; i = (i+1) & mask) {
+      if(pairTable[i] == FREE){
+        return false;
+      }
+    }
+    // shift back later pairs of the probe sequence, so that lookups don't stop at the hole
+    int hole = i;
+    for (i = (hole+1) & mask; pairTable[i] != FREE; i = (i+1) & mask) {
+      int home = hash(pairTable[i]) & mask;
+      if(((i - home) & mask) >= ((i - hole) & mask)){ // home isn't in (hole, i]
+        pairTable[hole] = pairTable[i];
+        hole = i;
+      }
+    }
+    pairTable[hole] = FREE;
+    numPairs--;
+
+    int slot = slot(key);
+    int[] list = values[slot];
+    int size = sizes[slot];
+    for (int j = 0; j < size; j++) {
+      if(list[j] == value){
+        System.arraycopy(list, j+1, list, j, size-j-1);
+        break;
+      }
+    }
+    sizes[slot] = size-1;
+    numValues--;
+    return true;
+  }
+
+  /**
+   * Slot of key, -1 if nothing was ever added to key
+   */
+  public int slot(int key){
+    int mask = keyTable.length-1;
+    for (int i = hash(key) & mask; keyTable[i] >= 0; i = (i+1) & mask) {
+      if(keyTable[i] == key){
+        return slotTable[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Number of values of key
+   */
+  public int size(int key){
+    int slot = slot(key);
+    return (slot<0) ? 0 : sizes[slot];
+  }
+
+  public int sizeAt(int slot){
+    return sizes[slot];
+  }
+
+  public int valueAt(int slot, int i){
+    assert(i < sizes[slot]);
+    return values[slot][i];
+  }
+
+  /**
+   * Number of slots, i.e., keys that had values since the last clear(), some may be empty now
+   */
+  public int numSlots(){
+    return numSlots;
+  }
+
+  public int keyAt(int slot){
+    return slotKeys[slot];
+  }
+
+  public boolean isEmpty(){
+    return numValues == 0;
+  }
+
+  public void clear(){
+    if(numSlots == 0){
+      return;
+    }
+    
+    if(4*numSlots > keyTable.length){
+      Arrays.fill(keyTable, -1);
+    } else { // free the bucket of each key, probing past the ones freed already
+      int mask = keyTable.length-1;
+      for (int slot = 0; slot < numSlots; slot++) {
+        int key = slotKeys[slot];
+        int i = hash(key) & mask;
+        while(keyTable[i] != key){
+          i = (i+1) & mask;
+        }
+        keyTable[i] = -1;
+      }
+    }
+    
+    if(4*numPairs > pairTable.length){
+      Arrays.fill(pairTable, FREE);
+    } else if(numPairs > 0){ // same with the bucket of each pair, all of them are in the value lists
+      int mask = pairTable.length-1;
+      for (int slot = 0; slot < numSlots; slot++) {
+        for (int j = 0; j < sizes[slot]; j++) {
+          long pair = pair(slotKeys[slot], values[slot][j]);
+          int i = hash(pair) & mask;
+          while(pairTable[i] != pair){
+            i = (i+1) & mask;
+          }
+          pairTable[i] = FREE;
+        }
+      }
+    }
+    
+    Arrays.fill(sizes, 0, numSlots, 0);
+    numSlots = 0;
+    numPairs = 0;
+    numValues = 0;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer("{");
+    for (int slot = 0; slot < numSlots; slot++) {
+      if(slot>0){
+        sb.append(", ");
+      }
+      sb.append(slotKeys[slot] + "=" + Arrays.toString(Arrays.copyOf(values[slot] == null ? new int[0] : values[slot], sizes[slot])));
+    }
+    return sb.append("}").toString();
+  }
+
+  private int addSlot(int key){
+    if(numSlots == slotKeys.length){
+      int length = 2*numSlots;
+      slotKeys = Arrays.copyOf(slotKeys, length);
+      values = Arrays.copyOf(values, length);
+      sizes = Arrays.copyOf(sizes, length);
+    }
+    int slot = numSlots++;
+    slotKeys[slot] = key;
+
+    if(2*numSlots > keyTable.length){ // keep the load factor under 1/2
+      keyTable = new int[2*keyTable.length];
+      slotTable = new int[keyTable.length];
+      Arrays.fill(keyTable, -1);
+      for (int s = 0; s < numSlots; s++) {
+        putKey(slotKeys[s], s);
+      }
+    } else {
+      putKey(key, slot);
+    }
+    return slot;
+  }
+
+  private void putKey(int key, int slot){
+    int mask = keyTable.length-1;
+    int i = hash(key) & mask;
+    while(keyTable[i] >= 0){
+      i = (i+1) & mask;
+    }
+    keyTable[i] = key;
+    slotTable[i] = slot;
+  }
+
+  /**
+   * Returns false if pair is already there
+   */
+  private boolean addPair(long pair){
+    int mask = pairTable.length-1;
+    int i = hash(pair) & mask;
+    for (; pairTable[i] != FREE; i = (i+1) & mask) {
+      if(pairTable[i] == pair){
+        return false;
+      }
+    }
+
+    pairTable[i] = pair;
+    numPairs++;
+    if(2*numPairs > pairTable.length){ // keep the load factor under 1/2
+      long[] oldTable = pairTable;
+      pairTable = new long[2*pairTable.length];
+      Arrays.fill(pairTable, FREE);
+      mask = pairTable.length-1;
+      for (long oldPair : oldTable) {
+        if(oldPair >= 0){
+          int j = hash(oldPair) & mask;
+          while(pairTable[j] != FREE){
+            j = (j+1) & mask;
+          }
+          pairTable[j] = oldPair;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static long pair(int key, int value){
+    return ((long) key << 32) | value;
+  }
+
+  private static int hash(long x){
+    x *= 0x9E3779B97F4A7C15L;
+    return (int) (x ^ (x >>> 32));
+  }
+}
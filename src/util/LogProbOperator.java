@@ -3,7 +3,6 @@
  */
 package util;
 
-import edu.stanford.nlp.math.ArrayMath;
 import edu.stanford.nlp.math.SloppyMath;
 
 /**
@@ -12,7 +11,7 @@ import edu.stanford.nlp.math.SloppyMath;
  * @author Minh-Thang Luong, 2012
  *
  */
-public class LogProbOperator extends Operator {
+public final class LogProbOperator extends Operator {
   public double multiply(double a, double b){
     return a+b;
   }
@@ -20,7 +19,10 @@ public class LogProbOperator extends Operator {
     return -a;
   }
   public double arraySum(double[] values){
-    return ArrayMath.logSum(values);
+    return LogSumExp.logSum(values, 0, values.length);
+  }
+  public double arraySum(double[] values, int length){
+    return LogSumExp.logSum(values, 0, length);
   }
   public double add(double a, double b) {
     return SloppyMath.logAdd(a, b);
@@ -51,6 +53,11 @@ public class LogProbOperator extends Operator {
   public double getLogProb(double score) {
     return score;
   }
+
+  @Override
+  public double getScoreFromLogProb(double logProb) {
+    return logProb;
+  }
   
 
 }
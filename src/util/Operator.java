@@ -12,9 +12,11 @@ public abstract class Operator {
   public abstract double inverse(double a); // 1/a
   public abstract double add(double a, double b);
   public abstract double arraySum(double[] values);
+  public abstract double arraySum(double[] values, int length); // sum of the first length values
   public abstract double zero();
   public abstract double one();
   public abstract double getProb(double score); // exp: if LogProbOperator, return same value if ProbOperator
   public abstract double getScore(double prob); // log: if LogProbOperator, return same value if ProbOperator
   public abstract double getLogProb(double score);
+  public abstract double getScoreFromLogProb(double logProb); // exp: if ProbOperator, return same value if LogProbOperator
 }
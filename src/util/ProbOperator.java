@@ -8,7 +8,7 @@ import edu.stanford.nlp.math.ArrayMath;
  * @author Minh-Thang Luong, 2012
  *
  */
-public class ProbOperator extends Operator {
+public final class ProbOperator extends Operator {
   public double multiply(double a, double b){
     return a*b;
   }
@@ -20,6 +20,10 @@ public class ProbOperator extends Operator {
   public double arraySum(double[] values){
     return ArrayMath.sum(values);
   }
+  
+  public double arraySum(double[] values, int length){
+    return ArrayMath.sum(values, 0, length);
+  }
 
   public double add(double a, double b) {
     return a+b;
@@ -50,4 +54,9 @@ public class ProbOperator extends Operator {
   public double getLogProb(double score) {
     return Math.log(score);
   }
+
+  @Override
+  public double getScoreFromLogProb(double logProb) {
+    return Math.exp(logProb);
+  }
 }
@@ -0,0 +1,108 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Reusable holding zone that collects, for each edge, lists of scores
+ * (e.g., forward and inner scores) to be summed later with
+ * {@link Operator#arraySum(double[], int)}. Touched edges are remembered in a
+ * dirty list, so summing and clearing only cost as much as the edges used.
+ *
+ * Iterate over touched edges as follows:
+ *   for (int k = 0; k < acc.numEdges(); k++) {
+ *     int edge = acc.edgeAt(k);
+ *     ...
+ *   }
+ *
+ * Not thread-safe, each parser keeps its own instance.
+ */
+public class ScoreAccumulator {
+  private static final int INIT_LENGTH = 4;
+
+  private final int numScores; // number of score lists per edge
+  private double[][][] values; // values[i][edge]: collected i-th scores of edge, allocated on first use
+  private int[][] counts; // counts[i][edge]: number of collected i-th scores of edge
+  private boolean[] touched;
+  private int[] dirtyEdges; // edges touched since the last clear(), in order
+  private int numDirty;
+
+  public ScoreAccumulator(int size, int numScores) {
+    this.numScores = numScores;
+    values = new double[numScores][size][];
+    counts = new int[numScores][size];
+    touched = new boolean[size];
+    dirtyEdges = new int[size];
+  }
+
+  /**
+   * Mark edge as touched, returns true if it wasn't touched before
+   */
+  public boolean touch(int edge){
+    if(touched[edge]){
+      return false;
+    }
+    touched[edge] = true;
+    dirtyEdges[numDirty++] = edge;
+    return true;
+  }
+
+  /**
+   * Collect the i-th score of edge, also marks the edge as touched
+   */
+  public void add(int edge, int i, double score){
+    touch(edge);
+
+    double[] list = values[i][edge];
+    int count = counts[i][edge];
+    if(list == null){
+      list = new double[INIT_LENGTH];
+      values[i][edge] = list;
+    } else if(count == list.length){
+      list = Arrays.copyOf(list, 2*count);
+      values[i][edge] = list;
+    }
+    list[count] = score;
+    counts[i][edge] = count+1;
+  }
+
+  public int numEdges(){
+    return numDirty;
+  }
+
+  public int edgeAt(int k){
+    return dirtyEdges[k];
+  }
+
+  public int count(int edge, int i){
+    return counts[i][edge];
+  }
+
+  /**
+   * The j-th collected i-th score of edge, j < count(edge, i)
+   */
+  public double get(int edge, int i, int j){
+    return values[i][edge][j];
+  }
+
+  /**
+   * Sum of the collected i-th scores of edge, or operator.zero() if there is none
+   */
+  public double sum(int edge, int i, Operator operator){
+    int count = counts[i][edge];
+    return (count==0) ? operator.zero() : operator.arraySum(values[i][edge], count);
+  }
+
+  /**
+   * Forget all touched edges and their scores, keeps the allocated lists for reuse
+   */
+  public void clear(){
+    for (int k = 0; k < numDirty; k++) {
+      int edge = dirtyEdges[k];
+      touched[edge] = false;
+      for (int i = 0; i < numScores; i++) {
+        counts[i][edge] = 0;
+      }
+    }
+    numDirty = 0;
+  }
+}